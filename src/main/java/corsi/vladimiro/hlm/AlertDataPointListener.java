@@ -3,9 +3,12 @@ package corsi.vladimiro.hlm;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointField;
 import corsi.vladimiro.hlm.parsing.DataPointListener;
 
 import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.TreeMap;
 
 @Deprecated
@@ -38,6 +41,13 @@ public class AlertDataPointListener implements DataPointListener {
         this.timeWindow = new TreeMap<>();
     }
 
+    @Nonnull
+    @Override
+    public Set<DataPointField> getRequiredFields()
+    {
+        return EnumSet.of(DataPointField.TIMESTAMP);
+    }
+
     @Override
     public void onDataPoint(@Nonnull DataPoint dataPoint)
     {
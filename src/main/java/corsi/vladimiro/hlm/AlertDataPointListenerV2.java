@@ -5,25 +5,35 @@ import com.google.common.base.Preconditions;
 import corsi.vladimiro.hlm.aggregation.Aggregation;
 import corsi.vladimiro.hlm.aggregation.Aggregator;
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointField;
 import corsi.vladimiro.hlm.parsing.DataPointListener;
 
 import javax.annotation.Nonnull;
-import java.util.TreeMap;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Receives data points, aggregates them and checks hits per second rate over a
  * configurable time window. Alerts are activated if hit rate passes a given threshold
  * and are deactivated when the rate decreases below the threshold.
+ * The window is a ring of hit counts indexed by interval with a running sum: intervals are evicted when the window
+ * advances past them, so the cost of an aggregation does not depend on the width of the window, e.g. 24 hours at a
+ * granularity of 1 second.
  */
 public class AlertDataPointListenerV2 implements DataPointListener {
 
-    private final TreeMap<Long, Aggregation> timeWindow = new TreeMap<>();
+    //hit counts of the intervals in the window, by interval modulo its length
+    private final long[] timeWindow;
     private final Aggregator aggregator;
     private final int timeWindowInSecs;
+    private final int granularityInSecs;
     private final double hitsPerSecsThreshold;
 
     private boolean alertActive = false;
     private long count;
+    //index of the latest interval in the window, -1 if none
+    private long latestInterval = -1;
 
     public AlertDataPointListenerV2()
     {
@@ -44,10 +54,20 @@ public class AlertDataPointListenerV2 implements DataPointListener {
         aggregator =  new Aggregator(granularityInSecs);
         Preconditions.checkArgument(timeWindowInSecs >= granularityInSecs);
         this.timeWindowInSecs = timeWindowInSecs;
+        this.granularityInSecs = granularityInSecs;
+        //the intervals whose begin is less than timeWindowInSecs before the latest one
+        this.timeWindow = new long[(timeWindowInSecs + granularityInSecs - 1) / granularityInSecs];
         Preconditions.checkArgument(hitsPerSecsThreshold > 0);
         this.hitsPerSecsThreshold = hitsPerSecsThreshold;
     }
 
+    @Nonnull
+    @Override
+    public Set<DataPointField> getRequiredFields()
+    {
+        return EnumSet.of(DataPointField.TIMESTAMP);
+    }
+
     /**
      * Submits a data point.
      * @param dataPoint the {@link DataPoint} to submit.
@@ -59,27 +79,40 @@ public class AlertDataPointListenerV2 implements DataPointListener {
         aggregation.ifPresent(this::handleAggregation);
     }
 
-    private void handleAggregation(Aggregation aggregation)
+    /**
+     * Submits a batch of data points.
+     * @param batch the {@link DataPointBatch} to submit.
+     */
+    @Override
+    public void onBatch(@Nonnull DataPointBatch batch)
+    {
+        aggregator.submit(batch, this::handleAggregation);
+    }
+
+    @VisibleForTesting
+    void handleAggregation(Aggregation aggregation)
     {
-        this.count += aggregation.getTotalCount();
-        var existing = timeWindow.get(aggregation.getBeginTimestamp());
-        if (existing != null)
+        long interval = aggregation.getBeginTimestamp() / granularityInSecs;
+        if (latestInterval >= 0 && interval <= latestInterval - timeWindow.length)
         {
-            aggregation = aggregation.sum(existing);
+            //the interval already left the window, the count is unchanged
+            return;
         }
-        timeWindow.put(aggregation.getBeginTimestamp(), aggregation);
-        long endOfWindow = timeWindow.descendingMap().firstEntry().getValue().getBeginTimestamp();
-        var timeWindowIt = timeWindow.entrySet().iterator();
-        while (timeWindowIt.hasNext())
+        if (interval > latestInterval)
         {
-            var curEntry = timeWindowIt.next();
-            var curTimestamp = curEntry.getValue().getBeginTimestamp();
-            if (endOfWindow - curTimestamp >= timeWindowInSecs)
+            for (long evicted = Math.max(latestInterval - timeWindow.length + 1, 0);
+                 evicted <= Math.min(latestInterval, interval - timeWindow.length);
+                 evicted++)
             {
-                count = count - curEntry.getValue().getTotalCount();
-                timeWindowIt.remove();
+                int slot = slot(evicted);
+                count -= timeWindow[slot];
+                timeWindow[slot] = 0;
             }
+            latestInterval = interval;
         }
+        timeWindow[slot(interval)] += aggregation.getTotalCount();
+        count += aggregation.getTotalCount();
+        long endOfWindow = latestInterval * granularityInSecs;
         double hitPerSecondAverage = (double)count / timeWindowInSecs;
         if (hitPerSecondAverage > hitsPerSecsThreshold && !alertActive)
         {
@@ -93,6 +126,11 @@ public class AlertDataPointListenerV2 implements DataPointListener {
         }
     }
 
+    private int slot(long interval)
+    {
+        return (int) (interval % timeWindow.length);
+    }
+
     @VisibleForTesting
     void alertInactive(long timestamp)
     {
@@ -6,9 +6,12 @@ import corsi.vladimiro.hlm.aggregation.Aggregation;
 import corsi.vladimiro.hlm.aggregation.AggregationListener;
 import corsi.vladimiro.hlm.aggregation.TimeWindow;
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointField;
 import corsi.vladimiro.hlm.parsing.DataPointListener;
 
 import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
 //! In progress, UNUSED, UNTESTED !
 public class AlertDataPointListenerV3 implements DataPointListener {
 
@@ -32,6 +35,13 @@ public class AlertDataPointListenerV3 implements DataPointListener {
         this.timeWindow = new TimeWindow(timeWindowInSecs, granularityInSecs, new AggregationListener[]{});
     }
 
+    @Nonnull
+    @Override
+    public Set<DataPointField> getRequiredFields()
+    {
+        return EnumSet.of(DataPointField.TIMESTAMP);
+    }
+
     @Override
     public void onDataPoint(@Nonnull DataPoint dataPoint)
     {
@@ -1,40 +1,328 @@
 package corsi.vladimiro.hlm;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.ingest.Checkpoint;
+import corsi.vladimiro.hlm.ingest.Checkpointer;
+import corsi.vladimiro.hlm.ingest.FileInput;
+import corsi.vladimiro.hlm.ingest.FollowingInputStream;
+import corsi.vladimiro.hlm.ingest.GzipFileInputStream;
+import corsi.vladimiro.hlm.ingest.MappedFileInputStream;
+import corsi.vladimiro.hlm.ingest.MergingFileParser;
+import corsi.vladimiro.hlm.ingest.ParallelFileParser;
+import corsi.vladimiro.hlm.ingest.SyslogReceiver;
 import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.CommonLogFormat;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import corsi.vladimiro.hlm.parsing.LineFilter;
+import corsi.vladimiro.hlm.parsing.LineFilters;
+import corsi.vladimiro.hlm.parsing.LogFormat;
+import corsi.vladimiro.hlm.parsing.MalformedLineListener;
+import corsi.vladimiro.hlm.parsing.MalformedLineReason;
+import corsi.vladimiro.hlm.parsing.QuarantineFile;
+import corsi.vladimiro.hlm.parsing.SectionTable;
+import corsi.vladimiro.hlm.segment.SegmentReader;
+import corsi.vladimiro.hlm.segment.SegmentWriter;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 
 /**
  * Runs the HTTP log parser.
  * Can be invoked with:
  * <ul>
  *     <li>No arguments: in this case input is expected from stdin.</li>
- *     <li>The path to the log file as the only argument.</li>
+ *     <li>The path to the log file as the only argument: in this case the file is memory mapped.</li>
+ *     <li>The paths to more log files, e.g. one per load balancer node: in this case their lines are merged
+ *     by timestamp.</li>
  * </ul>
+ * Files compressed with gzip are detected and decompressed on background threads.
+ * Options:
+ * <ul>
+ *     <li>--parallel: the log file is split in chunks which are parsed in parallel.</li>
+ *     <li>--follow: the log file is followed like <code>tail -F</code> does, including rotations.</li>
+ *     <li>--checkpoint &lt;file&gt;: the position in the log file is periodically saved in the given file
+ *     and parsing resumes from there when the program is restarted.</li>
+ *     <li>--quarantine &lt;file&gt;: a sample of the malformed lines is appended to the given file.</li>
+ *     <li>--format csv|clf: the layout of the log lines, the CSV export (default) or the Common/Combined
+ *     Log Format.</li>
+ *     <li>--drop-section &lt;prefix&gt;, --drop-status-class &lt;1-5&gt;, --drop-host &lt;cidr&gt;: lines whose
+ *     section starts with the prefix, whose status is in the class or whose remote host is in the IPv4 range are
+ *     dropped before parsing. Can be repeated.</li>
+ *     <li>--breakdowns: the statistics also report the 5xx responses by section and the top clients.</li>
+ *     <li>--max-error &lt;error&gt;: the statistics count sections and clients approximately in bounded memory,
+ *     with counts overestimated by at most the given fraction of the total count of the interval, e.g. 0.001. The
+ *     ids of sections and host names are bounded too, and reassigned to new ones once rarely seen.</li>
+ *     <li>--distinct-clients: the statistics also report the estimated number of distinct clients of the interval
+ *     and of the last 2 minutes.</li>
+ *     <li>--bytes-quantiles: the statistics also report the median and the 99th percentile of the response sizes, in
+ *     total and by section.</li>
+ *     <li>--allowed-lateness &lt;seconds&gt;: the statistics are aggregated by event time, lines out of order by at
+ *     most the given number of seconds are counted in their interval, whose statistics are printed once that lateness
+ *     has passed. Later lines are dropped and counted. Cannot be combined with --checkpoint.</li>
+ *     <li>--segment-out &lt;file&gt;: the parsed data points are also stored in the given segment file.</li>
+ *     <li>--replay: the file is a segment file whose data points are replayed instead of parsing a log.</li>
+ *     <li>--tcp &lt;port&gt;, --udp &lt;port&gt;: no file is read, lines are received from the network on the given
+ *     ports, with or without a syslog header, until the program is terminated. The stats of the intervals still open
+ *     are printed before it exits.</li>
+ * </ul>
+ * The number of malformed, dropped and late lines is printed on stderr at the end of parsing.
  */
 public class Main {
 
+    private static final int STATS_INTERVAL_IN_SECS = 10;
+    private static final int DISTINCT_CLIENTS_WINDOW_IN_SECS = 120;
+    private static final long CHECKPOINT_FLUSH_INTERVAL_IN_MILLIS = 1000;
+    private static final int BATCH_SIZE = 1024;
+    private static final int QUARANTINE_MAX_LINES_PER_SEC = 10;
+    //with --max-error, names held by the symbol tables per counter of the approximate counts
+    private static final int NAMES_PER_COUNTER = 64;
+    //more than the names a segment dictionary resolves before being reset
+    private static final int MIN_NAMES = 1 << 18;
+    //fewer than the sections Labels can hold
+    private static final int MAX_NAMES = 1 << 26;
+
     public static void main(String[] args)
     {
         try {
-            final InputStream is;
-
-            switch (args.length) {
-                case 0 -> is = System.in;
-                case 1 -> is = new FileInputStream(args[0]);
-                default -> throw new IllegalArgumentException("Too many arguments");
+            boolean parallel = false;
+            boolean follow = false;
+            boolean replay = false;
+            boolean breakdowns = false;
+            double maxError = 0;
+            boolean distinctClients = false;
+            boolean bytesQuantiles = false;
+            int allowedLateness = -1;
+            Path segmentFile = null;
+            Path checkpointFile = null;
+            Path quarantineFile = null;
+            LogFormat format = null;
+            InetSocketAddress tcpAddress = null;
+            InetSocketAddress udpAddress = null;
+            var dropFilters = new ArrayList<LineFilter>();
+            var paths = new ArrayList<Path>();
+            for (int i = 0; i < args.length; i++)
+            {
+                var arg = args[i];
+                switch (arg) {
+                    case "--parallel" -> parallel = true;
+                    case "--follow" -> follow = true;
+                    case "--replay" -> replay = true;
+                    case "--breakdowns" -> breakdowns = true;
+                    case "--distinct-clients" -> distinctClients = true;
+                    case "--bytes-quantiles" -> bytesQuantiles = true;
+                    case "--allowed-lateness" -> allowedLateness = Integer.parseInt(
+                            optionValue(args, ++i, "a number of seconds"));
+                    case "--max-error" -> maxError = Double.parseDouble(optionValue(args, ++i, "an error"));
+                    case "--segment-out" -> segmentFile = Path.of(optionValue(args, ++i, "a file"));
+                    case "--checkpoint" -> checkpointFile = Path.of(optionValue(args, ++i, "a file"));
+                    case "--quarantine" -> quarantineFile = Path.of(optionValue(args, ++i, "a file"));
+                    case "--format" -> format = switch (optionValue(args, ++i, "csv or clf")) {
+                        case "csv" -> null;
+                        case "clf" -> new CommonLogFormat();
+                        default -> throw new IllegalArgumentException("Unknown format " + args[i]);
+                    };
+                    case "--tcp" -> tcpAddress = new InetSocketAddress(
+                            Integer.parseInt(optionValue(args, ++i, "a port")));
+                    case "--udp" -> udpAddress = new InetSocketAddress(
+                            Integer.parseInt(optionValue(args, ++i, "a port")));
+                    case "--drop-section" -> dropFilters.add(
+                            LineFilters.sectionPrefix(optionValue(args, ++i, "a section prefix")));
+                    case "--drop-status-class" -> dropFilters.add(
+                            LineFilters.statusClass(Integer.parseInt(optionValue(args, ++i, "a status class"))));
+                    case "--drop-host" -> dropFilters.add(
+                            LineFilters.remoteHostCidr(optionValue(args, ++i, "a CIDR range")));
+                    default -> {
+                        if (arg.startsWith("--"))
+                        {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                        paths.add(Path.of(arg));
+                    }
+                }
             }
 
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)))
+            Path path = paths.isEmpty() ? null : paths.get(0);
+            if (paths.size() > 1 && (parallel || follow || checkpointFile != null || replay))
+            {
+                throw new IllegalArgumentException(
+                        "--parallel, --follow, --checkpoint and --replay cannot be combined with more files");
+            }
+            if (replay && (path == null || parallel || follow || checkpointFile != null || format != null
+                    || !dropFilters.isEmpty() || segmentFile != null))
+            {
+                throw new IllegalArgumentException("--replay requires a segment file and no other option");
+            }
+            if (allowedLateness >= 0 && checkpointFile != null)
+            {
+                throw new IllegalArgumentException("--allowed-lateness cannot be combined with --checkpoint");
+            }
+            boolean receive = tcpAddress != null || udpAddress != null;
+            if (receive && (path != null || parallel || follow || checkpointFile != null || replay))
             {
-                var parser = CSVLogParser.builder(br)
-                        .withListeners(new AlertDataPointListenerV2(), new StatDataPointListener())
-                        .build();
-                parser.parse();
+                throw new IllegalArgumentException(
+                        "--tcp and --udp cannot be combined with files, --parallel, --follow, --checkpoint"
+                                + " or --replay");
+            }
+            try (var quarantine = quarantineFile == null
+                    ? null
+                    : new QuarantineFile(quarantineFile, QUARANTINE_MAX_LINES_PER_SEC);
+                 var segmentWriter = segmentFile == null ? null : new SegmentWriter(segmentFile))
+            {
+                MalformedLineListener malformedLineListener = quarantine == null
+                        ? (reason, line, from, to) -> {}
+                        : quarantine;
+                var filters = dropFilters.toArray(new LineFilter[0]);
+                var statListenerBuilder = StatDataPointListener.builder(10, STATS_INTERVAL_IN_SECS);
+                if (breakdowns)
+                {
+                    statListenerBuilder.withBreakdowns();
+                }
+                if (maxError > 0)
+                {
+                    statListenerBuilder.withMaxError(maxError);
+                    //heavy hitters are seen often enough to keep their ids, the others do not need to
+                    long names = (long) Math.ceil(1 / maxError) * NAMES_PER_COUNTER;
+                    int maxNames = (int) Math.min(Math.max(names, MIN_NAMES), MAX_NAMES);
+                    SectionTable.global().limitSize(maxNames);
+                    SectionTable.remoteHosts().limitSize(maxNames);
+                }
+                if (bytesQuantiles)
+                {
+                    statListenerBuilder.withBytesQuantiles();
+                }
+                if (distinctClients)
+                {
+                    statListenerBuilder.withDistinctClients(DISTINCT_CLIENTS_WINDOW_IN_SECS);
+                }
+                if (allowedLateness >= 0)
+                {
+                    statListenerBuilder.withAllowedLateness(allowedLateness);
+                }
+                var statListener = statListenerBuilder.build();
+                var listeners = segmentWriter == null
+                        ? new DataPointListener[]{new AlertDataPointListenerV2(), statListener}
+                        : new DataPointListener[]{new AlertDataPointListenerV2(), statListener, segmentWriter};
+                //options of the parsers of all the input modes but --parallel, which batches its chunks on its own
+                var parserFormat = format;
+                UnaryOperator<CSVLogParser.Builder> parserOptions =
+                        builder -> withParserOptions(builder, listeners, malformedLineListener, filters, parserFormat);
+                if (receive)
+                {
+                    var receiverBuilder = SyslogReceiver.builder(parserOptions.apply(CSVLogParser.builder()).build());
+                    if (tcpAddress != null)
+                    {
+                        receiverBuilder.withTcp(tcpAddress);
+                    }
+                    if (udpAddress != null)
+                    {
+                        receiverBuilder.withUdp(udpAddress);
+                    }
+                    receive(receiverBuilder.build(), statListener, Runtime.getRuntime()::addShutdownHook);
+                } else if (replay)
+                {
+                    SegmentReader.builder(path).withListeners(listeners).build().replay();
+                } else if (paths.size() > 1)
+                {
+                    var builder = MergingFileParser.builder(paths)
+                            .withListeners(listeners)
+                            .withMalformedLineListener(malformedLineListener)
+                            .withDropFilters(filters)
+                            .withBatchSize(BATCH_SIZE);
+                    if (format != null)
+                    {
+                        builder.withFormat(format);
+                    }
+                    var parser = builder.build();
+                    parser.parse();
+                    printMalformedLineCounts(parser::getMalformedLineCount);
+                    printDroppedLineCounts(filters, parser::getDroppedLineCount);
+                } else if (path == null)
+                {
+                    if (parallel || follow || checkpointFile != null)
+                    {
+                        throw new IllegalArgumentException("--parallel, --follow and --checkpoint require a file");
+                    }
+                    parse(parserOptions.apply(CSVLogParser.builder(System.in)).build(), filters);
+                } else if (GzipFileInputStream.isGzip(path))
+                {
+                    if (parallel || follow || checkpointFile != null)
+                    {
+                        throw new IllegalArgumentException(
+                                "--parallel, --follow and --checkpoint cannot be used with a compressed file");
+                    }
+                    parse(parserOptions.apply(CSVLogParser.builder(new GzipFileInputStream(path))).build(), filters);
+                } else if (parallel)
+                {
+                    if (follow || checkpointFile != null)
+                    {
+                        throw new IllegalArgumentException(
+                                "--parallel cannot be combined with --follow or --checkpoint");
+                    }
+                    var builder = ParallelFileParser.builder(path)
+                            .withListeners(listeners)
+                            .withMalformedLineListener(malformedLineListener)
+                            .withDropFilters(filters)
+                            .withBatchSize(BATCH_SIZE);
+                    if (format != null)
+                    {
+                        builder.withFormat(format);
+                    }
+                    var parser = builder.build();
+                    parser.parse();
+                    printMalformedLineCounts(parser::getMalformedLineCount);
+                    printDroppedLineCounts(filters, parser::getDroppedLineCount);
+                } else
+                {
+                    var checkpoint = checkpointFile == null
+                            ? Optional.<Checkpoint>empty()
+                            : Checkpointer.load(checkpointFile);
+                    long offset = 0;
+                    //a file without identity cannot be told apart from another one, a file shorter than the offset
+                    //has been truncated, e.g. by a copytruncate rotation: both are read from the beginning
+                    if (checkpoint.isPresent()
+                            && FileInput.fileIdentityOf(path).equals(Optional.of(checkpoint.get().getFileIdentity()))
+                            && checkpoint.get().getOffset() <= Files.size(path))
+                    {
+                        offset = checkpoint.get().getOffset();
+                        statListener.resumeAfter(checkpoint.get().getLastCompletedEndTimestamp());
+                    }
+                    final InputStream is = follow
+                            ? new FollowingInputStream(path, offset, 100)
+                            : new MappedFileInputStream(path, offset, Long.MAX_VALUE);
+                    var builder = parserOptions.apply(CSVLogParser.builder(is));
+                    if (offset > 0)
+                    {
+                        builder.withoutHeader();
+                    }
+                    if (checkpointFile == null)
+                    {
+                        parse(builder.build(), filters);
+                    } else
+                    {
+                        try (var checkpointer = new Checkpointer(checkpointFile, (FileInput) is,
+                                STATS_INTERVAL_IN_SECS, CHECKPOINT_FLUSH_INTERVAL_IN_MILLIS, true))
+                        {
+                            parse(builder.withOffsetListener(checkpointer).build(), filters);
+                        }
+                    }
+                }
+                if (!receive)
+                {
+                    //the input has ended, in event time mode the latest intervals are still open
+                    statListener.flush();
+                    printLateDataPoints(statListener);
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -42,4 +330,104 @@ public class Main {
         }
     }
 
+    /**
+     * Receives lines until the program is terminated, then prints the stats of the intervals still open. The JVM halts
+     * as soon as its shutdown hooks return, so the hook stopping the receiver waits for them to be printed.
+     * @param shutdownHooks registers the hook, e.g. {@link Runtime#addShutdownHook(Thread)}.
+     */
+    @VisibleForTesting
+    static void receive(SyslogReceiver receiver,
+                        StatDataPointListener statListener,
+                        Consumer<Thread> shutdownHooks) throws IOException
+    {
+        var stopped = new CountDownLatch(1);
+        shutdownHooks.accept(new Thread(() -> {
+            receiver.close();
+            Uninterruptibles.awaitUninterruptibly(stopped);
+        }));
+        try
+        {
+            receiver.run();
+            statListener.flushAll();
+            printLateDataPoints(statListener);
+        } finally
+        {
+            stopped.countDown();
+        }
+    }
+
+    private static void printLateDataPoints(StatDataPointListener statListener)
+    {
+        if (statListener.getLateDataPoints() > 0)
+        {
+            System.err.println("Late data points: " + statListener.getLateDataPoints());
+        }
+    }
+
+    private static CSVLogParser.Builder withParserOptions(CSVLogParser.Builder builder,
+                                                          DataPointListener[] listeners,
+                                                          MalformedLineListener malformedLineListener,
+                                                          LineFilter[] filters,
+                                                          LogFormat format)
+    {
+        //none of our listeners retains data points
+        builder.withListeners(listeners)
+                .withMalformedLineListener(malformedLineListener)
+                .withDropFilters(filters)
+                .withDataPointReuse()
+                .withBatchSize(BATCH_SIZE);
+        if (format != null)
+        {
+            builder.withFormat(format);
+        }
+        return builder;
+    }
+
+    private static void parse(CSVLogParser parser, LineFilter[] filters) throws IOException, CsvValidationException
+    {
+        parser.parse();
+        printMalformedLineCounts(parser::getMalformedLineCount);
+        printDroppedLineCounts(filters, parser::getDroppedLineCount);
+    }
+
+    private static String optionValue(String[] args, int i, String expected)
+    {
+        if (i == args.length)
+        {
+            throw new IllegalArgumentException(args[i - 1] + " requires " + expected);
+        }
+        return args[i];
+    }
+
+    private static void printDroppedLineCounts(LineFilter[] filters, ToLongFunction<LineFilter> counts)
+    {
+        var sb = new StringBuilder();
+        for (var filter : filters)
+        {
+            sb.append(sb.length() == 0 ? "Dropped lines: " : ", ").append(filter).append('=')
+                    .append(counts.applyAsLong(filter));
+        }
+        if (sb.length() > 0)
+        {
+            System.err.println(sb);
+        }
+    }
+
+    private static void printMalformedLineCounts(ToLongFunction<MalformedLineReason> counts)
+    {
+        var sb = new StringBuilder();
+        for (var reason : MalformedLineReason.values())
+        {
+            long count = counts.applyAsLong(reason);
+            if (count > 0)
+            {
+                sb.append(sb.length() == 0 ? "Malformed lines: " : ", ").append(reason).append('=').append(count);
+            }
+        }
+        if (sb.length() > 0)
+        {
+            System.err.println(sb);
+        }
+    }
+
 }
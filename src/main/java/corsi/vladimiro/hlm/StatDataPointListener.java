@@ -4,15 +4,25 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import corsi.vladimiro.hlm.aggregation.Aggregation;
 import corsi.vladimiro.hlm.aggregation.Aggregator;
+import corsi.vladimiro.hlm.aggregation.Cuboid;
+import corsi.vladimiro.hlm.aggregation.Dimension;
 import corsi.vladimiro.hlm.aggregation.Labels;
+import corsi.vladimiro.hlm.aggregation.TimeWindow;
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointField;
 import corsi.vladimiro.hlm.parsing.DataPointListener;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.DoubleFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Receives {@link DataPoint} and prints the count of received requests for every 10 second interval.
@@ -21,13 +31,127 @@ import java.util.stream.Collectors;
  * When a data point arrives which lies in a subsequent interval,
  * then the current interval is completed and stats printed.
  * When a data point arrives which lies in a past interval it is discarded and not aggregated.
+ * Optionally the 5xx responses by section and the top clients are also printed, counted in the same pass through
+ * the cuboids of the {@link Aggregation}.
+ * Counts by section and client are exact by default. With a maximum relative error they are approximated in a fixed
+ * amount of memory per interval, however many distinct sections and clients there are, see
+ * {@link Aggregator#withMaxLabels(int)}.
+ * Optionally the number of distinct clients is printed too, for the interval and for a sliding window of intervals,
+ * estimated from sketches of fixed size merged through a {@link TimeWindow}, and the median and 99th percentile of the
+ * response sizes, in total and for the printed sections.
+ * Optionally data points are aggregated by event time with an allowed lateness: intervals are kept open until the
+ * watermark, the begin of the latest interval minus the allowed lateness, passes their end, then their stats are
+ * printed exactly once and in order, see {@link Aggregator#withAllowedLateness(int)}. Data points of intervals already
+ * printed are discarded and counted as late. The intervals still open when the input ends are printed by
+ * {@link StatDataPointListener#flush()}, or by {@link StatDataPointListener#flushAll()} together with the current
+ * interval of processing time mode.
  */
 public class StatDataPointListener implements DataPointListener {
 
+    /**
+     * Creates {@link StatDataPointListener} instances.
+     */
+    public static class Builder
+    {
+        private final int maxNumOfSections;
+        private final int intervalInSeconds;
+        private boolean breakdowns;
+        private double maxError;
+        private int distinctClientsWindowInSeconds;
+        private boolean bytesQuantiles;
+        private int allowedLatenessInSeconds = -1;
+
+        private Builder(int maxNumOfSections, int intervalInSeconds)
+        {
+            this.maxNumOfSections = maxNumOfSections;
+            this.intervalInSeconds = intervalInSeconds;
+        }
+
+        /**
+         * Prints the 5xx responses by section and the top clients too.
+         * @return this builder.
+         */
+        public Builder withBreakdowns()
+        {
+            this.breakdowns = true;
+            return this;
+        }
+
+        /**
+         * @param maxError maximum error of the printed counts relative to the total count of the interval, in (0, 1).
+         *                 Sections and clients are counted approximately, about 1/maxError of them.
+         * @return this builder.
+         */
+        public Builder withMaxError(double maxError)
+        {
+            Preconditions.checkArgument(maxError > 0 && maxError < 1);
+            this.maxError = maxError;
+            return this;
+        }
+
+        /**
+         * Prints the estimated number of distinct clients of the interval and of a sliding window.
+         * @param windowInSeconds width of the sliding window, a multiple of the interval duration.
+         * @return this builder.
+         */
+        public Builder withDistinctClients(int windowInSeconds)
+        {
+            Preconditions.checkArgument(windowInSeconds >= intervalInSeconds);
+            Preconditions.checkArgument(windowInSeconds % intervalInSeconds == 0);
+            this.distinctClientsWindowInSeconds = windowInSeconds;
+            return this;
+        }
+
+        /**
+         * Prints the median and the 99th percentile of the response sizes too, in total and by section. With
+         * {@link Builder#withMaxError(double)} they are only printed in total.
+         * @return this builder.
+         */
+        public Builder withBytesQuantiles()
+        {
+            this.bytesQuantiles = true;
+            return this;
+        }
+
+        /**
+         * Aggregates data points by event time: data points arriving out of order are still counted in their
+         * interval, as long as they are not older than the allowed lateness with respect to the latest interval.
+         * The stats of an interval are printed once the allowed lateness has passed its end.
+         * @param allowedLatenessInSeconds how late data points may arrive, 0 to only accept them in order while
+         *                                 keeping the event time semantics.
+         * @return this builder.
+         */
+        public Builder withAllowedLateness(int allowedLatenessInSeconds)
+        {
+            Preconditions.checkArgument(allowedLatenessInSeconds >= 0);
+            this.allowedLatenessInSeconds = allowedLatenessInSeconds;
+            return this;
+        }
+
+        @Nonnull
+        public StatDataPointListener build()
+        {
+            return new StatDataPointListener(this);
+        }
+    }
+
+    private static final Cuboid SECTION_STATUS_CLASS = Cuboid.of(Dimension.SECTION, Dimension.STATUS_CLASS);
+    private static final Cuboid REMOTE_HOST = Cuboid.of(Dimension.REMOTE_HOST);
+    private static final double[] BYTES_QUANTILES = {0.5, 0.99};
+
     private final Aggregator aggregator;
 
     private final int maxNumOfSections;
 
+    private final boolean breakdowns;
+
+    @Nullable
+    private final TimeWindow distinctClientsWindow;
+
+    private final boolean bytesQuantiles;
+
+    private final boolean eventTime;
+
     private long lastHandledEndTimestamp;
 
     /**
@@ -44,12 +168,60 @@ public class StatDataPointListener implements DataPointListener {
      * @param intervalInSeconds duration of the time interval used for aggregation.
      */
     public StatDataPointListener(int maxNumOfSections, int intervalInSeconds)
+    {
+        this(builder(maxNumOfSections, intervalInSeconds));
+    }
+
+    private StatDataPointListener(Builder builder)
+    {
+        this.maxNumOfSections = builder.maxNumOfSections;
+        this.breakdowns = builder.breakdowns;
+        this.bytesQuantiles = builder.bytesQuantiles;
+        var aggregator = builder.breakdowns
+                ? Aggregator.byCuboids(builder.intervalInSeconds, Cuboid.SECTION, SECTION_STATUS_CLASS, REMOTE_HOST)
+                : Aggregator.bySection(builder.intervalInSeconds);
+        if (builder.maxError > 0)
+        {
+            aggregator = aggregator.withMaxLabels((int) Math.max(maxNumOfSections, Math.ceil(1 / builder.maxError)));
+        }
+        if (builder.bytesQuantiles)
+        {
+            aggregator = aggregator.withBytesQuantiles(builder.maxError == 0);
+        }
+        if (builder.distinctClientsWindowInSeconds > 0)
+        {
+            aggregator = aggregator.withDistinctRemoteHosts();
+            distinctClientsWindow = new TimeWindow(builder.distinctClientsWindowInSeconds, builder.intervalInSeconds);
+        } else
+        {
+            distinctClientsWindow = null;
+        }
+        this.eventTime = builder.allowedLatenessInSeconds >= 0;
+        if (eventTime)
+        {
+            aggregator = aggregator.withAllowedLateness(builder.allowedLatenessInSeconds);
+        }
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * @param maxNumOfSections maximum number of sections and clients for which we print request counts.
+     * @param intervalInSeconds duration of the time interval used for aggregation.
+     * @return a new {@link Builder}.
+     */
+    @Nonnull
+    public static Builder builder(int maxNumOfSections, int intervalInSeconds)
     {
         Preconditions.checkArgument(maxNumOfSections > 0);
         Preconditions.checkArgument(intervalInSeconds > 0);
-        this.maxNumOfSections = maxNumOfSections;
-        aggregator = new Aggregator(intervalInSeconds,
-                dataPoint -> Optional.of(Labels.of(dataPoint.getSection())));
+        return new Builder(maxNumOfSections, intervalInSeconds);
+    }
+
+    @Nonnull
+    @Override
+    public Set<DataPointField> getRequiredFields()
+    {
+        return aggregator.getRequiredFields();
     }
 
     /**
@@ -58,7 +230,8 @@ public class StatDataPointListener implements DataPointListener {
      * LMAX disruptor...) and have an asynchronous process handling aggregation and printing.
      *
      * @param dataPoint {@link DataPoint} to aggregate. If it lies in an interval which is before
-     *                                   the current interval the point is discarded.
+     *                                   the current interval the point is discarded, in event time mode if it lies
+     *                                   in an interval whose stats have been printed.
      */
     @Override
     public void onDataPoint(@Nonnull DataPoint dataPoint) {
@@ -66,12 +239,78 @@ public class StatDataPointListener implements DataPointListener {
         {
             return;
         }
-        var aggregation = aggregator.submit(dataPoint);
-        aggregation.ifPresent(this::handleAggregation);
+        aggregator.submit(dataPoint, this::handleAggregation);
+    }
+
+    /**
+     * Receives a batch of data points, with the same semantics as {@link StatDataPointListener#onDataPoint(DataPoint)}
+     * for each row.
+     * @param batch the batch to aggregate.
+     */
+    @Override
+    public void onBatch(@Nonnull DataPointBatch batch) {
+        aggregator.submit(batch, timestamp -> timestamp > lastHandledEndTimestamp, this::handleAggregation);
+    }
+
+    /**
+     * Declares that statistics have already been printed up to the given timestamp, e.g. by a previous run
+     * of the program whose ingestion is being resumed. Data points before it are discarded.
+     * @param endTimestamp end timestamp of the last interval whose statistics have been printed.
+     */
+    public void resumeAfter(long endTimestamp)
+    {
+        lastHandledEndTimestamp = Math.max(lastHandledEndTimestamp, endTimestamp);
+    }
+
+    /**
+     * Prints the stats of the intervals still open in event time mode, in order, e.g. when the input ends. Data points
+     * of these intervals are discarded afterwards. In processing time mode the current interval is left open, its
+     * stats are printed when a data point of a later interval arrives.
+     */
+    public void flush()
+    {
+        if (eventTime)
+        {
+            aggregator.flush(aggregation -> {
+                lastHandledEndTimestamp = aggregation.getEndTimestamp();
+                printAggregation(aggregation);
+            });
+        }
+    }
+
+    /**
+     * Prints the stats of all the intervals still open, including the current one in processing time mode, e.g. when
+     * receiving lines is stopped: unlike a file, the stream will not be continued.
+     */
+    public void flushAll()
+    {
+        if (eventTime)
+        {
+            flush();
+            return;
+        }
+        aggregator.flush(this::handleAggregation);
+    }
+
+    /**
+     * @return the number of data points discarded in event time mode because their interval had already been
+     * printed, 0 otherwise.
+     */
+    public long getLateDataPoints()
+    {
+        return aggregator.getLateCount();
     }
 
     private void handleAggregation(Aggregation aggregation) {
-        lastHandledEndTimestamp = aggregation.getEndTimestamp();
+        //in event time mode late data points reach the aggregator, which counts them
+        if (!eventTime)
+        {
+            lastHandledEndTimestamp = aggregation.getEndTimestamp();
+        }
+        printAggregation(aggregation);
+    }
+
+    private void printAggregation(Aggregation aggregation) {
         var sectionToCount = aggregation.getLabelCounts().entrySet().parallelStream()
                 .collect(
                         //here we want to distribute the aggregation between cores
@@ -95,6 +334,108 @@ public class StatDataPointListener implements DataPointListener {
                 aggregation.getTotalCount(),
                 sectionToCountSorted
         );
+        if (breakdowns)
+        {
+            var serverErrorsBySection = top(aggregation.getLabelCounts(SECTION_STATUS_CLASS).entrySet().stream()
+                    .filter(labelCount -> labelCount.getKey().getStatusClass() == 5)
+                    .map(labelCount -> Map.entry(labelCount.getKey().getSection(), labelCount.getValue())));
+            var topClients = top(aggregation.getLabelCounts(REMOTE_HOST).entrySet().stream()
+                    .map(labelCount -> Map.entry(labelCount.getKey().getRemoteHost(), labelCount.getValue())));
+            printBreakdowns(serverErrorsBySection, topClients);
+        }
+        if (bytesQuantiles)
+        {
+            var sectionToQuantiles = sectionToCountSorted.stream()
+                    .map(Map.Entry::getKey)
+                    .map(section -> Map.entry(section,
+                            quantiles(quantile -> aggregation.getBytesQuantile(Labels.of(section), quantile))))
+                    .filter(sectionToQuantile -> !sectionToQuantile.getValue().isEmpty())
+                    .collect(Collectors.toList());
+            printBytesQuantiles(quantiles(aggregation::getBytesQuantile), sectionToQuantiles);
+        }
+        if (distinctClientsWindow != null)
+        {
+            distinctClientsWindow.submit(aggregation);
+            printDistinctClients(aggregation.getDistinctRemoteHosts().orElseThrow(),
+                    distinctClientsWindow.getDistinctRemoteHosts().orElseThrow(),
+                    distinctClientsWindow.getTimeWindowInSecs());
+        }
+    }
+
+    /**
+     * @return the quantiles of {@link StatDataPointListener#BYTES_QUANTILES}, empty if they are not available.
+     */
+    private static List<Long> quantiles(DoubleFunction<OptionalLong> quantileFunction)
+    {
+        var quantiles = new ArrayList<Long>(BYTES_QUANTILES.length);
+        for (double quantile : BYTES_QUANTILES)
+        {
+            var value = quantileFunction.apply(quantile);
+            if (value.isEmpty())
+            {
+                return List.of();
+            }
+            quantiles.add(value.getAsLong());
+        }
+        return quantiles;
+    }
+
+    private List<Map.Entry<String, Long>> top(Stream<Map.Entry<String, Long>> counts)
+    {
+        return counts
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(maxNumOfSections)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param quantiles the median and the 99th percentile of all the response sizes, empty if there are none.
+     * @param sectionToQuantiles the median and the 99th percentile of the response sizes by section.
+     */
+    @VisibleForTesting
+    void printBytesQuantiles(List<Long> quantiles, List<Map.Entry<String, List<Long>>> sectionToQuantiles)
+    {
+        if (quantiles.isEmpty())
+        {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Response bytes p50/p99: all=")
+                .append(quantiles.get(0)).append('/').append(quantiles.get(1));
+        for (var sectionToQuantile : sectionToQuantiles)
+        {
+            var sectionQuantiles = sectionToQuantile.getValue();
+            sb.append(", ").append(sectionToQuantile.getKey()).append('=')
+                    .append(sectionQuantiles.get(0)).append('/').append(sectionQuantiles.get(1));
+        }
+        sb.append("\n");
+        System.out.println(sb);
+    }
+
+    @VisibleForTesting
+    void printDistinctClients(long distinctClients, long windowDistinctClients, int windowInSeconds)
+    {
+        System.out.println("Distinct clients: " + distinctClients + ", in the last " + windowInSeconds + " seconds: "
+                + windowDistinctClients + "\n");
+    }
+
+    @VisibleForTesting
+    void printBreakdowns(List<Map.Entry<String, Long>> serverErrorsBySectionSorted,
+                         List<Map.Entry<String, Long>> topClientsSorted)
+    {
+        StringBuilder sb = new StringBuilder("5xx by section:");
+        appendCounts(sb, serverErrorsBySectionSorted);
+        sb.append("\nTop clients:");
+        appendCounts(sb, topClientsSorted);
+        sb.append("\n");
+        System.out.println(sb);
+    }
+
+    private static void appendCounts(StringBuilder sb, List<Map.Entry<String, Long>> counts)
+    {
+        for (int i = 0; i < counts.size(); i++)
+        {
+            sb.append(i == 0 ? " " : ", ").append(counts.get(i).getKey()).append('=').append(counts.get(i).getValue());
+        }
     }
 
     @VisibleForTesting
@@ -1,18 +1,33 @@
 package corsi.vladimiro.hlm.aggregation;
 
 import com.google.common.base.Preconditions;
-import org.checkerframework.checker.units.qual.A;
 
 import javax.annotation.Nonnull;
-import java.util.Collections;
-import java.util.HashMap;
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.Set;
 
 /**
  * Represents a counter of multiple {@link corsi.vladimiro.hlm.parsing.DataPoint}s.
  * Has associated an interval in time related to the timestamp of the data points counted.
  * Also contains a breakdown of the count by {@link Labels} where a {@link Labels} object represents
  * a point in the label space of the data point, e.g: HTTP status code + request section + remote host...
+ * There is one breakdown per {@link Cuboid}, counting the labels projected on the dimensions of the cuboid, e.g.
+ * by section and by remote host: the labels are never counted in the cross product of all the dimensions unless
+ * {@link Cuboid#BASE} is one of the cuboids. Breakdowns are held in primitive arrays keyed by
+ * {@link Labels#getKey()}: counting a data point with already seen labels does not allocate.
+ * Breakdowns are exact unless a maximum number of labels is given: then each breakdown keeps the approximate counts of
+ * its most frequent labels in a fixed amount of memory, see {@link SpaceSavingCounts}.
+ * Optionally the number of distinct remote hosts is estimated too, with a {@link HyperLogLog} sketch of fixed size,
+ * and the distribution of the response sizes is recorded in {@link Histogram}s, in total and by the labels of the first
+ * cuboid.
  */
 public class Aggregation {
 
@@ -20,21 +35,163 @@ public class Aggregation {
     private final long endTimestamp;
     private long totalCount;
 
-    private final Map<Labels, Long> labelCounts;
+    /**
+     * Maximum number of labels per breakdown meaning that the breakdowns are exact.
+     */
+    static final int UNBOUNDED = 0;
+
+    /**
+     * Which distributions of the response sizes are recorded.
+     */
+    enum BytesDistributions
+    {
+        NONE,
+        TOTAL,
+        //total and by the labels of the first cuboid
+        BY_LABELS
+    }
+
+    private static final Cuboid[] BASE_ONLY = {Cuboid.BASE};
 
+    private final Cuboid[] cuboids;
+    //by cuboid
+    private final Breakdown[] labelCounts;
+    @Nullable
+    private final HyperLogLog remoteHosts;
+    @Nullable
+    private final Histogram bytes;
+    @Nullable
+    private final LabelHistograms bytesByLabels;
+
+    /**
+     * Breaks the count down by {@link Cuboid#BASE}.
+     */
     Aggregation(long beginTimestamp, long endTimestamp) {
+        this(beginTimestamp, endTimestamp, BASE_ONLY, UNBOUNDED, false, BytesDistributions.NONE, null);
+    }
+
+    /**
+     * @param cuboids the cuboids to break the count down by, at least one.
+     * @param maxLabels maximum number of labels counted by each breakdown, {@link Aggregation#UNBOUNDED} for exact
+     *                  breakdowns. Ignored if there is a previous {@link Aggregation}.
+     * @param distinctRemoteHosts whether the distinct remote hosts are counted.
+     * @param bytesDistributions which distributions of the response sizes are recorded.
+     * @param previous an {@link Aggregation} with the same cuboids whose number of labels is expected to be similar,
+     *                 to size the breakdowns.
+     */
+    Aggregation(long beginTimestamp,
+                long endTimestamp,
+                @Nonnull Cuboid[] cuboids,
+                int maxLabels,
+                boolean distinctRemoteHosts,
+                @Nonnull BytesDistributions bytesDistributions,
+                @Nullable Aggregation previous) {
         Preconditions.checkArgument(beginTimestamp >= 0);
         Preconditions.checkArgument(endTimestamp > beginTimestamp);
+        Preconditions.checkArgument(cuboids.length > 0);
+        Preconditions.checkArgument(maxLabels >= 0);
         this.beginTimestamp = beginTimestamp;
         this.endTimestamp = endTimestamp;
         this.totalCount = 0;
-        this.labelCounts = new HashMap<>();
+        this.cuboids = cuboids;
+        this.labelCounts = new Breakdown[cuboids.length];
+        for (int i = 0; i < cuboids.length; i++)
+        {
+            if (previous != null)
+            {
+                labelCounts[i] = previous.labelCounts[i].emptyCopy();
+            } else
+            {
+                labelCounts[i] = maxLabels == UNBOUNDED ? new LabelCounts() : new SpaceSavingCounts(maxLabels, true);
+            }
+        }
+        this.remoteHosts = distinctRemoteHosts ? new HyperLogLog() : null;
+        this.bytes = bytesDistributions == BytesDistributions.NONE ? null : new Histogram();
+        this.bytesByLabels = bytesDistributions == BytesDistributions.BY_LABELS
+                ? new LabelHistograms(previous == null || previous.bytesByLabels == null
+                        ? 0
+                        : previous.bytesByLabels.size())
+                : null;
+    }
+
+    private Aggregation(long beginTimestamp,
+                        long endTimestamp,
+                        long totalCount,
+                        Cuboid[] cuboids,
+                        Breakdown[] labelCounts,
+                        @Nullable HyperLogLog remoteHosts,
+                        @Nullable Histogram bytes,
+                        @Nullable LabelHistograms bytesByLabels) {
+        this.beginTimestamp = beginTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.totalCount = totalCount;
+        this.cuboids = cuboids;
+        this.labelCounts = labelCounts;
+        this.remoteHosts = remoteHosts;
+        this.bytes = bytes;
+        this.bytesByLabels = bytesByLabels;
     }
 
     void increment(@Nonnull Labels labels) {
-        increment();
-        long labelCount = labelCounts.getOrDefault(labels, 0L);
-        labelCounts.put(labels, labelCount + 1);
+        incrementKey(labels.getKey());
+    }
+
+    /**
+     * Same as {@link Aggregation#increment(Labels)} with the {@link Labels} of the section.
+     * @param sectionId id of the section, non-negative.
+     */
+    void incrementSection(int sectionId) {
+        Preconditions.checkArgument(sectionId >= 0);
+        incrementKey(Labels.sectionKey(sectionId));
+    }
+
+    /**
+     * Same as {@link Aggregation#increment(Labels)} with the key of the {@link Labels}.
+     */
+    void incrementKey(long labelsKey) {
+        for (int i = 0; i < cuboids.length; i++)
+        {
+            labelCounts[i].increment(cuboids[i].project(labelsKey), 1);
+        }
+        totalCount = totalCount + 1;
+    }
+
+    /**
+     * Adds a remote host to the distinct remote hosts, if they are counted.
+     * @param remoteHost buffer holding the UTF-8 encoded remote host.
+     */
+    void addRemoteHost(byte[] remoteHost, int from, int to)
+    {
+        if (remoteHosts != null)
+        {
+            remoteHosts.add(HyperLogLog.hash(remoteHost, from, to));
+        }
+    }
+
+    void addRemoteHost(@Nonnull String remoteHost)
+    {
+        if (remoteHosts != null)
+        {
+            remoteHosts.add(HyperLogLog.hash(remoteHost));
+        }
+    }
+
+    /**
+     * Records the size of a response, if the distributions of the sizes are recorded.
+     * @param labelsKey the key of the labels of the data point, negative if it has none.
+     * @param responseBytes the size of the response.
+     */
+    void recordBytes(long labelsKey, long responseBytes)
+    {
+        if (bytes == null)
+        {
+            return;
+        }
+        bytes.record(responseBytes);
+        if (bytesByLabels != null && labelsKey >= 0)
+        {
+            bytesByLabels.record(cuboids[0].project(labelsKey), responseBytes);
+        }
     }
 
     void increment()
@@ -42,6 +199,24 @@ public class Aggregation {
         totalCount = totalCount + 1;
     }
 
+    /**
+     * Releases the ids of the sections and host names pinned by approximate breakdowns while counting, once the
+     * aggregation is completed. Its labels are then expected to be resolved soon, see
+     * {@link corsi.vladimiro.hlm.parsing.SectionTable#limitSize(int)}.
+     */
+    void release()
+    {
+        for (var counts : labelCounts)
+        {
+            counts.release();
+        }
+    }
+
+    void increment(long count)
+    {
+        totalCount = totalCount + count;
+    }
+
     /**
      * @return the count of this {@link Aggregation}.
      */
@@ -50,11 +225,110 @@ public class Aggregation {
     }
 
     /**
-     * @return the breakdown of the count by {@link Labels}.
+     * @return the estimated number of distinct remote hosts of the counted data points, with a standard error of
+     * about 1.6%, or empty if they are not counted.
+     */
+    @Nonnull
+    public OptionalLong getDistinctRemoteHosts() {
+        return remoteHosts == null ? OptionalLong.empty() : OptionalLong.of(remoteHosts.estimate());
+    }
+
+    /**
+     * @param quantile in [0, 1], e.g. 0.5 for the median.
+     * @return the quantile of the response sizes of the counted data points, within about 1.6%, or empty if the
+     * distribution is not recorded or there is no data point.
+     */
+    @Nonnull
+    public OptionalLong getBytesQuantile(double quantile) {
+        return bytes == null || bytes.getTotalCount() == 0
+                ? OptionalLong.empty()
+                : OptionalLong.of(bytes.quantile(quantile));
+    }
+
+    /**
+     * @param labels a point in the label space of the first cuboid.
+     * @param quantile in [0, 1], e.g. 0.99.
+     * @return the quantile of the response sizes of the data points having the labels, within about 1.6%, or empty
+     * if the distributions by labels are not recorded or no data point has the labels.
+     */
+    @Nonnull
+    public OptionalLong getBytesQuantile(@Nonnull Labels labels, double quantile) {
+        var histogram = bytesByLabels == null ? null : bytesByLabels.get(labels.getKey());
+        return histogram == null ? OptionalLong.empty() : OptionalLong.of(histogram.quantile(quantile));
+    }
+
+    /**
+     * @return the sketch of the distinct remote hosts, null if they are not counted.
+     */
+    @Nullable
+    HyperLogLog getRemoteHostsSketch() {
+        return remoteHosts;
+    }
+
+    /**
+     * @return the cuboids the count is broken down by.
+     */
+    @Nonnull
+    public List<Cuboid> getCuboids() {
+        return List.of(cuboids);
+    }
+
+    /**
+     * @return the breakdown of the count by the {@link Labels} of the first cuboid, as an unmodifiable view.
+     * Entries are materialized while iterating, prefer {@link Aggregation#getLabelCount(Labels)} for lookups.
      */
     @Nonnull
     public Map<Labels, Long> getLabelCounts() {
-        return Collections.unmodifiableMap(labelCounts);
+        return new LabelCountsView(labelCounts[0]);
+    }
+
+    /**
+     * @param cuboid one of the cuboids of this {@link Aggregation}.
+     * @return the breakdown of the count by the {@link Labels} of the cuboid, as an unmodifiable view.
+     */
+    @Nonnull
+    public Map<Labels, Long> getLabelCounts(@Nonnull Cuboid cuboid) {
+        return new LabelCountsView(labelCounts[indexOf(cuboid)]);
+    }
+
+    /**
+     * @param labels a point in the label space of the first cuboid.
+     * @return the count of the data points having the labels, 0 if none.
+     */
+    public long getLabelCount(@Nonnull Labels labels) {
+        return labelCounts[0].get(labels.getKey());
+    }
+
+    /**
+     * @param cuboid one of the cuboids of this {@link Aggregation}.
+     * @param labels a point in the label space of the cuboid.
+     * @return the count of the data points having the labels, 0 if none.
+     */
+    public long getLabelCount(@Nonnull Cuboid cuboid, @Nonnull Labels labels) {
+        return labelCounts[indexOf(cuboid)].get(labels.getKey());
+    }
+
+    /**
+     * @return the number of distinct {@link Labels} in all the breakdowns.
+     */
+    int labelsSize() {
+        int size = 0;
+        for (var counts : labelCounts)
+        {
+            size += counts.size();
+        }
+        return size;
+    }
+
+    private int indexOf(Cuboid cuboid) {
+        for (int i = 0; i < cuboids.length; i++)
+        {
+            if (cuboids[i].equals(cuboid))
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a cuboid of the aggregation: " + cuboid);
     }
 
     public long getBeginTimestamp() {
@@ -75,28 +349,75 @@ public class Aggregation {
     @Nonnull
     public Aggregation sum(Aggregation aggregation)
     {
-        var result = new Aggregation(this.beginTimestamp, this.endTimestamp);
-        result.totalCount = this.totalCount + aggregation.totalCount;
-        for (var e: this.labelCounts.entrySet())
+        var result = withNewTimestamps(this.beginTimestamp, this.endTimestamp);
+        aggregation.mergeInto(result);
+        return result;
+    }
+
+    /**
+     * Adds the counts (both total and breakdown) of this {@link Aggregation} to another one, in place: this
+     * {@link Aggregation} is unchanged and the target keeps its time interval. With exact breakdowns merging is
+     * associative and commutative, i.e. merging partial aggregations into a target in any order and grouping gives
+     * the same counts. With approximate breakdowns, see {@link Aggregator#withMaxLabels(int)}, it is not: the labels
+     * kept and their counts depend on the order and grouping of the merges, and are only the same within the error
+     * bound of the sketch. Total counts, distinct remote hosts and distributions of the response sizes merge exactly.
+     * As for {@link Aggregation#sum(Aggregation)} the time intervals are expected to be the same.
+     * No allocation happens unless the target receives labels it does not have.
+     * The distinct remote hosts and the distributions of the response sizes are merged as well.
+     * @param target the {@link Aggregation} to add to, must be owned by the caller, not be this one and have the
+     *               same cuboids. Distinct remote hosts and distributions must be recorded by both or by none.
+     */
+    public void mergeInto(@Nonnull Aggregation target)
+    {
+        Preconditions.checkArgument(target != this);
+        Preconditions.checkArgument(Arrays.equals(cuboids, target.cuboids), "Aggregations with different cuboids");
+        Preconditions.checkArgument((remoteHosts == null) == (target.remoteHosts == null),
+                "Aggregations with and without distinct remote hosts");
+        Preconditions.checkArgument((bytes == null) == (target.bytes == null)
+                && (bytesByLabels == null) == (target.bytesByLabels == null),
+                "Aggregations with different distributions of the response sizes");
+        target.totalCount += this.totalCount;
+        for (int i = 0; i < labelCounts.length; i++)
         {
-            result.labelCounts.put(e.getKey(),
-                    e.getValue() + aggregation.labelCounts.getOrDefault(e.getKey(), 0L));
+            target.labelCounts[i].addAll(this.labelCounts[i]);
         }
-        for (var e: aggregation.labelCounts.entrySet())
+        if (remoteHosts != null)
         {
-            if (!this.labelCounts.containsKey(e.getKey()))
-            {
-                result.labelCounts.put(e.getKey(),e.getValue());
-            }
+            target.remoteHosts.addAll(remoteHosts);
+        }
+        if (bytes != null)
+        {
+            target.bytes.addAll(bytes);
+        }
+        if (bytesByLabels != null)
+        {
+            target.bytesByLabels.addAll(bytesByLabels);
         }
-        return result;
     }
 
     public Aggregation withNewTimestamps(long newBeginTimestamp, long newEndTimestamp) {
-        var result = new Aggregation(newBeginTimestamp, newEndTimestamp);
-        result.totalCount = this.totalCount;
-        result.labelCounts.putAll(this.labelCounts);
-        return result;
+        Preconditions.checkArgument(newBeginTimestamp >= 0);
+        Preconditions.checkArgument(newEndTimestamp > newBeginTimestamp);
+        var labelCountsCopy = new Breakdown[labelCounts.length];
+        for (int i = 0; i < labelCounts.length; i++)
+        {
+            labelCountsCopy[i] = labelCounts[i].copy();
+        }
+        return new Aggregation(newBeginTimestamp, newEndTimestamp, totalCount, cuboids, labelCountsCopy,
+                remoteHosts == null ? null : remoteHosts.copy(),
+                bytes == null ? null : bytes.copy(),
+                bytesByLabels == null ? null : bytesByLabels.copy());
+    }
+
+    /**
+     * Like {@link Aggregation#withNewTimestamps(long, long)} without copying the breakdown, which is shared:
+     * this {@link Aggregation} must not be used any more.
+     */
+    Aggregation movedTo(long newBeginTimestamp, long newEndTimestamp) {
+        Preconditions.checkArgument(newBeginTimestamp >= 0);
+        Preconditions.checkArgument(newEndTimestamp > newBeginTimestamp);
+        return new Aggregation(newBeginTimestamp, newEndTimestamp, totalCount, cuboids, labelCounts, remoteHosts,
+                bytes, bytesByLabels);
     }
 
     public static Aggregation single(long beginTimestamp, long endTimestamp) {
@@ -104,4 +425,82 @@ public class Aggregation {
         aggregation.increment();
         return aggregation;
     }
+
+    /**
+     * Read-only {@link Map} over the primitive label counts of a cuboid.
+     */
+    private static class LabelCountsView extends AbstractMap<Labels, Long>
+    {
+        private final Breakdown labelCounts;
+
+        private LabelCountsView(Breakdown labelCounts) {
+            this.labelCounts = labelCounts;
+        }
+
+        @Override
+        public int size() {
+            return labelCounts.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Long get(Object key) {
+            if (!(key instanceof Labels))
+            {
+                return null;
+            }
+            long count = labelCounts.get(((Labels) key).getKey());
+            //labels are only present with a positive count
+            return count == 0 ? null : count;
+        }
+
+        @Override
+        @Nonnull
+        public Set<Entry<Labels, Long>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return labelCounts.size();
+                }
+
+                @Override
+                @Nonnull
+                public Iterator<Entry<Labels, Long>> iterator() {
+                    return new Iterator<>() {
+                        private int slot = nextSlot(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < labelCounts.capacity();
+                        }
+
+                        @Override
+                        public Entry<Labels, Long> next() {
+                            if (!hasNext())
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            var entry = new SimpleImmutableEntry<>(
+                                    Labels.ofKey(labelCounts.keyAt(slot)), labelCounts.countAt(slot));
+                            slot = nextSlot(slot + 1);
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+
+        private int nextSlot(int from) {
+            int slot = from;
+            while (slot < labelCounts.capacity() && labelCounts.keyAt(slot) < 0)
+            {
+                slot++;
+            }
+            return slot;
+        }
+    }
 }
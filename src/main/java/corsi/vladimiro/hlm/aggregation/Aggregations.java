@@ -0,0 +1,100 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Combines partial {@link Aggregation}s of the same time interval, e.g. computed by different threads or from
+ * different files, in a merge tree run on a {@link ForkJoinPool}. Leaves merge runs of partial aggregations
+ * sequentially into an accumulator of their own, inner nodes merge the smaller accumulator into the larger one with
+ * {@link Aggregation#mergeInto(Aggregation)}: only one accumulator is allocated per leaf. Leaves are sized so that
+ * there are a few per thread of the pool, as each accumulator tends to grow to the labels of all the partials.
+ * Approximate breakdowns depend on the shape of the tree, so they may differ between pools within their error bound,
+ * see {@link Aggregation#mergeInto(Aggregation)}.
+ */
+public final class Aggregations {
+
+    private static final int MIN_LEAF_SIZE = 64;
+    private static final int LEAVES_PER_THREAD = 4;
+
+    private Aggregations()
+    {
+    }
+
+    /**
+     * Merges on the common pool, see {@link Aggregations#merge(List, ForkJoinPool)}.
+     */
+    @Nonnull
+    public static Aggregation merge(@Nonnull List<Aggregation> partials)
+    {
+        return merge(partials, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param partials the aggregations to merge, not empty. They are not modified.
+     * @param pool the pool running the merge tree.
+     * @return a new {@link Aggregation} with the time interval of the first partial aggregation and as count
+     * the sum of the counts of all of them.
+     */
+    @Nonnull
+    public static Aggregation merge(@Nonnull List<Aggregation> partials, @Nonnull ForkJoinPool pool)
+    {
+        Preconditions.checkArgument(!partials.isEmpty());
+        for (var partial : partials)
+        {
+            Preconditions.checkNotNull(partial);
+        }
+        int leafSize = Math.max(MIN_LEAF_SIZE, partials.size() / (pool.getParallelism() * LEAVES_PER_THREAD));
+        return pool.invoke(new MergeTask(partials, 0, partials.size(), leafSize));
+    }
+
+    //never serialized
+    @SuppressWarnings("serial")
+    private static class MergeTask extends RecursiveTask<Aggregation>
+    {
+        private final List<Aggregation> partials;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        private MergeTask(List<Aggregation> partials, int from, int to, int leafSize)
+        {
+            this.partials = partials;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected Aggregation compute()
+        {
+            if (to - from <= leafSize)
+            {
+                var first = partials.get(from);
+                var accumulator = first.withNewTimestamps(first.getBeginTimestamp(), first.getEndTimestamp());
+                for (int i = from + 1; i < to; i++)
+                {
+                    partials.get(i).mergeInto(accumulator);
+                }
+                return accumulator;
+            }
+            int middle = (from + to) >>> 1;
+            var right = new MergeTask(partials, middle, to, leafSize);
+            right.fork();
+            var leftAccumulator = new MergeTask(partials, from, middle, leafSize).compute();
+            var rightAccumulator = right.join();
+            if (leftAccumulator.labelsSize() >= rightAccumulator.labelsSize())
+            {
+                rightAccumulator.mergeInto(leftAccumulator);
+                return leftAccumulator;
+            }
+            leftAccumulator.mergeInto(rightAccumulator);
+            //keep the time interval of the first partial aggregation
+            return rightAccumulator.movedTo(leftAccumulator.getBeginTimestamp(), leftAccumulator.getEndTimestamp());
+        }
+    }
+}
@@ -2,10 +2,18 @@ package corsi.vladimiro.hlm.aggregation;
 
 import com.google.common.base.Preconditions;
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+import corsi.vladimiro.hlm.parsing.SectionTable;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.EnumSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongPredicate;
 
 /**
  * Aggregates {@link DataPoint} objects lying in the same time interval. Interval duration
@@ -13,19 +21,71 @@ import java.util.function.Function;
  * interval then this point is assigned to a new {@link Aggregation} and the previous {@link Aggregation} is returned
  * on the {@link Aggregator#submit(DataPoint)} method.
  * Time is divided in interval starting from zero: the Epoch. So [0,duration), [duration, 2duration),...
+ * Optionally data points are aggregated by event time, see {@link Aggregator#withAllowedLateness(int)}: the
+ * aggregations of the last intervals are kept open in a ring indexed by interval and every data point is counted
+ * straight into the aggregation of its interval.
  */
 public class Aggregator {
 
     private final int intervalInSecs;
     private final Function<DataPoint, Optional<Labels>> labelsExtractor;
+    private final LabelsMode labelsMode;
+    private final Cuboid[] cuboids;
+    private final Set<Dimension> dimensions;
+    private final int maxLabels;
+    private final boolean distinctRemoteHosts;
+    private final Aggregation.BytesDistributions bytesDistributions;
     private Aggregation currentAggregation;
+    //open aggregations by interval modulo the length, in event time mode only
+    @Nullable
+    private final Aggregation[] openAggregations;
+    //index of the latest interval of the open aggregations, -1 if none
+    private long latestInterval = -1;
+    private long lateCount;
+
+    /**
+     * How labels are extracted from the columns of a {@link DataPointBatch}.
+     */
+    private enum LabelsMode
+    {
+        NONE,
+        SECTION,
+        EXTRACTOR,
+        CUBOIDS
+    }
 
     /**
      * @param intervalInSecs length of the time intervals in which {@link DataPoint} are aggregated.
      */
     public Aggregator(int intervalInSecs)
     {
-        this(intervalInSecs, dataPoint -> Optional.empty());
+        this(intervalInSecs, dataPoint -> Optional.empty(), LabelsMode.NONE, Cuboid.BASE);
+    }
+
+    /**
+     * @param intervalInSecs length of the time intervals in which {@link DataPoint} are aggregated.
+     * @return an {@link Aggregator} labelling data points with their section.
+     */
+    @Nonnull
+    public static Aggregator bySection(int intervalInSecs)
+    {
+        return new Aggregator(intervalInSecs,
+                dataPoint -> Optional.of(Labels.ofSection(dataPoint.getSectionId())),
+                LabelsMode.SECTION,
+                Cuboid.SECTION);
+    }
+
+    /**
+     * @param intervalInSecs length of the time intervals in which {@link DataPoint} are aggregated.
+     * @param cuboids the projections of the labels of the data points to count in one pass, e.g. by section and
+     *                by remote host. Data points are labelled with the values of the dimensions of the cuboids.
+     * @return an {@link Aggregator} producing {@link Aggregation}s broken down by the cuboids.
+     */
+    @Nonnull
+    public static Aggregator byCuboids(int intervalInSecs, @Nonnull Cuboid... cuboids)
+    {
+        Preconditions.checkArgument(cuboids.length > 0);
+        return new Aggregator(intervalInSecs, dataPoint -> Optional.empty(), LabelsMode.CUBOIDS, cuboids);
     }
 
     /**
@@ -34,46 +94,486 @@ public class Aggregator {
      *                        object.
      */
     public Aggregator(int intervalInSecs, @Nonnull Function<DataPoint, Optional<Labels>> labelsExtractor)
+    {
+        this(intervalInSecs, labelsExtractor, LabelsMode.EXTRACTOR, Cuboid.BASE);
+    }
+
+    private Aggregator(int intervalInSecs,
+                       @Nonnull Function<DataPoint, Optional<Labels>> labelsExtractor,
+                       @Nonnull LabelsMode labelsMode,
+                       @Nonnull Cuboid... cuboids)
+    {
+        this(intervalInSecs, labelsExtractor, labelsMode, Aggregation.UNBOUNDED, false,
+                Aggregation.BytesDistributions.NONE, 0, cuboids);
+    }
+
+    private Aggregator(int intervalInSecs,
+                       @Nonnull Function<DataPoint, Optional<Labels>> labelsExtractor,
+                       @Nonnull LabelsMode labelsMode,
+                       int maxLabels,
+                       boolean distinctRemoteHosts,
+                       @Nonnull Aggregation.BytesDistributions bytesDistributions,
+                       int openIntervals,
+                       @Nonnull Cuboid... cuboids)
     {
         Preconditions.checkArgument(intervalInSecs > 0);
         Preconditions.checkNotNull(labelsExtractor);
         this.intervalInSecs = intervalInSecs;
         this.labelsExtractor = labelsExtractor;
+        this.labelsMode = labelsMode;
+        this.maxLabels = maxLabels;
+        this.distinctRemoteHosts = distinctRemoteHosts;
+        this.bytesDistributions = bytesDistributions;
+        this.openAggregations = openIntervals > 0 ? new Aggregation[openIntervals] : null;
+        this.cuboids = cuboids.clone();
+        this.dimensions = EnumSet.noneOf(Dimension.class);
+        for (var cuboid : this.cuboids)
+        {
+            dimensions.addAll(Preconditions.checkNotNull(cuboid).getDimensions());
+        }
+    }
+
+    /**
+     * Bounds the memory of the breakdowns of the {@link Aggregation}s, e.g. when labels have a high cardinality like
+     * full paths or remote hosts: each breakdown only counts the <code>maxLabels</code> most frequent labels, with
+     * counts overestimated by at most totalCount/maxLabels. Every label more frequent than that is counted.
+     * Not compatible with distributions of the response sizes by labels, whose number would not be bounded.
+     * The memory of the names of sections and remote hosts is bounded by limiting the size of their tables, see
+     * {@link SectionTable#limitSize(int)}: the ids counted by the open aggregations are pinned, so that they are not
+     * reassigned to other names, until the aggregations are completed.
+     * @param maxLabels maximum number of labels counted by each breakdown.
+     * @return a new {@link Aggregator} labelling data points like this one, with approximate breakdowns.
+     */
+    @Nonnull
+    public Aggregator withMaxLabels(int maxLabels)
+    {
+        Preconditions.checkArgument(maxLabels > 0);
+        Preconditions.checkState(bytesDistributions != Aggregation.BytesDistributions.BY_LABELS,
+                "Distributions of the response sizes by labels");
+        return new Aggregator(intervalInSecs, labelsExtractor, labelsMode, maxLabels, distinctRemoteHosts,
+                bytesDistributions, openIntervals(), cuboids);
+    }
+
+    /**
+     * Also estimates the number of distinct remote hosts of each {@link Aggregation} in a fixed amount of memory,
+     * see {@link Aggregation#getDistinctRemoteHosts()}.
+     * @return a new {@link Aggregator} labelling data points like this one, counting the distinct remote hosts.
+     */
+    @Nonnull
+    public Aggregator withDistinctRemoteHosts()
+    {
+        return new Aggregator(intervalInSecs, labelsExtractor, labelsMode, maxLabels, true, bytesDistributions,
+                openIntervals(), cuboids);
+    }
+
+    /**
+     * Also records the distribution of the response sizes of each {@link Aggregation}, to query their quantiles with
+     * {@link Aggregation#getBytesQuantile(double)}.
+     * @param byLabels whether a distribution is recorded for each label of the first cuboid too, e.g. by section,
+     *                 see {@link Aggregation#getBytesQuantile(Labels, double)}. Not compatible with
+     *                 {@link Aggregator#withMaxLabels(int)}.
+     * @return a new {@link Aggregator} labelling data points like this one, recording the response sizes.
+     */
+    @Nonnull
+    public Aggregator withBytesQuantiles(boolean byLabels)
+    {
+        Preconditions.checkState(!byLabels || maxLabels == Aggregation.UNBOUNDED,
+                "Distributions of the response sizes by labels with a maximum number of labels");
+        return new Aggregator(intervalInSecs, labelsExtractor, labelsMode, maxLabels, distinctRemoteHosts,
+                byLabels ? Aggregation.BytesDistributions.BY_LABELS : Aggregation.BytesDistributions.TOTAL,
+                openIntervals(), cuboids);
+    }
+
+    /**
+     * Aggregates data points by event time: the aggregations of the latest interval and of the intervals before it
+     * within the allowed lateness are kept open, and a data point is counted into the aggregation of its interval
+     * whatever the order in which data points arrive. An aggregation is completed once the watermark, the begin of the
+     * latest interval minus the allowed lateness, passes its end, so aggregations are completed in order and exactly
+     * once. Data points of completed intervals are discarded and counted, see {@link Aggregator#getLateCount()}.
+     * Data points must then be submitted with {@link Aggregator#submit(DataPoint, Consumer)}, as a data point may
+     * complete more than one aggregation.
+     * @param allowedLatenessInSecs how late data points may arrive, 0 to only accept them in order.
+     * @return a new {@link Aggregator} labelling data points like this one, by event time.
+     */
+    @Nonnull
+    public Aggregator withAllowedLateness(int allowedLatenessInSecs)
+    {
+        Preconditions.checkArgument(allowedLatenessInSecs >= 0);
+        //one interval more than the lateness, so that an interval is completed once the watermark passes its end
+        int openIntervals = (allowedLatenessInSecs + intervalInSecs - 1) / intervalInSecs + 1;
+        return new Aggregator(intervalInSecs, labelsExtractor, labelsMode, maxLabels, distinctRemoteHosts,
+                bytesDistributions, openIntervals, cuboids);
+    }
+
+    private int openIntervals()
+    {
+        return openAggregations == null ? 0 : openAggregations.length;
     }
 
     /**
      * Allows to submit a {@link DataPoint} for aggregation. If the point lies in a different time
      * interval than the current aggregation, then the aggregation is considered completed and is returned.
      * The {@link Aggregator} assigns the new {@link DataPoint} then a new {@link Aggregation}.
+     * Not supported by event time, see {@link Aggregator#submit(DataPoint, Consumer)}.
      * @param dataPoint the {@link DataPoint} to submit for aggregation.
      * @return the {@link Aggregation} which is completed, if any.
      */
     @Nonnull
     public Optional<Aggregation> submit(@Nonnull DataPoint dataPoint)
     {
+        Preconditions.checkState(openAggregations == null, "Aggregation by event time");
         final long beginTimestamp = dataPoint.getUnixTimestamp() / intervalInSecs * intervalInSecs;
         final long endTimestamp = beginTimestamp + intervalInSecs;
 
         if (currentAggregation == null)
         {
-            currentAggregation = new Aggregation(beginTimestamp, endTimestamp);
+            currentAggregation = newAggregation(beginTimestamp, endTimestamp, null);
         }
 
         Aggregation completedAggregation = null;
         if (currentAggregation.getBeginTimestamp() != beginTimestamp)
         {
             completedAggregation = currentAggregation;
-            currentAggregation = new Aggregation(beginTimestamp, endTimestamp);
+            completedAggregation.release();
+            //the next interval likely has as many labels
+            currentAggregation = newAggregation(beginTimestamp, endTimestamp, completedAggregation);
+        }
+        add(currentAggregation, dataPoint);
+        return Optional.ofNullable(completedAggregation);
+    }
+
+    /**
+     * Allows to submit a {@link DataPoint} for aggregation, by processing time as {@link Aggregator#submit(DataPoint)}
+     * or by event time, see {@link Aggregator#withAllowedLateness(int)}.
+     * @param dataPoint the {@link DataPoint} to submit for aggregation.
+     * @param completedAggregationConsumer receives the {@link Aggregation}s which are completed, in order.
+     */
+    public void submit(@Nonnull DataPoint dataPoint, @Nonnull Consumer<Aggregation> completedAggregationConsumer)
+    {
+        if (openAggregations == null)
+        {
+            submit(dataPoint).ifPresent(completedAggregationConsumer);
+            return;
+        }
+        var aggregation = openAggregation(dataPoint.getUnixTimestamp(), completedAggregationConsumer);
+        if (aggregation != null)
+        {
+            add(aggregation, dataPoint);
+        }
+    }
+
+    /**
+     * Completes the aggregations still open, e.g. when the input ends: the current aggregation, or the open
+     * aggregations in order by event time. Data points submitted afterwards start new aggregations, by event time
+     * only if they are later than the completed intervals.
+     * @param completedAggregationConsumer receives the {@link Aggregation}s which are completed.
+     */
+    public void flush(@Nonnull Consumer<Aggregation> completedAggregationConsumer)
+    {
+        if (openAggregations == null)
+        {
+            if (currentAggregation != null)
+            {
+                var completedAggregation = currentAggregation;
+                currentAggregation = null;
+                completedAggregation.release();
+                completedAggregationConsumer.accept(completedAggregation);
+            }
+            return;
+        }
+        if (latestInterval >= 0)
+        {
+            //as if a data point arrived late enough to complete all the open intervals
+            complete(latestInterval + openAggregations.length, completedAggregationConsumer);
+        }
+    }
+
+    /**
+     * @return the number of data points discarded by event time because the aggregation of their interval had
+     * already been completed.
+     */
+    public long getLateCount()
+    {
+        return lateCount;
+    }
+
+    /**
+     * @return the open aggregation of the interval of the timestamp, after completing the aggregations the watermark
+     * has passed, null if the data point is late.
+     */
+    @Nullable
+    private Aggregation openAggregation(long timestamp, Consumer<Aggregation> completedAggregationConsumer)
+    {
+        long interval = timestamp / intervalInSecs;
+        if (latestInterval >= 0 && interval <= latestInterval - openAggregations.length)
+        {
+            lateCount++;
+            return null;
+        }
+        if (interval > latestInterval)
+        {
+            complete(interval, completedAggregationConsumer);
+        }
+        int slot = (int) (interval % openAggregations.length);
+        var aggregation = openAggregations[slot];
+        if (aggregation == null)
+        {
+            long beginTimestamp = interval * intervalInSecs;
+            //the intervals likely have as many labels
+            aggregation = newAggregation(beginTimestamp, beginTimestamp + intervalInSecs, currentAggregation);
+            openAggregations[slot] = aggregation;
+            currentAggregation = aggregation;
+        }
+        return aggregation;
+    }
+
+    /**
+     * Makes the given interval the latest one and completes the open aggregations which leave the ring, oldest first.
+     */
+    private void complete(long interval, Consumer<Aggregation> completedAggregationConsumer)
+    {
+        for (long completed = Math.max(latestInterval - openAggregations.length + 1, 0);
+             completed <= Math.min(latestInterval, interval - openAggregations.length);
+             completed++)
+        {
+            int slot = (int) (completed % openAggregations.length);
+            var completedAggregation = openAggregations[slot];
+            if (completedAggregation != null)
+            {
+                openAggregations[slot] = null;
+                completedAggregation.release();
+                completedAggregationConsumer.accept(completedAggregation);
+            }
+        }
+        latestInterval = interval;
+    }
+
+    private void add(Aggregation aggregation, DataPoint dataPoint)
+    {
+        if (distinctRemoteHosts)
+        {
+            aggregation.addRemoteHost(dataPoint.getRemoteHost());
+        }
+        if (labelsMode == LabelsMode.SECTION)
+        {
+            //no Optional of the extractor
+            aggregation.incrementSection(dataPoint.getSectionId());
+            aggregation.recordBytes(Labels.sectionKey(dataPoint.getSectionId()), dataPoint.getBytes());
+            return;
+        }
+        if (labelsMode == LabelsMode.CUBOIDS)
+        {
+            long labelsKey = labelsKey(dataPoint);
+            aggregation.incrementKey(labelsKey);
+            aggregation.recordBytes(labelsKey, dataPoint.getBytes());
+            return;
         }
         var labels = labelsExtractor.apply(dataPoint);
         if (labels.isEmpty())
         {
-            currentAggregation.increment();
+            aggregation.increment();
+            aggregation.recordBytes(-1, dataPoint.getBytes());
         } else
         {
-            currentAggregation.increment(labels.get());
+            aggregation.increment(labels.get());
+            aggregation.recordBytes(labels.get().getKey(), dataPoint.getBytes());
         }
-        return Optional.ofNullable(completedAggregation);
     }
 
+    /**
+     * Submits all the rows of a batch, equivalent to submitting them one by one with
+     * {@link Aggregator#submit(DataPoint)}.
+     * @param batch the rows to submit.
+     * @param completedAggregationConsumer receives the {@link Aggregation}s which are completed.
+     */
+    public void submit(@Nonnull DataPointBatch batch, @Nonnull Consumer<Aggregation> completedAggregationConsumer)
+    {
+        submit(batch, timestamp -> true, completedAggregationConsumer);
+    }
+
+    /**
+     * Submits the rows of a batch whose timestamp is accepted by a filter, equivalent to submitting them one by one
+     * with {@link Aggregator#submit(DataPoint, Consumer)}. Rows are processed in order: the filter is evaluated for a row before
+     * submitting it, after the consumer has received the aggregations completed by the previous rows.
+     * Unless labels are extracted by a custom function, the columns of the batch are read directly and no
+     * {@link DataPoint} is involved.
+     * @param batch the rows to submit.
+     * @param timestampFilter accepts the timestamps of the rows to submit.
+     * @param completedAggregationConsumer receives the {@link Aggregation}s which are completed.
+     */
+    public void submit(@Nonnull DataPointBatch batch,
+                       @Nonnull LongPredicate timestampFilter,
+                       @Nonnull Consumer<Aggregation> completedAggregationConsumer)
+    {
+        long[] timestamps = batch.getTimestamps();
+        int[] sectionIds = batch.getSectionIds();
+        long[] bytes = batch.getBytes();
+        int size = batch.size();
+        int row = 0;
+        while (row < size)
+        {
+            long timestamp = timestamps[row];
+            if (!timestampFilter.test(timestamp))
+            {
+                row++;
+                continue;
+            }
+            if (labelsMode == LabelsMode.EXTRACTOR)
+            {
+                submit(batch.getDataPoint(row), completedAggregationConsumer);
+                row++;
+                continue;
+            }
+            final long beginTimestamp = timestamp / intervalInSecs * intervalInSecs;
+            final long endTimestamp = beginTimestamp + intervalInSecs;
+            Aggregation aggregation;
+            if (openAggregations != null)
+            {
+                aggregation = openAggregation(timestamp, completedAggregationConsumer);
+                if (aggregation == null)
+                {
+                    row++;
+                    continue;
+                }
+            } else if (currentAggregation == null)
+            {
+                aggregation = currentAggregation = newAggregation(beginTimestamp, endTimestamp, null);
+            } else if (currentAggregation.getBeginTimestamp() != beginTimestamp)
+            {
+                var completedAggregation = currentAggregation;
+                aggregation = currentAggregation = newAggregation(beginTimestamp, endTimestamp, completedAggregation);
+                completedAggregation.release();
+                completedAggregationConsumer.accept(completedAggregation);
+            } else
+            {
+                aggregation = currentAggregation;
+            }
+            //run of consecutive rows in the current interval, the filter may have been changed by the consumer
+            int end = row + 1;
+            while (end < size
+                    && timestamps[end] >= beginTimestamp
+                    && timestamps[end] < endTimestamp
+                    && timestampFilter.test(timestamps[end]))
+            {
+                end++;
+            }
+            boolean recordBytes = bytesDistributions != Aggregation.BytesDistributions.NONE;
+            if (labelsMode == LabelsMode.SECTION)
+            {
+                for (int i = row; i < end; i++)
+                {
+                    aggregation.incrementSection(sectionIds[i]);
+                }
+                for (int i = row; recordBytes && i < end; i++)
+                {
+                    aggregation.recordBytes(Labels.sectionKey(sectionIds[i]), bytes[i]);
+                }
+            } else if (labelsMode == LabelsMode.CUBOIDS)
+            {
+                for (int i = row; i < end; i++)
+                {
+                    long labelsKey = labelsKey(batch, i);
+                    aggregation.incrementKey(labelsKey);
+                    aggregation.recordBytes(labelsKey, bytes[i]);
+                }
+            } else
+            {
+                aggregation.increment(end - row);
+                for (int i = row; recordBytes && i < end; i++)
+                {
+                    aggregation.recordBytes(-1, bytes[i]);
+                }
+            }
+            if (distinctRemoteHosts)
+            {
+                byte[] remoteHostBytes = batch.getRemoteHostBytes();
+                int[] remoteHostEnds = batch.getRemoteHostEnds();
+                for (int i = row; i < end; i++)
+                {
+                    aggregation.addRemoteHost(remoteHostBytes, i == 0 ? 0 : remoteHostEnds[i - 1],
+                            remoteHostEnds[i]);
+                }
+            }
+            row = end;
+        }
+    }
+
+    /**
+     * @return the fields of the data points needed to label them.
+     */
+    @Nonnull
+    public Set<DataPointField> getRequiredFields()
+    {
+        var fields = EnumSet.of(DataPointField.TIMESTAMP);
+        if (labelsMode == LabelsMode.SECTION)
+        {
+            fields.add(DataPointField.SECTION);
+        } else if (labelsMode == LabelsMode.EXTRACTOR)
+        {
+            //the extractor may read any field
+            return EnumSet.allOf(DataPointField.class);
+        } else if (labelsMode == LabelsMode.CUBOIDS)
+        {
+            for (var cuboid : cuboids)
+            {
+                fields.addAll(cuboid.getRequiredFields());
+            }
+        }
+        if (distinctRemoteHosts)
+        {
+            fields.add(DataPointField.REMOTE_HOST);
+        }
+        if (bytesDistributions != Aggregation.BytesDistributions.NONE)
+        {
+            fields.add(DataPointField.BYTES);
+        }
+        return fields;
+    }
+
+    private Aggregation newAggregation(long beginTimestamp, long endTimestamp, @Nullable Aggregation previous)
+    {
+        return new Aggregation(beginTimestamp, endTimestamp, cuboids, maxLabels, distinctRemoteHosts,
+                bytesDistributions, previous);
+    }
+
+    /**
+     * @return the key of the labels of the data point with the dimensions of the cuboids.
+     */
+    private long labelsKey(DataPoint dataPoint)
+    {
+        long key = 0;
+        if (dimensions.contains(Dimension.SECTION) && dataPoint.getSectionId() != DataPoint.NO_SECTION)
+        {
+            key |= Labels.sectionKey(dataPoint.getSectionId());
+        }
+        if (dimensions.contains(Dimension.STATUS_CLASS))
+        {
+            key |= Labels.statusClassKey(dataPoint.getStatusCode());
+        }
+        if (dimensions.contains(Dimension.REMOTE_HOST))
+        {
+            key |= Labels.remoteHostKey(dataPoint.getRemoteHost());
+        }
+        return key;
+    }
+
+    private long labelsKey(DataPointBatch batch, int row)
+    {
+        long key = 0;
+        if (dimensions.contains(Dimension.SECTION) && batch.getSectionIds()[row] != DataPoint.NO_SECTION)
+        {
+            key |= Labels.sectionKey(batch.getSectionIds()[row]);
+        }
+        if (dimensions.contains(Dimension.STATUS_CLASS))
+        {
+            key |= Labels.statusClassKey(batch.getStatuses()[row]);
+        }
+        if (dimensions.contains(Dimension.REMOTE_HOST))
+        {
+            int[] remoteHostEnds = batch.getRemoteHostEnds();
+            key |= Labels.remoteHostKey(batch.getRemoteHostBytes(), row == 0 ? 0 : remoteHostEnds[row - 1],
+                    remoteHostEnds[row]);
+        }
+        return key;
+    }
 }
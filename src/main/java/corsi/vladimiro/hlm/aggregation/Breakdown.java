@@ -0,0 +1,55 @@
+package corsi.vladimiro.hlm.aggregation;
+
+/**
+ * Counts of the data points of an {@link Aggregation} by label key, for one {@link Cuboid}. Keys are non-negative,
+ * see {@link Labels#getKey()}. Entries are held in slots, visited with {@link Breakdown#capacity()} and
+ * {@link Breakdown#keyAt(int)}.
+ */
+interface Breakdown {
+
+    void increment(long key, long delta);
+
+    /**
+     * @return the count of the key, 0 if absent.
+     */
+    long get(long key);
+
+    /**
+     * @return the number of keys.
+     */
+    int size();
+
+    /**
+     * @return the number of slots.
+     */
+    int capacity();
+
+    /**
+     * @return the key held in the slot, negative if the slot is empty.
+     */
+    long keyAt(int slot);
+
+    long countAt(int slot);
+
+    /**
+     * Adds the counts of another breakdown to the counts of this instance.
+     */
+    void addAll(Breakdown other);
+
+    /**
+     * @return a deep copy of this instance.
+     */
+    Breakdown copy();
+
+    /**
+     * @return an empty breakdown of the same kind, expected to receive as many keys as this instance.
+     */
+    Breakdown emptyCopy();
+
+    /**
+     * Releases the resources held while counting, e.g. the ids pinned by {@link SpaceSavingCounts}.
+     */
+    default void release()
+    {
+    }
+}
@@ -0,0 +1,110 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import com.google.common.base.Preconditions;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A projection of the label space on some of its {@link Dimension}s, e.g. section x status class. An
+ * {@link Aggregation} breaks its count down by the {@link Labels} projected on each of its cuboids: the memory
+ * of an interval grows with the distinct projected labels, not with the cross product of all the dimensions.
+ */
+public final class Cuboid {
+
+    /**
+     * All the dimensions: labels are counted as they are.
+     */
+    public static final Cuboid BASE = of(Dimension.SECTION, Dimension.STATUS_CLASS, Dimension.REMOTE_HOST);
+
+    public static final Cuboid SECTION = of(Dimension.SECTION);
+
+    private final Set<Dimension> dimensions;
+    private final long mask;
+
+    private Cuboid(Set<Dimension> dimensions)
+    {
+        this.dimensions = Collections.unmodifiableSet(dimensions);
+        long keyMask = 0;
+        for (var dimension : dimensions)
+        {
+            keyMask |= Labels.mask(dimension);
+        }
+        this.mask = keyMask;
+    }
+
+    /**
+     * @param dimensions the dimensions to retain, at least one.
+     * @return the cuboid.
+     */
+    @Nonnull
+    public static Cuboid of(@Nonnull Dimension... dimensions)
+    {
+        Preconditions.checkArgument(dimensions.length > 0);
+        var set = EnumSet.noneOf(Dimension.class);
+        for (var dimension : dimensions)
+        {
+            set.add(Preconditions.checkNotNull(dimension));
+        }
+        return new Cuboid(set);
+    }
+
+    @Nonnull
+    public Set<Dimension> getDimensions()
+    {
+        return dimensions;
+    }
+
+    /**
+     * @return the fields of the data points needed to compute the labels of this cuboid.
+     */
+    @Nonnull
+    public Set<DataPointField> getRequiredFields()
+    {
+        var fields = EnumSet.noneOf(DataPointField.class);
+        for (var dimension : dimensions)
+        {
+            fields.add(dimension.getField());
+        }
+        return fields;
+    }
+
+    /**
+     * @param key key of {@link Labels}.
+     * @return the key of the labels retaining only the dimensions of this cuboid.
+     */
+    long project(long key)
+    {
+        return key & mask;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+        return mask == ((Cuboid) o).mask;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(mask);
+    }
+
+    @Override
+    public String toString()
+    {
+        return dimensions.stream().map(Enum::name).collect(Collectors.joining(" x "));
+    }
+}
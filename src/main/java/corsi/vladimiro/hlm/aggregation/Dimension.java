@@ -0,0 +1,40 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import corsi.vladimiro.hlm.parsing.DataPointField;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A dimension of the label space, see {@link Labels}.
+ */
+public enum Dimension {
+
+    /**
+     * The section of the request.
+     */
+    SECTION(DataPointField.SECTION),
+    /**
+     * The class of the status code: 2 for 2xx, 5 for 5xx...
+     */
+    STATUS_CLASS(DataPointField.STATUS),
+    /**
+     * The remote host.
+     */
+    REMOTE_HOST(DataPointField.REMOTE_HOST);
+
+    private final DataPointField field;
+
+    Dimension(DataPointField field)
+    {
+        this.field = field;
+    }
+
+    /**
+     * @return the field of the data points the dimension is derived from.
+     */
+    @Nonnull
+    public DataPointField getField()
+    {
+        return field;
+    }
+}
@@ -0,0 +1,120 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of non-negative values, e.g. response sizes, in log-linear buckets like an HDR histogram: values below
+ * 32 have a bucket each, above each power of two is divided in 32 buckets. A quantile is reported as the middle of its
+ * bucket, within about 1.6% of the true value. Recording a value costs a leading zero count and an array increment.
+ * The bucket array only grows to the bucket of the greatest value recorded, at most about 15 KB, and histograms
+ * merge by adding their buckets.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int INITIAL_BUCKETS = 4 * SUB_BUCKETS;
+
+    private long[] counts;
+
+    Histogram()
+    {
+        counts = new long[INITIAL_BUCKETS];
+    }
+
+    private Histogram(Histogram other)
+    {
+        counts = other.counts.clone();
+    }
+
+    void record(long value)
+    {
+        Preconditions.checkArgument(value >= 0);
+        int bucket = bucket(value);
+        if (bucket >= counts.length)
+        {
+            counts = Arrays.copyOf(counts, Math.max(bucket + 1, counts.length * 2));
+        }
+        counts[bucket]++;
+    }
+
+    void addAll(Histogram other)
+    {
+        if (other.counts.length > counts.length)
+        {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int bucket = 0; bucket < other.counts.length; bucket++)
+        {
+            counts[bucket] += other.counts[bucket];
+        }
+    }
+
+    Histogram copy()
+    {
+        return new Histogram(this);
+    }
+
+    /**
+     * @return the number of values recorded, computed from the buckets to keep recording to a single increment.
+     */
+    long getTotalCount()
+    {
+        long totalCount = 0;
+        for (long count : counts)
+        {
+            totalCount += count;
+        }
+        return totalCount;
+    }
+
+    /**
+     * @param quantile in [0, 1], e.g. 0.99.
+     * @return the smallest value such that the given fraction of the values are not greater, -1 if there is none.
+     */
+    long quantile(double quantile)
+    {
+        Preconditions.checkArgument(quantile >= 0 && quantile <= 1);
+        long totalCount = getTotalCount();
+        if (totalCount == 0)
+        {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        long cumulativeCount = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++)
+        {
+            cumulativeCount += counts[bucket];
+            if (cumulativeCount >= rank)
+            {
+                return middle(bucket);
+            }
+        }
+        throw new IllegalStateException("Counts not adding up to " + totalCount);
+    }
+
+    static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        //the bits after the leading one select the sub-bucket
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long middle(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+}
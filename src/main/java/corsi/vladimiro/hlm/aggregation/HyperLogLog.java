@@ -0,0 +1,115 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct values added, e.g. remote hosts, with the HyperLogLog algorithm in a fixed amount of
+ * memory: 2<sup>12</sup> one-byte registers, for a standard error of about 1.6%. Values are added by 64-bit hash.
+ * Sketches merge by taking the maximum of each register, so the estimate of merged sketches is the estimate of the
+ * union of their values: counting over a time window only costs a merge of the sketches of its intervals.
+ */
+final class HyperLogLog {
+
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+
+    HyperLogLog()
+    {
+        registers = new byte[REGISTERS];
+    }
+
+    private HyperLogLog(HyperLogLog other)
+    {
+        registers = other.registers.clone();
+    }
+
+    /**
+     * @param hash 64-bit hash of the value, see {@link HyperLogLog#hash(byte[], int, int)}.
+     */
+    void add(long hash)
+    {
+        int register = (int) (hash >>> (Long.SIZE - PRECISION));
+        //the sentinel bit bounds the rank when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros(hash << PRECISION | 1L << (PRECISION - 1)) + 1;
+        if (rank > registers[register])
+        {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    void addAll(HyperLogLog other)
+    {
+        byte[] otherRegisters = other.registers;
+        for (int i = 0; i < REGISTERS; i++)
+        {
+            if (otherRegisters[i] > registers[i])
+            {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    void clear()
+    {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    HyperLogLog copy()
+    {
+        return new HyperLogLog(this);
+    }
+
+    /**
+     * @return the estimated number of distinct values added.
+     */
+    long estimate()
+    {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers)
+        {
+            sum += Double.longBitsToDouble((1023L - register) << 52);
+            if (register == 0)
+            {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0)
+        {
+            //linear counting is more accurate for small cardinalities
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * FNV-1a over the bytes followed by the finalizer of MurmurHash3, which spreads the bits of short and similar
+     * values like IP addresses.
+     * @return a 64-bit hash of the bytes.
+     */
+    static long hash(byte[] bytes, int from, int to)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++)
+        {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    static long hash(String value)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return hash(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,205 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Exact counts by label key, with keys and counts held in primitive arrays: an open addressing hash table with linear
+ * probing. Incrementing the count of a key which is already present neither allocates nor boxes.
+ * Keys are non-negative, see {@link Labels#getKey()}.
+ */
+class LabelCounts implements Breakdown {
+
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] counts;
+    private int size;
+    private int mask;
+
+    /**
+     * Receives the entries of a {@link LabelCounts}.
+     */
+    interface EntryConsumer
+    {
+        void accept(long key, long count);
+    }
+
+    LabelCounts()
+    {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize number of keys which can be held without growing the table.
+     */
+    LabelCounts(int expectedSize)
+    {
+        Preconditions.checkArgument(expectedSize >= 0);
+        int capacity = INITIAL_CAPACITY;
+        while (capacity >> 1 < expectedSize)
+        {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    LabelCounts(LabelCounts other)
+    {
+        keys = other.keys.clone();
+        counts = other.counts.clone();
+        size = other.size;
+        mask = other.mask;
+    }
+
+    @Override
+    public void increment(long key, long delta)
+    {
+        Preconditions.checkArgument(key >= 0);
+        int slot = slot(key);
+        while (true)
+        {
+            long slotKey = keys[slot];
+            if (slotKey == key)
+            {
+                counts[slot] += delta;
+                return;
+            }
+            if (slotKey == EMPTY)
+            {
+                keys[slot] = key;
+                counts[slot] = delta;
+                //load factor at most 1/2
+                if (++size > keys.length >> 1)
+                {
+                    rehash(keys.length << 1);
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public void addAll(Breakdown other)
+    {
+        for (int slot = 0; slot < other.capacity(); slot++)
+        {
+            long key = other.keyAt(slot);
+            if (key >= 0)
+            {
+                increment(key, other.countAt(slot));
+            }
+        }
+    }
+
+    @Override
+    public LabelCounts copy()
+    {
+        return new LabelCounts(this);
+    }
+
+    @Override
+    public LabelCounts emptyCopy()
+    {
+        return new LabelCounts(size);
+    }
+
+    @Override
+    public long get(long key)
+    {
+        if (key < 0)
+        {
+            return 0;
+        }
+        int slot = slot(key);
+        while (true)
+        {
+            long slotKey = keys[slot];
+            if (slotKey == key)
+            {
+                return counts[slot];
+            }
+            if (slotKey == EMPTY)
+            {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Visits the entries in no particular order.
+     */
+    void forEach(EntryConsumer consumer)
+    {
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] != EMPTY)
+            {
+                consumer.accept(keys[slot], counts[slot]);
+            }
+        }
+    }
+
+    @Override
+    public int capacity()
+    {
+        return keys.length;
+    }
+
+    @Override
+    public long keyAt(int slot)
+    {
+        return keys[slot];
+    }
+
+    @Override
+    public long countAt(int slot)
+    {
+        return counts[slot];
+    }
+
+    private int slot(long key)
+    {
+        //Fibonacci hashing spreads consecutive ids, e.g. section ids, over the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            long key = oldKeys[i];
+            if (key != EMPTY)
+            {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
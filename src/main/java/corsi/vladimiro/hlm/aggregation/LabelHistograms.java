@@ -0,0 +1,165 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * {@link Histogram}s by label key, in an open addressing hash table with linear probing like {@link LabelCounts}.
+ * Keys are non-negative, see {@link Labels#getKey()}. Recording a value for a key which is already present does not
+ * allocate unless its histogram grows.
+ */
+class LabelHistograms {
+
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private Histogram[] histograms;
+    private int size;
+    private int mask;
+
+    /**
+     * @param expectedSize number of keys which can be held without growing the table.
+     */
+    LabelHistograms(int expectedSize)
+    {
+        Preconditions.checkArgument(expectedSize >= 0);
+        int capacity = INITIAL_CAPACITY;
+        while (capacity >> 1 < expectedSize)
+        {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private LabelHistograms(LabelHistograms other)
+    {
+        keys = other.keys.clone();
+        histograms = new Histogram[other.histograms.length];
+        for (int slot = 0; slot < histograms.length; slot++)
+        {
+            if (other.histograms[slot] != null)
+            {
+                histograms[slot] = other.histograms[slot].copy();
+            }
+        }
+        size = other.size;
+        mask = other.mask;
+    }
+
+    void record(long key, long value)
+    {
+        histogram(key).record(value);
+    }
+
+    /**
+     * Adds the histograms of other keys to the histograms of this instance.
+     */
+    void addAll(LabelHistograms other)
+    {
+        for (int slot = 0; slot < other.keys.length; slot++)
+        {
+            if (other.keys[slot] != EMPTY)
+            {
+                histogram(other.keys[slot]).addAll(other.histograms[slot]);
+            }
+        }
+    }
+
+    LabelHistograms copy()
+    {
+        return new LabelHistograms(this);
+    }
+
+    /**
+     * @return the histogram of the key, null if absent.
+     */
+    Histogram get(long key)
+    {
+        if (key < 0)
+        {
+            return null;
+        }
+        int slot = slot(key);
+        while (true)
+        {
+            long slotKey = keys[slot];
+            if (slotKey == key)
+            {
+                return histograms[slot];
+            }
+            if (slotKey == EMPTY)
+            {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    private Histogram histogram(long key)
+    {
+        Preconditions.checkArgument(key >= 0);
+        int slot = slot(key);
+        while (true)
+        {
+            long slotKey = keys[slot];
+            if (slotKey == key)
+            {
+                return histograms[slot];
+            }
+            if (slotKey == EMPTY)
+            {
+                var histogram = new Histogram();
+                keys[slot] = key;
+                histograms[slot] = histogram;
+                //load factor at most 1/2
+                if (++size > keys.length >> 1)
+                {
+                    rehash(keys.length << 1);
+                }
+                return histogram;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slot(long key)
+    {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        histograms = new Histogram[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        Histogram[] oldHistograms = histograms;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            long key = oldKeys[i];
+            if (key != EMPTY)
+            {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                histograms[slot] = oldHistograms[i];
+            }
+        }
+    }
+}
@@ -1,29 +1,264 @@
 package corsi.vladimiro.hlm.aggregation;
 
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.Ipv4Addresses;
+import corsi.vladimiro.hlm.parsing.SectionTable;
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * A point in the label space of data points, made of the values of some {@link Dimension}s. The values are packed in
+ * a non-negative long key, a dimension being absent when its bits are zero:
+ * <ul>
+ *     <li>bits 0-26: the id of the section in {@link SectionTable#global()} plus one;</li>
+ *     <li>bits 27-29: the status class, from 1 to 5, or {@link Labels#OTHER_STATUS_CLASS};</li>
+ *     <li>bits 30-62: the remote host, an IPv4 address plus one or, for host names, 2<sup>32</sup> plus one plus
+ *     the id of the name in {@link SectionTable#remoteHosts()}.</li>
+ * </ul>
+ * Sections and names are only resolved on demand. Instances having only the section dimension are cached by section
+ * id, so obtaining the {@link Labels} of an already seen section does not allocate, and the cache is bounded like the
+ * ids of {@link SectionTable#global()}, see {@link SectionTable#limitSize(int)}. Approximate counts pin the ids of the
+ * labels they hold, see {@link SpaceSavingCounts}.
+ */
 public class Labels {
 
-    private final String section;
+    /**
+     * Status class of status codes which are not in [100, 600).
+     */
+    public static final int OTHER_STATUS_CLASS = 6;
+
+    private static final int STATUS_CLASS_SHIFT = 27;
+    private static final int REMOTE_HOST_SHIFT = 30;
+    private static final long SECTION_MASK = (1L << STATUS_CLASS_SHIFT) - 1;
+    private static final long STATUS_CLASS_MASK = 7L << STATUS_CLASS_SHIFT;
+    private static final long REMOTE_HOST_MASK = ((1L << 33) - 1) << REMOTE_HOST_SHIFT;
+    private static final long FIRST_NAME = (1L << 32) + 1;
+
+    private static Labels[] cache = new Labels[256];
+
+    private final long key;
 
     public static Labels of(@Nonnull String section)
     {
         Preconditions.checkNotNull(section);
-        return new Labels(section);
+        return ofSection(SectionTable.global().idOf(section));
+    }
+
+    /**
+     * @param sectionId id of the section in {@link SectionTable#global()}.
+     * @return the {@link Labels} of the section.
+     */
+    public static Labels ofSection(int sectionId)
+    {
+        Preconditions.checkArgument(sectionId >= 0);
+        var labelsCache = cache;
+        if (sectionId < labelsCache.length)
+        {
+            //final field semantics make a racy read of a cached instance safe
+            var labels = labelsCache[sectionId];
+            if (labels != null)
+            {
+                return labels;
+            }
+        }
+        return cache(sectionId);
+    }
+
+    /**
+     * @param key a key as returned by {@link Labels#getKey()}.
+     * @return the {@link Labels} of the key.
+     */
+    @Nonnull
+    public static Labels ofKey(long key)
+    {
+        Preconditions.checkArgument(key >= 0);
+        if (key != 0 && (key & ~SECTION_MASK) == 0)
+        {
+            return ofSection((int) key - 1);
+        }
+        return new Labels(key);
+    }
+
+    private static synchronized Labels cache(int sectionId)
+    {
+        if (sectionId >= cache.length)
+        {
+            var grown = new Labels[Math.max(cache.length * 2, sectionId + 1)];
+            System.arraycopy(cache, 0, grown, 0, cache.length);
+            cache = grown;
+        }
+        if (cache[sectionId] == null)
+        {
+            cache[sectionId] = new Labels(sectionKey(sectionId));
+        }
+        return cache[sectionId];
     }
 
-    private Labels(String section)
+    private Labels(long key)
     {
-        this.section = section;
+        this.key = key;
     }
 
+    /**
+     * @param status a status code, negative if unknown.
+     * @return labels with the same values and the class of the status code.
+     */
+    @Nonnull
+    public Labels withStatus(int status)
+    {
+        return ofKey(key & ~STATUS_CLASS_MASK | statusClassKey(status));
+    }
+
+    /**
+     * @param remoteHost a remote host.
+     * @return labels with the same values and the remote host.
+     */
+    @Nonnull
+    public Labels withRemoteHost(@Nonnull String remoteHost)
+    {
+        return ofKey(key & ~REMOTE_HOST_MASK | remoteHostKey(remoteHost));
+    }
+
+    /**
+     * @return the section, empty if the section is not a dimension of these labels.
+     */
     @Nonnull
     public String getSection()
     {
-        return section;
+        int sectionId = getSectionId();
+        return sectionId == DataPoint.NO_SECTION ? "" : SectionTable.global().nameOf(sectionId);
+    }
+
+    /**
+     * @return the id of the section in {@link SectionTable#global()}, {@link DataPoint#NO_SECTION} if the section is
+     * not a dimension of these labels.
+     */
+    public int getSectionId()
+    {
+        return (int) (key & SECTION_MASK) - 1;
+    }
+
+    /**
+     * @return the status class from 1 to 5 or {@link Labels#OTHER_STATUS_CLASS}, 0 if the status class is not
+     * a dimension of these labels.
+     */
+    public int getStatusClass()
+    {
+        return (int) ((key & STATUS_CLASS_MASK) >>> STATUS_CLASS_SHIFT);
+    }
+
+    /**
+     * @return the remote host, empty if the remote host is not a dimension of these labels.
+     */
+    @Nonnull
+    public String getRemoteHost()
+    {
+        long remoteHost = (key & REMOTE_HOST_MASK) >>> REMOTE_HOST_SHIFT;
+        if (remoteHost == 0)
+        {
+            return "";
+        }
+        if (remoteHost < FIRST_NAME)
+        {
+            return Ipv4Addresses.format(remoteHost - 1);
+        }
+        return SectionTable.remoteHosts().nameOf((int) (remoteHost - FIRST_NAME));
+    }
+
+    /**
+     * @return the packed values of the dimensions.
+     */
+    public long getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return the bits of the key holding the dimension.
+     */
+    static long mask(Dimension dimension)
+    {
+        return switch (dimension) {
+            case SECTION -> SECTION_MASK;
+            case STATUS_CLASS -> STATUS_CLASS_MASK;
+            case REMOTE_HOST -> REMOTE_HOST_MASK;
+        };
+    }
+
+    /**
+     * Pins the ids of the section and of the host name of a key, if any, so that they are not reassigned while the key
+     * is counted, see {@link SectionTable#pin(int)}.
+     */
+    static void pin(long key)
+    {
+        int sectionId = (int) (key & SECTION_MASK) - 1;
+        if (sectionId >= 0)
+        {
+            SectionTable.global().pin(sectionId);
+        }
+        long remoteHost = (key & REMOTE_HOST_MASK) >>> REMOTE_HOST_SHIFT;
+        if (remoteHost >= FIRST_NAME)
+        {
+            SectionTable.remoteHosts().pin((int) (remoteHost - FIRST_NAME));
+        }
+    }
+
+    /**
+     * Releases the pins taken by {@link Labels#pin(long)}.
+     */
+    static void unpin(long key)
+    {
+        int sectionId = (int) (key & SECTION_MASK) - 1;
+        if (sectionId >= 0)
+        {
+            SectionTable.global().unpin(sectionId);
+        }
+        long remoteHost = (key & REMOTE_HOST_MASK) >>> REMOTE_HOST_SHIFT;
+        if (remoteHost >= FIRST_NAME)
+        {
+            SectionTable.remoteHosts().unpin((int) (remoteHost - FIRST_NAME));
+        }
+    }
+
+    /**
+     * @param sectionId id of the section or {@link DataPoint#NO_SECTION}.
+     * @return the key holding only the section.
+     */
+    static long sectionKey(int sectionId)
+    {
+        Preconditions.checkArgument(sectionId < SECTION_MASK, "Too many sections");
+        return sectionId + 1L;
+    }
+
+    /**
+     * @param status a status code, negative if unknown.
+     * @return the key holding only the status class.
+     */
+    static long statusClassKey(int status)
+    {
+        long statusClass = status >= 100 && status < 600 ? status / 100 : OTHER_STATUS_CLASS;
+        return statusClass << STATUS_CLASS_SHIFT;
+    }
+
+    /**
+     * @param remoteHost buffer holding the UTF-8 encoded remote host.
+     * @return the key holding only the remote host. Host names are assigned an id if never seen.
+     */
+    static long remoteHostKey(byte[] remoteHost, int from, int to)
+    {
+        long address = Ipv4Addresses.parse(remoteHost, from, to);
+        long value = address >= 0
+                ? address + 1
+                : FIRST_NAME + SectionTable.remoteHosts().idOf(remoteHost, from, to);
+        return value << REMOTE_HOST_SHIFT;
+    }
+
+    static long remoteHostKey(String remoteHost)
+    {
+        byte[] bytes = remoteHost.getBytes(StandardCharsets.UTF_8);
+        return remoteHostKey(bytes, 0, bytes.length);
     }
 
     @Override
@@ -37,11 +272,29 @@ public class Labels {
             return false;
         }
         Labels labels = (Labels) o;
-        return Objects.equal(section, labels.section);
+        return key == labels.key;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(section);
+        return Long.hashCode(key);
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("Labels{");
+        if (getSectionId() != DataPoint.NO_SECTION)
+        {
+            sb.append("section=").append(getSection()).append(' ');
+        }
+        if (getStatusClass() != 0)
+        {
+            sb.append("statusClass=").append(getStatusClass()).append(' ');
+        }
+        if ((key & REMOTE_HOST_MASK) != 0)
+        {
+            sb.append("remoteHost=").append(getRemoteHost()).append(' ');
+        }
+        return sb.toString().trim() + "}";
     }
 }
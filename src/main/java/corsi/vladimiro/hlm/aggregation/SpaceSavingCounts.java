@@ -0,0 +1,390 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Approximate counts by label key in a fixed amount of memory, with the Space-Saving algorithm: at most
+ * <code>maxKeys</code> keys are counted and a key which is not counted when the table is full replaces the key with
+ * the minimum count, taking over its count. Counts are never underestimated and overestimated by at most N/maxKeys,
+ * N being the sum of the increments, so every key whose count exceeds N/maxKeys is present: the heavy hitters.
+ * While there are no more than <code>maxKeys</code> distinct keys the counts are exact.
+ * <p>
+ * Counts are held in a binary min-heap of primitive arrays, indexed by an open addressing table from key to heap
+ * position: an increment costs O(log maxKeys) and never allocates.
+ * <p>
+ * The counts of an open {@link Aggregation} pin the ids of the sections and host names of their keys until released,
+ * see {@link Labels#pin(long)}: a bounded {@link corsi.vladimiro.hlm.parsing.SectionTable} cannot reassign the id of a
+ * heavy hitter gone quiet to another section while its count is held, which would misattribute the count.
+ */
+class SpaceSavingCounts implements Breakdown {
+
+    private static final long EMPTY = -1;
+
+    private final int maxKeys;
+    //whether the keys are pinned while counted, and whether they still are as not yet released
+    private final boolean pinsLabels;
+    private boolean pinned;
+
+    //min-heap by count
+    private final long[] keys;
+    private final long[] counts;
+    //index slot of each heap position
+    private final int[] indexSlots;
+    private int size;
+
+    //open addressing table with linear probing
+    private final long[] indexKeys;
+    //heap position of each index slot
+    private final int[] positions;
+    private final int mask;
+
+    /**
+     * @param maxKeys the number of keys counted, bounding the memory and the error of the counts.
+     */
+    SpaceSavingCounts(int maxKeys)
+    {
+        this(maxKeys, false);
+    }
+
+    /**
+     * @param maxKeys the number of keys counted, bounding the memory and the error of the counts.
+     * @param pinsLabels whether the keys are {@link Labels} keys whose ids are pinned while counted, until
+     *                   {@link SpaceSavingCounts#release()}.
+     */
+    SpaceSavingCounts(int maxKeys, boolean pinsLabels)
+    {
+        Preconditions.checkArgument(maxKeys > 0);
+        this.maxKeys = maxKeys;
+        this.pinsLabels = pinsLabels;
+        this.pinned = pinsLabels;
+        keys = new long[maxKeys];
+        counts = new long[maxKeys];
+        indexSlots = new int[maxKeys];
+        //load factor at most 1/2
+        int indexCapacity = Integer.highestOneBit(maxKeys) << 2;
+        indexKeys = new long[indexCapacity];
+        Arrays.fill(indexKeys, EMPTY);
+        positions = new int[indexCapacity];
+        mask = indexCapacity - 1;
+    }
+
+    private SpaceSavingCounts(SpaceSavingCounts other)
+    {
+        maxKeys = other.maxKeys;
+        pinsLabels = false;
+        keys = other.keys.clone();
+        counts = other.counts.clone();
+        indexSlots = other.indexSlots.clone();
+        size = other.size;
+        indexKeys = other.indexKeys.clone();
+        positions = other.positions.clone();
+        mask = other.mask;
+    }
+
+    @Override
+    public void increment(long key, long delta)
+    {
+        Preconditions.checkArgument(key >= 0);
+        int slot = find(key);
+        if (slot >= 0)
+        {
+            int position = positions[slot];
+            counts[position] += delta;
+            siftDown(position);
+            return;
+        }
+        if (pinned)
+        {
+            Labels.pin(key);
+        }
+        if (size < maxKeys)
+        {
+            int position = size++;
+            keys[position] = key;
+            counts[position] = delta;
+            index(key, position);
+            siftUp(position);
+            return;
+        }
+        //the key takes over the minimum count, which bounds the count it may have had so far
+        if (pinned)
+        {
+            Labels.unpin(keys[0]);
+        }
+        unindex(indexSlots[0]);
+        keys[0] = key;
+        counts[0] += delta;
+        index(key, 0);
+        siftDown(0);
+    }
+
+    /**
+     * Merges the counts of another breakdown, keeping the keys with the greatest merged counts. A key missing from
+     * a full {@link SpaceSavingCounts} is assumed to have its minimum count, so that counts are still never
+     * underestimated and the error bound applies to the sum of the increments of both.
+     */
+    @Override
+    public void addAll(Breakdown other)
+    {
+        long minCount = minCount();
+        long otherMinCount = other instanceof SpaceSavingCounts ? ((SpaceSavingCounts) other).minCount() : 0;
+        long[] mergedKeys = new long[size + other.size()];
+        long[] mergedCounts = new long[mergedKeys.length];
+        int merged = 0;
+        for (int position = 0; position < size; position++)
+        {
+            long otherCount = other.get(keys[position]);
+            mergedKeys[merged] = keys[position];
+            mergedCounts[merged++] = counts[position] + (otherCount == 0 ? otherMinCount : otherCount);
+        }
+        for (int slot = 0; slot < other.capacity(); slot++)
+        {
+            long key = other.keyAt(slot);
+            if (key >= 0 && find(key) < 0)
+            {
+                mergedKeys[merged] = key;
+                mergedCounts[merged++] = other.countAt(slot) + minCount;
+            }
+        }
+        long[] previousKeys = pinned ? Arrays.copyOf(keys, size) : null;
+        rebuild(mergedKeys, mergedCounts, merged);
+        if (previousKeys != null)
+        {
+            //pinned before being unpinned, so that the ids of the keys kept are never released
+            for (int position = 0; position < size; position++)
+            {
+                Labels.pin(keys[position]);
+            }
+            for (long key : previousKeys)
+            {
+                Labels.unpin(key);
+            }
+        }
+    }
+
+    /**
+     * Releases the pins of the keys, keys counted afterwards are not pinned. Does nothing if the keys are not pinned.
+     */
+    @Override
+    public void release()
+    {
+        if (!pinned)
+        {
+            return;
+        }
+        pinned = false;
+        for (int position = 0; position < size; position++)
+        {
+            Labels.unpin(keys[position]);
+        }
+    }
+
+    @Override
+    public SpaceSavingCounts copy()
+    {
+        //only the counts of the open aggregations pin their keys, not the copies
+        return new SpaceSavingCounts(this);
+    }
+
+    @Override
+    public SpaceSavingCounts emptyCopy()
+    {
+        return new SpaceSavingCounts(maxKeys, pinsLabels);
+    }
+
+    @Override
+    public long get(long key)
+    {
+        if (key < 0)
+        {
+            return 0;
+        }
+        int slot = find(key);
+        return slot < 0 ? 0 : counts[positions[slot]];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public int capacity()
+    {
+        return size;
+    }
+
+    @Override
+    public long keyAt(int slot)
+    {
+        return keys[slot];
+    }
+
+    @Override
+    public long countAt(int slot)
+    {
+        return counts[slot];
+    }
+
+    /**
+     * @return the maximum count a key which is not present may have, 0 unless the table is full.
+     */
+    long minCount()
+    {
+        return size < maxKeys ? 0 : counts[0];
+    }
+
+    /**
+     * Replaces the content with the <code>maxKeys</code> greatest of the given counts.
+     */
+    private void rebuild(long[] newKeys, long[] newCounts, int length)
+    {
+        long threshold = Long.MIN_VALUE;
+        if (length > maxKeys)
+        {
+            long[] sortedCounts = Arrays.copyOf(newCounts, length);
+            Arrays.sort(sortedCounts);
+            threshold = sortedCounts[length - maxKeys];
+        }
+        Arrays.fill(indexKeys, EMPTY);
+        size = 0;
+        //counts above the threshold first, then ties up to the maximum number of keys
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int i = 0; i < length && size < maxKeys; i++)
+            {
+                if (pass == 0 ? newCounts[i] > threshold : newCounts[i] == threshold)
+                {
+                    keys[size] = newKeys[i];
+                    counts[size] = newCounts[i];
+                    index(newKeys[i], size++);
+                }
+            }
+        }
+        for (int position = (size >>> 1) - 1; position >= 0; position--)
+        {
+            siftDown(position);
+        }
+    }
+
+    private void siftUp(int position)
+    {
+        while (position > 0)
+        {
+            int parent = (position - 1) >>> 1;
+            if (counts[parent] <= counts[position])
+            {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position)
+    {
+        while (true)
+        {
+            int child = (position << 1) + 1;
+            if (child >= size)
+            {
+                return;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child])
+            {
+                child++;
+            }
+            if (counts[child] >= counts[position])
+            {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b)
+    {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        int slot = indexSlots[a];
+        indexSlots[a] = indexSlots[b];
+        indexSlots[b] = slot;
+        positions[indexSlots[a]] = a;
+        positions[indexSlots[b]] = b;
+    }
+
+    private int home(long key)
+    {
+        //Fibonacci hashing, as in LabelCounts
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * @return the index slot of the key, -1 if absent.
+     */
+    private int find(long key)
+    {
+        int slot = home(key);
+        while (true)
+        {
+            long slotKey = indexKeys[slot];
+            if (slotKey == key)
+            {
+                return slot;
+            }
+            if (slotKey == EMPTY)
+            {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void index(long key, int position)
+    {
+        int slot = home(key);
+        while (indexKeys[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+        indexKeys[slot] = key;
+        positions[slot] = position;
+        indexSlots[position] = slot;
+    }
+
+    /**
+     * Removes the key of an index slot, shifting back the following keys of the probe sequence so that no
+     * tombstone is needed.
+     */
+    private void unindex(int slot)
+    {
+        indexKeys[slot] = EMPTY;
+        int next = slot;
+        while (true)
+        {
+            next = (next + 1) & mask;
+            long key = indexKeys[next];
+            if (key == EMPTY)
+            {
+                return;
+            }
+            //the key can fill the hole if the hole lies between its home slot and its slot
+            if (((next - home(key)) & mask) >= ((next - slot) & mask))
+            {
+                indexKeys[slot] = key;
+                positions[slot] = positions[next];
+                indexSlots[positions[slot]] = slot;
+                indexKeys[next] = EMPTY;
+                slot = next;
+            }
+        }
+    }
+}
@@ -3,17 +3,36 @@ package corsi.vladimiro.hlm.aggregation;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nonnull;
-import java.util.TreeMap;
+import java.util.OptionalLong;
 
-//! In progress, UNTESTED !
+/**
+ * Sliding window of the {@link Aggregation}s of the last intervals of a given granularity, e.g. the 12 intervals of
+ * 10 seconds of the last 2 minutes. Aggregations may be submitted out of order: an aggregation of an interval still in
+ * the window is merged into it, an aggregation of an interval which already left the window is dropped and counted as
+ * late. When an aggregation of a later interval arrives the window slides and the intervals leaving it are passed to
+ * the listeners, in order and exactly once.
+ * The intervals are held in a ring of aggregations indexed by interval, so memory is bounded by the width of the
+ * window and submitting costs a merge plus the eviction of the intervals leaving the window, whatever their order.
+ */
 public class TimeWindow {
 
-    private final TreeMap<Long, Aggregation> timeWindow = new TreeMap<>();
+    private final Aggregation[] ring;
     private final int timeWindowInSecs;
     private final int granularityInSecs;
     private final AggregationListener[] listeners;
+    //index of the latest interval submitted, -1 if none
+    private long latestInterval = -1;
     private long count;
+    private long lateCount;
+    //reused to merge the distinct remote hosts of the window
+    private final HyperLogLog remoteHosts = new HyperLogLog();
 
+    /**
+     * @param timeWindowInSecs width of the window, the intervals of the last timeWindowInSecs / granularityInSecs
+     *                         granules are held.
+     * @param granularityInSecs duration of the intervals into which aggregations are merged.
+     * @param listeners receive the aggregations leaving the window.
+     */
     public TimeWindow(int timeWindowInSecs,
                       int granularityInSecs,
                       @Nonnull AggregationListener... listeners)
@@ -27,37 +46,56 @@ public class TimeWindow {
         this.granularityInSecs = granularityInSecs;
         this.timeWindowInSecs = timeWindowInSecs;
         this.listeners = listeners;
+        this.ring = new Aggregation[timeWindowInSecs / granularityInSecs];
     }
 
-    public void submit(Aggregation aggregation)
+    /**
+     * Adds an aggregation to the interval of the window which contains its begin timestamp.
+     * @param aggregation not retained, the window merges it into a copy of its own.
+     */
+    public void submit(@Nonnull Aggregation aggregation)
     {
-        this.count += aggregation.getTotalCount();
-        var key = aggregation.getBeginTimestamp() / granularityInSecs;
-        var newBeginTimestamp = key * granularityInSecs;
-        var newEndTimestamp = newBeginTimestamp + granularityInSecs;
-        var existing = timeWindow.get(key);
-        if (existing != null)
-        {
-            aggregation = existing.sum(aggregation);
-        } else
+        var interval = aggregation.getBeginTimestamp() / granularityInSecs;
+        if (latestInterval >= 0 && interval <= latestInterval - ring.length)
         {
-            aggregation = aggregation.withNewTimestamps(newBeginTimestamp, newEndTimestamp);
+            lateCount += aggregation.getTotalCount();
+            return;
         }
-        timeWindow.put(key, aggregation);
-
-        long endOfWindow = getEndOfWindow();
-        var timeWindowIt = timeWindow.entrySet().iterator();
-        while (timeWindowIt.hasNext())
+        if (interval > latestInterval)
         {
-            var curEntry = timeWindowIt.next();
-            var curTimestamp = curEntry.getValue().getBeginTimestamp();
-            if (endOfWindow - curTimestamp > timeWindowInSecs)
+            //the intervals which leave the window, oldest first
+            for (long evicted = Math.max(latestInterval - ring.length + 1, 0);
+                 evicted <= Math.min(latestInterval, interval - ring.length);
+                 evicted++)
             {
-                count = count - curEntry.getValue().getTotalCount();
-                notifyListeners(curEntry.getValue());
-                timeWindowIt.remove();
+                int slot = slot(evicted);
+                var evictedAggregation = ring[slot];
+                if (evictedAggregation != null)
+                {
+                    ring[slot] = null;
+                    count -= evictedAggregation.getTotalCount();
+                    notifyListeners(evictedAggregation);
+                }
             }
+            latestInterval = interval;
         }
+        int slot = slot(interval);
+        var existing = ring[slot];
+        if (existing != null)
+        {
+            //existing is a copy owned by the window
+            aggregation.mergeInto(existing);
+        } else
+        {
+            var newBeginTimestamp = interval * granularityInSecs;
+            ring[slot] = aggregation.withNewTimestamps(newBeginTimestamp, newBeginTimestamp + granularityInSecs);
+        }
+        count += aggregation.getTotalCount();
+    }
+
+    private int slot(long interval)
+    {
+        return (int) (interval % ring.length);
     }
 
     private void notifyListeners(Aggregation aggregation)
@@ -68,18 +106,54 @@ public class TimeWindow {
         }
     }
 
+    /**
+     * @return the total count of the aggregations in the window.
+     */
     public long getCount()
     {
         return count;
     }
 
+    /**
+     * @return the total count of the aggregations dropped because their interval had already left the window.
+     */
+    public long getLateCount()
+    {
+        return lateCount;
+    }
+
+    /**
+     * @return the estimated number of distinct remote hosts of the aggregations in the window, empty if the
+     * aggregations do not count them. Costs a merge of the fixed-size sketches of the aggregations.
+     */
+    @Nonnull
+    public OptionalLong getDistinctRemoteHosts()
+    {
+        remoteHosts.clear();
+        boolean counted = false;
+        for (var aggregation : ring)
+        {
+            var sketch = aggregation == null ? null : aggregation.getRemoteHostsSketch();
+            if (sketch != null)
+            {
+                remoteHosts.addAll(sketch);
+                counted = true;
+            }
+        }
+        return counted ? OptionalLong.of(remoteHosts.estimate()) : OptionalLong.empty();
+    }
+
     public int getTimeWindowInSecs()
     {
         return timeWindowInSecs;
     }
 
+    /**
+     * @return the end timestamp of the latest interval submitted.
+     */
     public long getEndOfWindow()
     {
-        return timeWindow.descendingMap().firstEntry().getValue().getEndTimestamp();
+        Preconditions.checkState(latestInterval >= 0, "No aggregation submitted");
+        return (latestInterval + 1) * granularityInSecs;
     }
 }
@@ -0,0 +1,46 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Position from which ingestion of a log file can be resumed.
+ */
+@Immutable
+public class Checkpoint {
+
+    private final String fileIdentity;
+    private final long offset;
+    private final long lastCompletedEndTimestamp;
+
+    /**
+     * @param fileIdentity identity of the log file, see {@link FileInput#fileIdentity()}.
+     * @param offset offset in the file of the first line to parse when resuming.
+     * @param lastCompletedEndTimestamp end timestamp of the last interval which was completed before the offset.
+     */
+    public Checkpoint(@Nonnull String fileIdentity, long offset, long lastCompletedEndTimestamp)
+    {
+        Preconditions.checkArgument(offset >= 0);
+        this.fileIdentity = Preconditions.checkNotNull(fileIdentity);
+        this.offset = offset;
+        this.lastCompletedEndTimestamp = lastCompletedEndTimestamp;
+    }
+
+    @Nonnull
+    public String getFileIdentity()
+    {
+        return fileIdentity;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public long getLastCompletedEndTimestamp()
+    {
+        return lastCompletedEndTimestamp;
+    }
+}
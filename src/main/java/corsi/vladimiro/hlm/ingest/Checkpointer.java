@@ -0,0 +1,215 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.base.Preconditions;
+import corsi.vladimiro.hlm.aggregation.Aggregator;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+import corsi.vladimiro.hlm.parsing.LineOffsetListener;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically persists a {@link Checkpoint} of the ingestion of a log file, so that after a restart
+ * parsing can resume from the checkpoint instead of replaying the whole file.
+ * Data points are aggregated in intervals like the statistics do: when an interval is completed the offset of
+ * the line which opened the new interval is recorded together with the end of the completed interval.
+ * Resuming from there rebuilds the open interval while completed ones are not emitted again.
+ * Recording is a field assignment on the parsing thread, the checkpoint file is written by a background thread
+ * at a fixed rate, only if the checkpoint changed. The file is replaced atomically and optionally forced to disk.
+ * A failed write is logged and counted, and retried at the next flush. No checkpoint is recorded for a file without
+ * identity, see {@link FileInput#fileIdentity()}, as it could not be told apart from another file when resuming.
+ */
+public class Checkpointer implements LineOffsetListener, AutoCloseable {
+
+    private static final String FILE_IDENTITY = "fileIdentity";
+    private static final String OFFSET = "offset";
+    private static final String LAST_COMPLETED_END_TIMESTAMP = "lastCompletedEndTimestamp";
+    private static final Logger LOGGER = Logger.getLogger(Checkpointer.class.getName());
+
+    private final Path checkpointFile;
+    private final FileInput input;
+    private final Aggregator aggregator;
+    private final boolean fsync;
+    private final ScheduledExecutorService executor;
+    private volatile Checkpoint pending;
+    private Checkpoint written;
+    private final AtomicLong failedFlushCount = new AtomicLong();
+
+    /**
+     * @param checkpointFile file where checkpoints are written.
+     * @param input the input of the parser.
+     * @param intervalInSecs duration of the aggregation intervals, positive.
+     * @param flushIntervalInMillis time between writes of the checkpoint file, positive.
+     * @param fsync whether the checkpoint file must be forced to disk when written.
+     */
+    public Checkpointer(@Nonnull Path checkpointFile,
+                        @Nonnull FileInput input,
+                        int intervalInSecs,
+                        long flushIntervalInMillis,
+                        boolean fsync)
+    {
+        Preconditions.checkArgument(flushIntervalInMillis > 0);
+        this.checkpointFile = Preconditions.checkNotNull(checkpointFile);
+        this.input = Preconditions.checkNotNull(input);
+        this.aggregator = new Aggregator(intervalInSecs);
+        this.fsync = fsync;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushQuietly,
+                flushIntervalInMillis, flushIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param checkpointFile file where checkpoints are written.
+     * @return the last written {@link Checkpoint}, if any. A corrupt file, e.g. truncated or with missing or invalid
+     * values, is logged and treated as no checkpoint.
+     * @throws IOException if the file cannot be read.
+     */
+    @Nonnull
+    public static Optional<Checkpoint> load(@Nonnull Path checkpointFile) throws IOException
+    {
+        var properties = new Properties();
+        try (InputStream is = Files.newInputStream(checkpointFile))
+        {
+            properties.load(is);
+        } catch (NoSuchFileException e)
+        {
+            return Optional.empty();
+        }
+        var fileIdentity = properties.getProperty(FILE_IDENTITY);
+        long offset = parseLong(properties.getProperty(OFFSET));
+        long lastCompletedEndTimestamp = parseLong(properties.getProperty(LAST_COMPLETED_END_TIMESTAMP));
+        if (fileIdentity == null || offset < 0 || lastCompletedEndTimestamp < 0)
+        {
+            LOGGER.warning("Ignoring corrupt checkpoint file " + checkpointFile);
+            return Optional.empty();
+        }
+        return Optional.of(new Checkpoint(fileIdentity, offset, lastCompletedEndTimestamp));
+    }
+
+    /**
+     * @return the value, -1 if it is missing or not a number.
+     */
+    private static long parseLong(String value)
+    {
+        try
+        {
+            return value == null ? -1 : Long.parseLong(value);
+        } catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Set<DataPointField> getRequiredFields()
+    {
+        return EnumSet.of(DataPointField.TIMESTAMP);
+    }
+
+    @Override
+    public void onDataPoint(@Nonnull DataPoint dataPoint, long lineOffset)
+    {
+        var completed = aggregator.submit(dataPoint);
+        if (completed.isPresent())
+        {
+            long fileOffset = input.fileOffset(lineOffset);
+            var fileIdentity = input.fileIdentity();
+            if (fileOffset >= 0 && fileIdentity.isPresent())
+            {
+                pending = new Checkpoint(fileIdentity.get(), fileOffset, completed.get().getEndTimestamp());
+            }
+        }
+    }
+
+    /**
+     * Writes the last recorded checkpoint if it has not been written yet.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public synchronized void flush() throws IOException
+    {
+        var checkpoint = pending;
+        if (checkpoint == null || checkpoint == written)
+        {
+            return;
+        }
+        var properties = new Properties();
+        properties.setProperty(FILE_IDENTITY, checkpoint.getFileIdentity());
+        properties.setProperty(OFFSET, Long.toString(checkpoint.getOffset()));
+        properties.setProperty(LAST_COMPLETED_END_TIMESTAMP, Long.toString(checkpoint.getLastCompletedEndTimestamp()));
+        var bytes = new ByteArrayOutputStream();
+        properties.store(bytes, null);
+
+        var tmpFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmpFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            var buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            if (fsync)
+            {
+                channel.force(true);
+            }
+        }
+        Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        written = checkpoint;
+    }
+
+    /**
+     * @return the number of writes of the background thread which failed.
+     */
+    public long getFailedFlushCount()
+    {
+        return failedFlushCount.get();
+    }
+
+    /**
+     * Stops the background thread and writes the last recorded checkpoint.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        executor.shutdownNow();
+        flush();
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        } catch (IOException e)
+        {
+            failedFlushCount.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Cannot write checkpoint file " + checkpointFile, e);
+        }
+    }
+}
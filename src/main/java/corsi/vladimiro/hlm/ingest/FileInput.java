@@ -0,0 +1,41 @@
+package corsi.vladimiro.hlm.ingest;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+
+/**
+ * An input stream reading from a file, which can map offsets in the stream back to offsets in the file.
+ */
+public interface FileInput {
+
+    /**
+     * @return identity of the file currently read, e.g. its inode, see
+     * {@link java.nio.file.attribute.BasicFileAttributes#fileKey()}. Empty if the file system does not provide one,
+     * in which case the file cannot be told apart from another one at the same path.
+     */
+    @Nonnull
+    Optional<String> fileIdentity();
+
+    /**
+     * @param streamOffset offset of a byte already read from the stream.
+     * @return offset of the same byte in the file currently read or -1 if the byte belongs to a file
+     * which is no longer read, e.g. before a rotation.
+     */
+    long fileOffset(long streamOffset);
+
+    /**
+     * @param path path of a file.
+     * @return identity of the file, as returned by {@link FileInput#fileIdentity()} while reading it.
+     * @throws IOException if the attributes of the file cannot be read.
+     */
+    @Nonnull
+    static Optional<String> fileIdentityOf(@Nonnull Path path) throws IOException
+    {
+        return Optional.ofNullable(Files.readAttributes(path, BasicFileAttributes.class).fileKey())
+                .map(Object::toString);
+    }
+}
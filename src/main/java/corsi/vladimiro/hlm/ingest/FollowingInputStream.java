@@ -0,0 +1,239 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a growing file like <code>tail -F</code> does. Reads block until new bytes are appended to the file,
+ * so a {@link corsi.vladimiro.hlm.parsing.CSVLogParser} reading from this stream keeps running, with its listeners'
+ * state, until the stream is closed.
+ * <ul>
+ *     <li>Waiting for new bytes is done through a {@link WatchService} on the parent directory, with a poll
+ *     interval as upper bound for platforms where changes are not notified promptly.</li>
+ *     <li>Truncation is detected when the file size becomes less than the read position: reading restarts
+ *     from the beginning of the file.</li>
+ *     <li>Rotation is detected when the file key (e.g. inode) of the path changes: the old file is drained
+ *     and reading continues from the beginning of the new file.</li>
+ * </ul>
+ */
+public class FollowingInputStream extends InputStream implements FileInput {
+
+    private final Path path;
+    private final long pollIntervalInMillis;
+    private final WatchService watchService;
+    private FileChannel channel;
+    private Object fileKey;
+    private long position;
+    private long streamPosition;
+    private long fileBeginStreamPosition;
+    private long fileBeginPosition;
+    private volatile boolean closed;
+
+    /**
+     * Follows the file from its beginning, waiting at most 100 milliseconds between checks for changes.
+     * @param path the file to follow, must exist.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FollowingInputStream(@Nonnull Path path) throws IOException
+    {
+        this(path, 0, 100);
+    }
+
+    /**
+     * @param path the file to follow, must exist.
+     * @param position offset of the first byte to read.
+     * @param pollIntervalInMillis maximum time between checks for changes, positive.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FollowingInputStream(@Nonnull Path path, long position, long pollIntervalInMillis) throws IOException
+    {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkArgument(position >= 0);
+        Preconditions.checkArgument(pollIntervalInMillis > 0);
+        this.path = path.toAbsolutePath();
+        this.pollIntervalInMillis = pollIntervalInMillis;
+        this.watchService = this.path.getFileSystem().newWatchService();
+        this.path.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        open();
+        this.position = position;
+        this.fileBeginPosition = position;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException
+    {
+        Preconditions.checkPositionIndexes(off, off + len, b.length);
+        if (len == 0)
+        {
+            return 0;
+        }
+        try
+        {
+            while (!closed)
+            {
+                int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+                if (read > 0)
+                {
+                    position += read;
+                    streamPosition += read;
+                    return read;
+                }
+                if (!switchFile())
+                {
+                    awaitChange();
+                }
+            }
+        } catch (ClosedChannelException | ClosedWatchServiceException e)
+        {
+            if (!closed)
+            {
+                throw e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of bytes appended to the file currently followed and not yet read.
+     * @throws IOException in case of I/O error.
+     */
+    @Override
+    public int available() throws IOException
+    {
+        if (closed)
+        {
+            return 0;
+        }
+        return (int) Math.min(Math.max(channel.size() - position, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return offset of the next byte to read in the file currently followed.
+     */
+    public long position()
+    {
+        return position;
+    }
+
+    @Nonnull
+    @Override
+    public Optional<String> fileIdentity()
+    {
+        return Optional.ofNullable(fileKey).map(Object::toString);
+    }
+
+    @Override
+    public long fileOffset(long streamOffset)
+    {
+        if (streamOffset < fileBeginStreamPosition)
+        {
+            return -1;
+        }
+        return fileBeginPosition + streamOffset - fileBeginStreamPosition;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        try
+        {
+            watchService.close();
+        } finally
+        {
+            channel.close();
+        }
+    }
+
+    private void open() throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        restartFile();
+    }
+
+    private void restartFile()
+    {
+        position = 0;
+        fileBeginPosition = 0;
+        fileBeginStreamPosition = streamPosition;
+    }
+
+    /**
+     * Called when all the bytes of the current file have been read.
+     * @return true if the file has been truncated or rotated, i.e. there may be new bytes to read.
+     */
+    private boolean switchFile() throws IOException
+    {
+        if (channel.size() < position)
+        {
+            restartFile();
+            return true;
+        }
+        final Object currentKey;
+        try
+        {
+            currentKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e)
+        {
+            //rotated, new file not yet created
+            return false;
+        }
+        if (currentKey == null || Objects.equal(currentKey, fileKey))
+        {
+            return false;
+        }
+        //bytes could have been appended to the old file before the rotation
+        if (channel.size() > position)
+        {
+            return true;
+        }
+        channel.close();
+        open();
+        return true;
+    }
+
+    private void awaitChange() throws IOException
+    {
+        try
+        {
+            var key = watchService.poll(pollIntervalInMillis, TimeUnit.MILLISECONDS);
+            if (key != null)
+            {
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
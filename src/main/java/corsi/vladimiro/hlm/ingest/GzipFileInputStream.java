@@ -0,0 +1,536 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a gzip compressed file, decompressing it on background threads so that the reader, e.g. a
+ * {@link corsi.vladimiro.hlm.parsing.CSVLogParser}, parses a buffer while the following ones are decompressed.
+ * <ul>
+ *     <li>Decompressed bytes are handed over in buffers of 64 KB, at most 4 per gzip member waiting to be read.
+ *     Read buffers go back to a pool which the decompressing threads take from.</li>
+ *     <li>Files made of more gzip members, e.g. concatenated with <code>cat</code> or written by
+ *     <code>bgzip</code>, have their members decompressed in parallel. Members are located by scanning the
+ *     file for gzip headers: a header can also appear by chance inside compressed data, so a member is only
+ *     read if it begins where the previous one ended, decompressions started at other offsets are abandoned.
+ *     The file is scanned incrementally by the reader, a block at a time and at most 16 MB ahead of the oldest
+ *     member being decompressed, so decompression starts right away and the scan overlaps with it.</li>
+ * </ul>
+ * Bytes following the last member which are not a gzip header are ignored, like {@link java.util.zip.GZIPInputStream}
+ * does.
+ */
+public class GzipFileInputStream extends InputStream {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFERS_PER_MEMBER = 4;
+    private static final int SCAN_BLOCK_SIZE = 1 << 20;
+    //blocks scanned ahead of the decompression at most
+    private static final int SCAN_AHEAD_BLOCKS = 16;
+    private static final int HEADER_SIZE = 10;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int RESERVED_FLAGS = 0xE0;
+    private static final Buffer END = new Buffer(0);
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int bufferSize;
+    private final int maxMembersInFlight;
+    private final ExecutorService executor;
+    private final Queue<Buffer> pool = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Member> members = new ArrayDeque<>();
+    //offsets which look like a gzip header, found by the scan and not yet scheduled
+    private long[] candidates = new long[16];
+    private int candidateCount;
+    private int nextCandidate;
+    //headers have been looked for at the offsets before this one
+    private long scanned;
+    private final int scanBlockSize;
+    private final ByteBuffer scanBlock;
+    //offset where the next member must begin
+    private long memberEnd;
+    private Buffer buffer;
+    private int bufferPosition;
+    private boolean eof;
+    private boolean closed;
+
+    private static class Buffer
+    {
+        private final byte[] bytes;
+        private int length;
+
+        private Buffer(int size)
+        {
+            this.bytes = new byte[size];
+        }
+    }
+
+    /**
+     * Decompresses members in parallel on as many threads as processors.
+     * @param path the file to read.
+     * @throws IOException if the file cannot be opened or it does not begin with a gzip header.
+     */
+    public GzipFileInputStream(@Nonnull Path path) throws IOException
+    {
+        this(path, Runtime.getRuntime().availableProcessors(), DEFAULT_BUFFER_SIZE, SCAN_BLOCK_SIZE);
+    }
+
+    @VisibleForTesting
+    GzipFileInputStream(@Nonnull Path path, int threads, int bufferSize, int scanBlockSize) throws IOException
+    {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkArgument(threads > 0);
+        Preconditions.checkArgument(bufferSize > 0);
+        Preconditions.checkArgument(scanBlockSize > 0);
+        this.bufferSize = bufferSize;
+        this.scanBlockSize = scanBlockSize;
+        this.scanBlock = ByteBuffer.allocate(scanBlockSize + HEADER_SIZE);
+        this.maxMembersInFlight = threads;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            this.fileSize = channel.size();
+            //the first member is scheduled by the first scan
+            if (!scan() || candidateCount == 0 || candidates[0] != 0)
+            {
+                throw new ZipException("Not in gzip format");
+            }
+        } catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "gzip-" + path.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param path a file.
+     * @return true if the file begins with the gzip magic bytes.
+     * @throws IOException if the file cannot be read.
+     */
+    public static boolean isGzip(@Nonnull Path path) throws IOException
+    {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            var magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic) >= 0)
+            {
+                //keep reading
+            }
+            return magic.position() == 2 && (magic.get(0) & 0xFF) == 0x1F && (magic.get(1) & 0xFF) == 0x8B;
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException
+    {
+        Preconditions.checkPositionIndexes(off, off + len, b.length);
+        if (closed)
+        {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0)
+        {
+            return 0;
+        }
+        while (buffer == null || bufferPosition == buffer.length)
+        {
+            if (buffer != null)
+            {
+                pool.add(buffer);
+                buffer = null;
+            }
+            if (eof)
+            {
+                return -1;
+            }
+            nextBuffer();
+        }
+        int read = Math.min(len, buffer.length - bufferPosition);
+        System.arraycopy(buffer.bytes, bufferPosition, b, off, read);
+        bufferPosition += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        for (var member : members)
+        {
+            member.cancelled = true;
+        }
+        members.clear();
+        executor.shutdown();
+        channel.close();
+    }
+
+    private void nextBuffer() throws IOException
+    {
+        //decompressions started inside the last member read
+        while (!members.isEmpty() && members.peekFirst().begin < memberEnd)
+        {
+            members.removeFirst().cancelled = true;
+        }
+        schedule();
+        var member = members.peekFirst();
+        if (member == null || member.begin != memberEnd)
+        {
+            //trailing bytes
+            eof = true;
+            return;
+        }
+        final Buffer next;
+        try
+        {
+            next = member.buffers.take();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (next == END)
+        {
+            members.removeFirst();
+            if (member.failure != null)
+            {
+                throw member.failure;
+            }
+            memberEnd = member.end;
+        } else
+        {
+            buffer = next;
+            bufferPosition = 0;
+        }
+    }
+
+    /**
+     * Starts decompressing the candidate members, scanning the file for more of them. The scan always goes past the
+     * offset where the next member must begin, so that a member there is known, and then at most one more block per
+     * call while it is not too far ahead of the decompression.
+     */
+    private void schedule() throws IOException
+    {
+        boolean scannedAhead = false;
+        while (members.size() < maxMembersInFlight)
+        {
+            if (nextCandidate == candidateCount)
+            {
+                nextCandidate = 0;
+                candidateCount = 0;
+                long decompressed = members.isEmpty() ? memberEnd : members.peekFirst().inputEnd;
+                boolean required = scanned <= memberEnd;
+                if (!required && (scannedAhead || scanned > decompressed + (long) SCAN_AHEAD_BLOCKS * scanBlockSize))
+                {
+                    return;
+                }
+                if (!scan())
+                {
+                    return;
+                }
+                scannedAhead = !required;
+                continue;
+            }
+            long begin = candidates[nextCandidate++];
+            if (begin >= memberEnd)
+            {
+                var member = new Member(begin);
+                members.addLast(member);
+                executor.execute(member);
+            }
+        }
+    }
+
+    /**
+     * Looks for gzip headers at the offsets of the next block of the file, appending them to the candidates.
+     * @return false if the whole file has been scanned.
+     */
+    private boolean scan() throws IOException
+    {
+        long blockBegin = scanned;
+        if (blockBegin + HEADER_SIZE > fileSize)
+        {
+            return false;
+        }
+        scanBlock.clear();
+        scanBlock.limit((int) Math.min(scanBlock.capacity(), fileSize - blockBegin));
+        while (scanBlock.hasRemaining() && channel.read(scanBlock, blockBegin + scanBlock.position()) >= 0)
+        {
+            //keep reading
+        }
+        //headers are looked for at offsets in [blockBegin, blockBegin + scanBlockSize)
+        byte[] bytes = scanBlock.array();
+        int last = Math.min(scanBlockSize, scanBlock.position() - HEADER_SIZE + 1);
+        for (int i = 0; i < last; i++)
+        {
+            if (isHeader(bytes, i))
+            {
+                if (candidateCount == candidates.length)
+                {
+                    candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                }
+                candidates[candidateCount++] = blockBegin + i;
+            }
+        }
+        scanned = blockBegin + scanBlockSize;
+        return true;
+    }
+
+    private static boolean isHeader(byte[] bytes, int i)
+    {
+        int os = bytes[i + 9] & 0xFF;
+        int xfl = bytes[i + 8];
+        return bytes[i] == (byte) 0x1F
+                && bytes[i + 1] == (byte) 0x8B
+                //deflate
+                && bytes[i + 2] == 8
+                && (bytes[i + 3] & RESERVED_FLAGS) == 0
+                && (xfl == 0 || xfl == 2 || xfl == 4)
+                && (os <= 13 || os == 255);
+    }
+
+    /**
+     * Decompresses the member beginning at an offset, which may turn out not to be a member.
+     */
+    private class Member implements Runnable
+    {
+        private final long begin;
+        private final BlockingQueue<Buffer> buffers = new ArrayBlockingQueue<>(BUFFERS_PER_MEMBER);
+        private volatile boolean cancelled;
+        private volatile long end;
+        private volatile IOException failure;
+        //decompressing thread only
+        private final byte[] input = new byte[bufferSize];
+        private int inputPosition;
+        private int inputLength;
+        //read by the reader to pace the scan
+        private volatile long inputEnd;
+
+        private Member(long begin)
+        {
+            this.begin = begin;
+            this.inputEnd = begin;
+        }
+
+        @Override
+        public void run()
+        {
+            var inflater = new Inflater(true);
+            try
+            {
+                inflate(inflater);
+            } catch (IOException e)
+            {
+                failure = e;
+            } catch (DataFormatException e)
+            {
+                var zipException = new ZipException("Corrupt gzip member at offset " + begin);
+                zipException.initCause(e);
+                failure = zipException;
+            } catch (InterruptedException e)
+            {
+                return;
+            } finally
+            {
+                inflater.end();
+            }
+            try
+            {
+                publish(END);
+            } catch (InterruptedException e)
+            {
+                //the stream is closed
+            }
+        }
+
+        private void inflate(Inflater inflater) throws IOException, DataFormatException, InterruptedException
+        {
+            skipHeader();
+            var crc = new CRC32();
+            long size = 0;
+            var output = take();
+            while (!inflater.finished())
+            {
+                if (inflater.needsInput())
+                {
+                    if (inputPosition == inputLength && !fill())
+                    {
+                        throw new EOFException("Truncated gzip member at offset " + begin);
+                    }
+                    inflater.setInput(input, inputPosition, inputLength - inputPosition);
+                    inputPosition = inputLength;
+                }
+                if (inflater.needsDictionary())
+                {
+                    throw new ZipException("Corrupt gzip member at offset " + begin);
+                }
+                int inflated = inflater.inflate(output.bytes, output.length, output.bytes.length - output.length);
+                crc.update(output.bytes, output.length, inflated);
+                output.length += inflated;
+                size += inflated;
+                if (output.length == output.bytes.length)
+                {
+                    if (!publish(output))
+                    {
+                        return;
+                    }
+                    output = take();
+                }
+            }
+            inputPosition = inputLength - inflater.getRemaining();
+            if (readIntLE() != (int) crc.getValue() || readIntLE() != (int) size)
+            {
+                throw new ZipException("Corrupt gzip member at offset " + begin);
+            }
+            end = inputEnd - (inputLength - inputPosition);
+            if (output.length > 0)
+            {
+                publish(output);
+            } else
+            {
+                pool.add(output);
+            }
+        }
+
+        private void skipHeader() throws IOException
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                readByte();
+            }
+            int flags = readByte();
+            for (int i = 4; i < HEADER_SIZE; i++)
+            {
+                readByte();
+            }
+            if ((flags & FEXTRA) != 0)
+            {
+                int extraLength = readByte() | readByte() << 8;
+                for (int i = 0; i < extraLength; i++)
+                {
+                    readByte();
+                }
+            }
+            if ((flags & FNAME) != 0)
+            {
+                while (readByte() != 0)
+                {
+                    //skip
+                }
+            }
+            if ((flags & FCOMMENT) != 0)
+            {
+                while (readByte() != 0)
+                {
+                    //skip
+                }
+            }
+            if ((flags & FHCRC) != 0)
+            {
+                readByte();
+                readByte();
+            }
+        }
+
+        private int readIntLE() throws IOException
+        {
+            return readByte() | readByte() << 8 | readByte() << 16 | readByte() << 24;
+        }
+
+        private int readByte() throws IOException
+        {
+            if (inputPosition == inputLength && !fill())
+            {
+                throw new EOFException("Truncated gzip member at offset " + begin);
+            }
+            return input[inputPosition++] & 0xFF;
+        }
+
+        /**
+         * @return false at the end of the file.
+         */
+        private boolean fill() throws IOException
+        {
+            if (cancelled)
+            {
+                throw new IOException("Cancelled");
+            }
+            int read = channel.read(ByteBuffer.wrap(input), inputEnd);
+            if (read <= 0)
+            {
+                return false;
+            }
+            inputPosition = 0;
+            inputLength = read;
+            inputEnd += read;
+            return true;
+        }
+
+        private Buffer take()
+        {
+            var buffer = pool.poll();
+            if (buffer == null)
+            {
+                buffer = new Buffer(bufferSize);
+            }
+            buffer.length = 0;
+            return buffer;
+        }
+
+        /**
+         * Waits for the reader to make room for the buffer.
+         * @return false if the decompression has been abandoned.
+         */
+        private boolean publish(Buffer buffer) throws InterruptedException
+        {
+            while (!cancelled)
+            {
+                if (buffers.offer(buffer, 10, TimeUnit.MILLISECONDS))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Reads a file through memory mapping. The file is mapped in consecutive windows which fit the 2 GB limit
+ * of a {@link MappedByteBuffer}, bytes are copied straight from the page cache into the caller buffer
+ * without any intermediate buffering or decoding.
+ * The parser tokenizes lines out of that buffer rather than out of the mapping: the copy lands in a small buffer
+ * which stays in cache and costs under 1% of the parsing time, while every consumer of the lines
+ * (tokenizer, section table, batches, quarantine) works on byte arrays (see <code>ByteLineReaderBenchmark</code>).
+ * Only the bytes present when the stream is opened are read.
+ */
+public class MappedFileInputStream extends InputStream implements FileInput {
+
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    @Nullable
+    private final String fileIdentity;
+    private final long begin;
+    private final long end;
+    private final long windowSize;
+    private long windowPosition;
+    private MappedByteBuffer window;
+
+    /**
+     * @param path the file to read.
+     * @throws IOException if the file cannot be opened.
+     */
+    public MappedFileInputStream(@Nonnull Path path) throws IOException
+    {
+        this(path, MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * Reads only a region of the file.
+     * @param path the file to read.
+     * @param from offset of the first byte to read.
+     * @param to offset following the last byte to read.
+     * @throws IOException if the file cannot be opened.
+     */
+    public MappedFileInputStream(@Nonnull Path path, long from, long to) throws IOException
+    {
+        this(path, from, to, MAX_WINDOW_SIZE);
+    }
+
+    @VisibleForTesting
+    MappedFileInputStream(@Nonnull Path path, long windowSize) throws IOException
+    {
+        this(path, 0, Long.MAX_VALUE, windowSize);
+    }
+
+    private MappedFileInputStream(@Nonnull Path path, long from, long to, long windowSize) throws IOException
+    {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkArgument(from >= 0 && to >= from);
+        Preconditions.checkArgument(windowSize > 0 && windowSize <= Integer.MAX_VALUE);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileIdentity = FileInput.fileIdentityOf(path).orElse(null);
+        this.end = Math.min(to, channel.size());
+        this.begin = Math.min(from, end);
+        this.windowPosition = begin;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!ensureRemaining())
+        {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException
+    {
+        Preconditions.checkPositionIndexes(off, off + len, b.length);
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (!ensureRemaining())
+        {
+            return -1;
+        }
+        int read = Math.min(len, window.remaining());
+        window.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        if (n <= 0)
+        {
+            return 0;
+        }
+        long current = position();
+        long target = Math.min(end, current + n);
+        seek(target);
+        return target - current;
+    }
+
+    @Override
+    public int available()
+    {
+        return (int) Math.min(Integer.MAX_VALUE, end - position());
+    }
+
+    /**
+     * @return offset in the file of the next byte to be read.
+     */
+    public long position()
+    {
+        return window == null ? windowPosition : windowPosition + window.position();
+    }
+
+    @Nonnull
+    @Override
+    public Optional<String> fileIdentity()
+    {
+        return Optional.ofNullable(fileIdentity);
+    }
+
+    @Override
+    public long fileOffset(long streamOffset)
+    {
+        return begin + streamOffset;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        channel.close();
+    }
+
+    private void seek(long position) throws IOException
+    {
+        if (window != null && position >= windowPosition && position <= windowPosition + window.limit())
+        {
+            window.position((int) (position - windowPosition));
+        } else
+        {
+            windowPosition = position;
+            window = null;
+        }
+    }
+
+    /**
+     * Maps the next window if the current one has been consumed.
+     * @return false if the end of file has been reached.
+     */
+    private boolean ensureRemaining() throws IOException
+    {
+        if (window != null && window.hasRemaining())
+        {
+            return true;
+        }
+        if (window != null)
+        {
+            windowPosition += window.limit();
+        }
+        if (windowPosition >= end)
+        {
+            window = null;
+            return false;
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowPosition, Math.min(windowSize, end - windowPosition));
+        return true;
+    }
+}
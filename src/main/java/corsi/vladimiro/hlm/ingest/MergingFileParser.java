@@ -0,0 +1,428 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.base.Preconditions;
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import corsi.vladimiro.hlm.parsing.LineFilter;
+import corsi.vladimiro.hlm.parsing.LogFormat;
+import corsi.vladimiro.hlm.parsing.MalformedLineListener;
+import corsi.vladimiro.hlm.parsing.MalformedLineReason;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses more log files, e.g. one per load balancer node, and merges their lines by timestamp in a single stream,
+ * as if they had been written to the same log. Each file is parsed by its own {@link CSVLogParser} on a dedicated
+ * thread, which reads ahead a bounded number of batches: memory is bounded by the number of files times the read
+ * ahead, whatever the size of the files. The calling thread merges the heads of the files with a heap and delivers
+ * the merged data points to the listeners in batches, through {@link DataPointListener#onBatch(DataPointBatch)}.
+ * Lines are merged as they come: the merged stream is as ordered as each of the files is.
+ */
+public class MergingFileParser {
+
+    /**
+     * Builder class for {@link MergingFileParser}.
+     */
+    public static class Builder
+    {
+        private final List<Path> paths;
+        private DataPointListener[] listeners = new DataPointListener[0];
+        private int batchSize = 1024;
+        private MalformedLineListener malformedLineListener = (reason, line, from, to) -> {};
+        private LogFormat format;
+        private LineFilter[] dropFilters = new LineFilter[0];
+
+        private Builder(List<Path> paths) {
+            this.paths = paths;
+        }
+
+        /**
+         * @param listeners list of {@link DataPointListener} objects which
+         *                  will be notified with the merged data points.
+         * @return this builder.
+         */
+        public Builder withListeners(@Nonnull DataPointListener... listeners)
+        {
+            for (var listener : listeners)
+            {
+                Preconditions.checkNotNull(listener);
+            }
+            this.listeners = listeners;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of rows of the batches read ahead for each file and delivered to the listeners,
+         *                  positive. Each file reads ahead {@value MergingFileParser#READ_AHEAD_BATCHES} batches.
+         * @return this builder.
+         */
+        public Builder withBatchSize(int batchSize)
+        {
+            Preconditions.checkArgument(batchSize > 0);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param malformedLineListener receives the lines which are rejected, from the parsing threads.
+         * @return this builder.
+         */
+        public Builder withMalformedLineListener(@Nonnull MalformedLineListener malformedLineListener)
+        {
+            this.malformedLineListener = Preconditions.checkNotNull(malformedLineListener);
+            return this;
+        }
+
+        /**
+         * @param format the layout of the log lines, see {@link CSVLogParser.Builder#withFormat(LogFormat)}.
+         *               By default lines are in the CSV export layout.
+         * @return this builder.
+         */
+        public Builder withFormat(@Nonnull LogFormat format)
+        {
+            this.format = Preconditions.checkNotNull(format);
+            return this;
+        }
+
+        /**
+         * @param dropFilters filters dropping lines, see {@link CSVLogParser.Builder#withDropFilters(LineFilter...)}.
+         * @return this builder.
+         */
+        public Builder withDropFilters(@Nonnull LineFilter... dropFilters)
+        {
+            for (var filter : dropFilters)
+            {
+                Preconditions.checkNotNull(filter);
+            }
+            this.dropFilters = dropFilters;
+            return this;
+        }
+
+        /**
+         * @return A new {@link MergingFileParser}.
+         */
+        public MergingFileParser build()
+        {
+            return new MergingFileParser(this);
+        }
+    }
+
+    static final int READ_AHEAD_BATCHES = 4;
+
+    /**
+     * Marks the end of a file in the queue of its parsed batches.
+     */
+    private static final DataPointBatch END = new DataPointBatch(1);
+
+    private final List<Path> paths;
+    private final DataPointListener[] listeners;
+    private final Set<DataPointField> requiredFields;
+    private final int batchSize;
+    private final MalformedLineListener malformedLineListener;
+    private final LogFormat format;
+    private final LineFilter[] dropFilters;
+    private final List<CSVLogParser> parsers = new ArrayList<>();
+
+    /**
+     * @param paths the log files to merge, at least one.
+     * @return a new {@link Builder}.
+     */
+    public static Builder builder(@Nonnull List<Path> paths)
+    {
+        Preconditions.checkArgument(!paths.isEmpty());
+        for (var path : paths)
+        {
+            Preconditions.checkNotNull(path);
+        }
+        return new Builder(List.copyOf(paths));
+    }
+
+    private MergingFileParser(Builder builder)
+    {
+        this.paths = builder.paths;
+        this.listeners = builder.listeners;
+        this.requiredFields = DataPointField.requiredBy(List.of(builder.listeners));
+        //needed to merge
+        this.requiredFields.add(DataPointField.TIMESTAMP);
+        this.batchSize = builder.batchSize;
+        this.malformedLineListener = builder.malformedLineListener;
+        this.format = builder.format;
+        this.dropFilters = builder.dropFilters;
+    }
+
+    /**
+     * Parses and merges the whole files, returns when all data points have been delivered to listeners.
+     * @throws IOException in case of I/O error.
+     */
+    public void parse() throws IOException
+    {
+        var executor = Executors.newFixedThreadPool(paths.size(), runnable -> {
+            var thread = new Thread(runnable, "merge-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            var heap = new PriorityQueue<>(Comparator.comparingLong(Source::timestamp)
+                    .thenComparingInt(source -> source.index));
+            for (int i = 0; i < paths.size(); i++)
+            {
+                var source = new Source(i);
+                executor.execute(source);
+                if (source.advance())
+                {
+                    heap.add(source);
+                }
+            }
+            var merged = new DataPointBatch(batchSize);
+            while (!heap.isEmpty())
+            {
+                var source = heap.poll();
+                merged.add(source.batch, source.row);
+                if (merged.isFull())
+                {
+                    deliver(merged);
+                }
+                if (source.advance())
+                {
+                    heap.add(source);
+                }
+            }
+            deliver(merged);
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param reason a reason for which lines are rejected.
+     * @return the number of lines of all the files rejected for the reason. Only complete after parsing.
+     */
+    public long getMalformedLineCount(@Nonnull MalformedLineReason reason)
+    {
+        synchronized (parsers)
+        {
+            return parsers.stream().mapToLong(parser -> parser.getMalformedLineCount(reason)).sum();
+        }
+    }
+
+    /**
+     * @param filter one of the filters the parser has been built with.
+     * @return the number of lines of all the files dropped by the filter. Only complete after parsing.
+     */
+    public long getDroppedLineCount(@Nonnull LineFilter filter)
+    {
+        synchronized (parsers)
+        {
+            return parsers.stream().mapToLong(parser -> parser.getDroppedLineCount(filter)).sum();
+        }
+    }
+
+    private void deliver(DataPointBatch merged)
+    {
+        if (merged.size() == 0)
+        {
+            return;
+        }
+        for (var listener : listeners)
+        {
+            listener.onBatch(merged);
+        }
+        merged.clear();
+    }
+
+    /**
+     * A file parsed on its own thread into a bounded queue of batches, and the position of the merge in it.
+     */
+    private class Source implements Runnable, DataPointListener
+    {
+        private final int index;
+        private final BlockingQueue<DataPointBatch> free = new ArrayBlockingQueue<>(READ_AHEAD_BATCHES);
+        //room for all the batches and the end marker, so that the end is never blocked
+        private final BlockingQueue<DataPointBatch> parsed = new ArrayBlockingQueue<>(READ_AHEAD_BATCHES + 1);
+        private volatile Exception failure;
+        //parsing thread only
+        private DataPointBatch filling;
+        //merging thread only
+        private DataPointBatch batch;
+        private int row;
+
+        private Source(int index)
+        {
+            this.index = index;
+            for (int i = 0; i < READ_AHEAD_BATCHES; i++)
+            {
+                free.add(new DataPointBatch(batchSize));
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            var path = paths.get(index);
+            try (var is = GzipFileInputStream.isGzip(path)
+                    ? new GzipFileInputStream(path)
+                    : new MappedFileInputStream(path))
+            {
+                var builder = CSVLogParser.builder(is)
+                        .withListeners(this)
+                        .withMalformedLineListener(malformedLineListener)
+                        .withDropFilters(dropFilters)
+                        .withBatchSize(batchSize);
+                if (format != null)
+                {
+                    builder.withFormat(format);
+                }
+                var parser = builder.build();
+                synchronized (parsers)
+                {
+                    parsers.add(parser);
+                }
+                parser.parse();
+                if (filling != null)
+                {
+                    parsed.put(filling);
+                }
+            } catch (IOException | CsvValidationException | RuntimeException e)
+            {
+                failure = e;
+            } catch (InterruptedException e)
+            {
+                //the merge has been aborted
+                return;
+            }
+            parsed.add(END);
+        }
+
+        /**
+         * Not used by the parser, which delivers batches, the data point is copied like a row of a batch.
+         */
+        @Override
+        public void onDataPoint(@Nonnull DataPoint dataPoint)
+        {
+            try
+            {
+                filling().add(dataPoint);
+                putIfFull();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Merge aborted", e);
+            }
+        }
+
+        @Override
+        public void onBatch(@Nonnull DataPointBatch parserBatch)
+        {
+            try
+            {
+                for (int i = 0; i < parserBatch.size(); i++)
+                {
+                    filling().add(parserBatch, i);
+                    putIfFull();
+                }
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Merge aborted", e);
+            }
+        }
+
+        private DataPointBatch filling() throws InterruptedException
+        {
+            if (filling == null)
+            {
+                filling = free.take();
+            }
+            return filling;
+        }
+
+        private void putIfFull() throws InterruptedException
+        {
+            if (filling.isFull())
+            {
+                parsed.put(filling);
+                filling = null;
+            }
+        }
+
+        @Nonnull
+        @Override
+        public Set<DataPointField> getRequiredFields()
+        {
+            return requiredFields;
+        }
+
+        private long timestamp()
+        {
+            return batch.getTimestamps()[row];
+        }
+
+        /**
+         * Moves to the next row of the file, waiting for it to be parsed.
+         * @return false at the end of the file.
+         */
+        private boolean advance() throws IOException
+        {
+            if (batch != null && ++row < batch.size())
+            {
+                return true;
+            }
+            if (batch != null)
+            {
+                batch.clear();
+                free.add(batch);
+            }
+            try
+            {
+                batch = parsed.take();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            row = 0;
+            if (batch == END)
+            {
+                batch = null;
+                rethrowFailure();
+                return false;
+            }
+            return true;
+        }
+
+        private void rethrowFailure() throws IOException
+        {
+            if (failure instanceof IOException)
+            {
+                throw (IOException) failure;
+            }
+            if (failure instanceof UncheckedIOException)
+            {
+                throw ((UncheckedIOException) failure).getCause();
+            }
+            if (failure != null)
+            {
+                throw new IllegalStateException("Cannot parse " + paths.get(index), failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import corsi.vladimiro.hlm.parsing.LineFilter;
+import corsi.vladimiro.hlm.parsing.LogFormat;
+import corsi.vladimiro.hlm.parsing.MalformedLineListener;
+import corsi.vladimiro.hlm.parsing.MalformedLineReason;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Parses a log file in parallel. The file is split in chunks at line boundaries, chunks are parsed
+ * by a {@link CSVLogParser} each on a {@link ForkJoinPool} into {@link DataPointBatch}es, which are delivered
+ * to the listeners through {@link DataPointListener#onBatch(DataPointBatch)} from the calling thread, in the same
+ * order as the lines appear in the file.
+ * Listeners therefore observe exactly the same sequence of points as with sequential parsing.
+ * Only a bounded number of chunks is parsed ahead of the delivery and their batches are recycled once delivered, so
+ * memory is bounded by the batches of the chunks in flight.
+ * A quoted field spanning more lines must not cross a chunk boundary: such lines are reported as invalid.
+ */
+public class ParallelFileParser {
+
+    /**
+     * Builder class for {@link ParallelFileParser}.
+     */
+    public static class Builder
+    {
+        private final Path path;
+        private DataPointListener[] listeners = new DataPointListener[0];
+        private int chunkSize = 8 * 1024 * 1024;
+        private int batchSize = 1024;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private MalformedLineListener malformedLineListener = (reason, line, from, to) -> {};
+        private LogFormat format;
+        private LineFilter[] dropFilters = new LineFilter[0];
+
+        private Builder(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * @param listeners list of {@link DataPointListener} objects which
+         *                  will be notified upon parsing of each {@link DataPoint}.
+         * @return this builder.
+         */
+        public Builder withListeners(@Nonnull DataPointListener... listeners)
+        {
+            for (var listener : listeners)
+            {
+                Preconditions.checkNotNull(listener);
+            }
+            this.listeners = listeners;
+            return this;
+        }
+
+        /**
+         * @param chunkSize approximate size in bytes of the chunks parsed by a single task, positive.
+         * @return this builder.
+         */
+        public Builder withChunkSize(int chunkSize)
+        {
+            Preconditions.checkArgument(chunkSize > 0);
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param batchSize number of rows of the batches chunks are parsed into and delivered to the listeners,
+         *                  positive.
+         * @return this builder.
+         */
+        public Builder withBatchSize(int batchSize)
+        {
+            Preconditions.checkArgument(batchSize > 0);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param parallelism number of threads parsing chunks, positive. Defaults to the number of processors.
+         * @return this builder.
+         */
+        public Builder withParallelism(int parallelism)
+        {
+            Preconditions.checkArgument(parallelism > 0);
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param malformedLineListener receives the lines which are rejected, from the parsing threads.
+         * @return this builder.
+         */
+        public Builder withMalformedLineListener(@Nonnull MalformedLineListener malformedLineListener)
+        {
+            this.malformedLineListener = Preconditions.checkNotNull(malformedLineListener);
+            return this;
+        }
+
+        /**
+         * @param format the layout of the log lines, see {@link CSVLogParser.Builder#withFormat(LogFormat)}.
+         *               By default lines are in the CSV export layout.
+         * @return this builder.
+         */
+        public Builder withFormat(@Nonnull LogFormat format)
+        {
+            this.format = Preconditions.checkNotNull(format);
+            return this;
+        }
+
+        /**
+         * @param dropFilters filters dropping lines, see {@link CSVLogParser.Builder#withDropFilters(LineFilter...)}.
+         * @return this builder.
+         */
+        public Builder withDropFilters(@Nonnull LineFilter... dropFilters)
+        {
+            for (var filter : dropFilters)
+            {
+                Preconditions.checkNotNull(filter);
+            }
+            this.dropFilters = dropFilters;
+            return this;
+        }
+
+        /**
+         * @return A new {@link ParallelFileParser}.
+         */
+        public ParallelFileParser build()
+        {
+            return new ParallelFileParser(this);
+        }
+    }
+
+    private final Path path;
+    private final DataPointListener[] listeners;
+    private final Set<DataPointField> requiredFields;
+    private final int chunkSize;
+    private final int batchSize;
+    private final int parallelism;
+    private final MalformedLineListener malformedLineListener;
+    private final LogFormat format;
+    private final LineFilter[] dropFilters;
+    private final AtomicLongArray malformedLineCounts = new AtomicLongArray(MalformedLineReason.values().length);
+    private final AtomicLongArray droppedLineCounts;
+    //batches already delivered, to be filled again by the parsing threads
+    private final Queue<DataPointBatch> freeBatches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param path the log file to parse.
+     * @return a new {@link Builder}.
+     */
+    public static Builder builder(@Nonnull Path path)
+    {
+        Preconditions.checkNotNull(path);
+        return new Builder(path);
+    }
+
+    private ParallelFileParser(Builder builder)
+    {
+        this.path = builder.path;
+        this.listeners = builder.listeners;
+        this.requiredFields = DataPointField.requiredBy(List.of(builder.listeners));
+        this.chunkSize = builder.chunkSize;
+        this.batchSize = builder.batchSize;
+        this.parallelism = builder.parallelism;
+        this.malformedLineListener = builder.malformedLineListener;
+        this.format = builder.format;
+        this.dropFilters = builder.dropFilters;
+        this.droppedLineCounts = new AtomicLongArray(dropFilters.length);
+    }
+
+    /**
+     * Parses the whole file, returns when all data points have been delivered to listeners.
+     * @throws IOException in case of I/O error.
+     */
+    public void parse() throws IOException
+    {
+        var chunks = splitInChunks(path, chunkSize);
+        var pool = new ForkJoinPool(parallelism);
+        try
+        {
+            var inFlight = new ArrayDeque<ForkJoinTask<List<DataPointBatch>>>();
+            int next = 0;
+            while (next < chunks.size() || !inFlight.isEmpty())
+            {
+                //keep all workers busy while the oldest chunk is being delivered
+                while (next < chunks.size() && inFlight.size() < parallelism * 2)
+                {
+                    final var chunk = chunks.get(next++);
+                    inFlight.add(pool.submit(() -> parseChunk(chunk)));
+                }
+                for (var batch : join(inFlight.poll()))
+                {
+                    for (var listener : listeners)
+                    {
+                        listener.onBatch(batch);
+                    }
+                    batch.clear();
+                    freeBatches.add(batch);
+                }
+            }
+        } finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @param reason a reason for which lines are rejected.
+     * @return the number of lines rejected for the reason in the chunks parsed so far.
+     */
+    public long getMalformedLineCount(@Nonnull MalformedLineReason reason)
+    {
+        return malformedLineCounts.get(reason.ordinal());
+    }
+
+    /**
+     * @param filter one of the filters the parser has been built with.
+     * @return the number of lines dropped by the filter in the chunks parsed so far.
+     */
+    public long getDroppedLineCount(@Nonnull LineFilter filter)
+    {
+        for (int i = 0; i < dropFilters.length; i++)
+        {
+            if (dropFilters[i] == filter)
+            {
+                return droppedLineCounts.get(i);
+            }
+        }
+        throw new IllegalArgumentException("Unknown filter " + filter);
+    }
+
+    private List<DataPointBatch> parseChunk(long[] chunk)
+    {
+        var batches = new ArrayList<DataPointBatch>();
+        try (var is = new MappedFileInputStream(path, chunk[0], chunk[1]))
+        {
+            var builder = CSVLogParser.builder(is).withListeners(new DataPointListener()
+            {
+                /**
+                 * Not used by the parser, which delivers batches, the data point is copied like a row of a batch.
+                 */
+                @Override
+                public void onDataPoint(@Nonnull DataPoint dataPoint)
+                {
+                    filling(batches).add(dataPoint);
+                }
+
+                @Override
+                public void onBatch(@Nonnull DataPointBatch parserBatch)
+                {
+                    for (int row = 0; row < parserBatch.size(); row++)
+                    {
+                        filling(batches).add(parserBatch, row);
+                    }
+                }
+
+                @Nonnull
+                @Override
+                public Set<DataPointField> getRequiredFields()
+                {
+                    return requiredFields;
+                }
+            }).withMalformedLineListener(malformedLineListener)
+                    .withDropFilters(dropFilters)
+                    .withDataPointReuse()
+                    .withBatchSize(batchSize);
+            if (chunk[0] > 0)
+            {
+                builder.withoutHeader();
+            }
+            if (format != null)
+            {
+                builder.withFormat(format);
+            }
+            var parser = builder.build();
+            parser.parse();
+            for (var reason : MalformedLineReason.values())
+            {
+                malformedLineCounts.addAndGet(reason.ordinal(), parser.getMalformedLineCount(reason));
+            }
+            for (int i = 0; i < dropFilters.length; i++)
+            {
+                droppedLineCounts.addAndGet(i, parser.getDroppedLineCount(dropFilters[i]));
+            }
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        } catch (CsvValidationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return batches;
+    }
+
+    /**
+     * @return the last batch of the chunk, or a recycled one appended to the chunk if the last one is full.
+     */
+    private DataPointBatch filling(List<DataPointBatch> batches)
+    {
+        if (batches.isEmpty() || batches.get(batches.size() - 1).isFull())
+        {
+            var batch = freeBatches.poll();
+            batches.add(batch == null ? new DataPointBatch(batchSize) : batch);
+        }
+        return batches.get(batches.size() - 1);
+    }
+
+    private static List<DataPointBatch> join(ForkJoinTask<List<DataPointBatch>> task) throws IOException
+    {
+        try
+        {
+            return task.join();
+        } catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the chunks as [begin, end) offsets, each chunk ends after a line terminator or at the end of file.
+     */
+    @VisibleForTesting
+    static List<long[]> splitInChunks(@Nonnull Path path, int chunkSize) throws IOException
+    {
+        var chunks = new ArrayList<long[]>();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+            var buffer = ByteBuffer.allocate(4096);
+            long begin = 0;
+            while (begin < size)
+            {
+                long end = begin + chunkSize;
+                if (end >= size)
+                {
+                    end = size;
+                } else
+                {
+                    end = lineEnd(channel, end, size, buffer);
+                }
+                chunks.add(new long[]{begin, end});
+                begin = end;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the offset following the first '\n' at or after the position, or size if there is none.
+     */
+    private static long lineEnd(FileChannel channel, long position, long size, ByteBuffer buffer) throws IOException
+    {
+        while (position < size)
+        {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0)
+            {
+                break;
+            }
+            for (int i = 0; i < read; i++)
+            {
+                if (buffer.get(i) == '\n')
+                {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+}
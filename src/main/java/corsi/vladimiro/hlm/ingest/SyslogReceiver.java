@@ -0,0 +1,499 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Receives log lines from the network and submits them to a {@link CSVLogParser}, so that web servers can ship
+ * their lines straight to the monitor.
+ * <ul>
+ *     <li>Over TCP, connections send lines delimited by '\n'.</li>
+ *     <li>Over UDP, each datagram holds one or more lines delimited by '\n'.</li>
+ * </ul>
+ * Lines can carry a syslog header, RFC 5424 (<code>&lt;165&gt;1 2003-10-11T22:14:15.003Z host app - - - line</code>)
+ * or plain BSD syslog (<code>&lt;190&gt;Oct 11 22:14:15 host nginx: line</code>), which is stripped.
+ * A single thread runs a {@link Selector} event loop over all the channels, each TCP connection having its own
+ * buffer. Lines are parsed in place from the array of the buffers, without copies. The batch of the parser is
+ * flushed whenever no channel has more bytes ready.
+ */
+public class SyslogReceiver implements Closeable {
+
+    /**
+     * Builder class for {@link SyslogReceiver}.
+     */
+    public static class Builder
+    {
+        private final CSVLogParser parser;
+        private InetSocketAddress tcpAddress;
+        private InetSocketAddress udpAddress;
+
+        private Builder(CSVLogParser parser) {
+            this.parser = parser;
+        }
+
+        /**
+         * @param address address to accept TCP connections on, port 0 for an ephemeral port.
+         * @return this builder.
+         */
+        public Builder withTcp(@Nonnull InetSocketAddress address)
+        {
+            this.tcpAddress = Preconditions.checkNotNull(address);
+            return this;
+        }
+
+        /**
+         * @param address address to receive UDP datagrams on, port 0 for an ephemeral port.
+         * @return this builder.
+         */
+        public Builder withUdp(@Nonnull InetSocketAddress address)
+        {
+            this.udpAddress = Preconditions.checkNotNull(address);
+            return this;
+        }
+
+        /**
+         * Binds the channels.
+         * @return A new {@link SyslogReceiver}.
+         * @throws IOException if a channel cannot be bound.
+         */
+        public SyslogReceiver build() throws IOException
+        {
+            Preconditions.checkState(tcpAddress != null || udpAddress != null, "No address to listen on");
+            return new SyslogReceiver(this);
+        }
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final int MAX_DATAGRAM_SIZE = 64 * 1024;
+
+    private final CSVLogParser parser;
+    private final Selector selector;
+    private final ServerSocketChannel tcpChannel;
+    private final DatagramChannel udpChannel;
+    private final ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    private volatile boolean closed;
+    private long receivedLines;
+    private long discardedLines;
+
+    /**
+     * Bytes received on a TCP connection and not yet parsed.
+     */
+    private static class Connection
+    {
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private int scanFrom;
+        //the beginning of the current line has been discarded because it was too long
+        private boolean discarding;
+    }
+
+    /**
+     * @param parser the parser receiving the lines, built with {@link CSVLogParser#builder()}. Only used by the
+     *               thread running {@link SyslogReceiver#run()}.
+     * @return a new {@link Builder}.
+     */
+    public static Builder builder(@Nonnull CSVLogParser parser)
+    {
+        Preconditions.checkNotNull(parser);
+        return new Builder(parser);
+    }
+
+    private SyslogReceiver(Builder builder) throws IOException
+    {
+        this.parser = builder.parser;
+        this.selector = Selector.open();
+        ServerSocketChannel tcp = null;
+        DatagramChannel udp = null;
+        try
+        {
+            if (builder.tcpAddress != null)
+            {
+                tcp = ServerSocketChannel.open();
+                tcp.bind(builder.tcpAddress);
+                tcp.configureBlocking(false);
+                tcp.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            if (builder.udpAddress != null)
+            {
+                udp = DatagramChannel.open();
+                udp.bind(builder.udpAddress);
+                udp.configureBlocking(false);
+                udp.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e)
+        {
+            closeQuietly(tcp);
+            closeQuietly(udp);
+            selector.close();
+            throw e;
+        }
+        this.tcpChannel = tcp;
+        this.udpChannel = udp;
+    }
+
+    /**
+     * @return the address TCP connections are accepted on, null if TCP is not enabled.
+     * @throws IOException in case of I/O error.
+     */
+    public InetSocketAddress getTcpAddress() throws IOException
+    {
+        return tcpChannel == null ? null : (InetSocketAddress) tcpChannel.getLocalAddress();
+    }
+
+    /**
+     * @return the address UDP datagrams are received on, null if UDP is not enabled.
+     * @throws IOException in case of I/O error.
+     */
+    public InetSocketAddress getUdpAddress() throws IOException
+    {
+        return udpChannel == null ? null : (InetSocketAddress) udpChannel.getLocalAddress();
+    }
+
+    /**
+     * Runs the event loop until {@link SyslogReceiver#close()} is invoked.
+     * @throws IOException in case of I/O error of the channels listened on. Errors of a single TCP connection
+     * only close it.
+     */
+    public void run() throws IOException
+    {
+        try
+        {
+            while (!closed)
+            {
+                selector.select();
+                for (var key : selector.selectedKeys())
+                {
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    } else if (key.channel() == udpChannel)
+                    {
+                        receive();
+                    } else
+                    {
+                        read(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+                //lines must not wait in the batch for the next bytes
+                parser.flush();
+            }
+        } finally
+        {
+            for (var key : selector.keys())
+            {
+                closeQuietly(key.channel());
+            }
+            selector.close();
+        }
+    }
+
+    /**
+     * @return the number of lines received so far. Only consistent if read by the thread running the loop or
+     * after it returned.
+     */
+    public long getReceivedLines()
+    {
+        return receivedLines;
+    }
+
+    /**
+     * @return the number of lines discarded because longer than 1 MB.
+     */
+    public long getDiscardedLines()
+    {
+        return discardedLines;
+    }
+
+    /**
+     * Stops the event loop, can be invoked from any thread.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = tcpChannel.accept()) != null)
+        {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    private void receive() throws IOException
+    {
+        while (true)
+        {
+            datagram.clear();
+            if (udpChannel.receive(datagram) == null)
+            {
+                return;
+            }
+            byte[] array = datagram.array();
+            int end = datagram.position();
+            int lineBegin = 0;
+            for (int i = 0; i < end; i++)
+            {
+                if (array[i] == '\n')
+                {
+                    line(array, lineBegin, i);
+                    lineBegin = i + 1;
+                }
+            }
+            line(array, lineBegin, end);
+        }
+    }
+
+    private void read(SelectionKey key)
+    {
+        var channel = (SocketChannel) key.channel();
+        var connection = (Connection) key.attachment();
+        try
+        {
+            int read;
+            while ((read = channel.read(connection.buffer)) > 0)
+            {
+                parseLines(connection);
+            }
+            if (read < 0)
+            {
+                //the last line may not be terminated
+                var buffer = connection.buffer;
+                if (!connection.discarding)
+                {
+                    line(buffer.array(), 0, buffer.position());
+                }
+                key.cancel();
+                channel.close();
+            }
+        } catch (IOException e)
+        {
+            //e.g. connection reset by the peer
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Parses the complete lines in the buffer of the connection and keeps the incomplete one.
+     */
+    private void parseLines(Connection connection)
+    {
+        var buffer = connection.buffer;
+        byte[] array = buffer.array();
+        int end = buffer.position();
+        int lineBegin = 0;
+        for (int i = connection.scanFrom; i < end; i++)
+        {
+            if (array[i] == '\n')
+            {
+                if (connection.discarding)
+                {
+                    connection.discarding = false;
+                } else
+                {
+                    line(array, lineBegin, i);
+                }
+                lineBegin = i + 1;
+            }
+        }
+        System.arraycopy(array, lineBegin, array, 0, end - lineBegin);
+        buffer.position(end - lineBegin);
+        connection.scanFrom = buffer.position();
+        if (!buffer.hasRemaining())
+        {
+            if (buffer.capacity() < MAX_LINE_LENGTH)
+            {
+                var grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                grown.put(buffer);
+                connection.buffer = grown;
+            } else
+            {
+                if (!connection.discarding)
+                {
+                    discardedLines++;
+                    connection.discarding = true;
+                }
+                buffer.clear();
+                connection.scanFrom = 0;
+            }
+        }
+    }
+
+    private void line(byte[] buffer, int from, int to)
+    {
+        if (to > from && buffer[to - 1] == '\r')
+        {
+            to--;
+        }
+        if (to == from)
+        {
+            return;
+        }
+        receivedLines++;
+        parser.parseLine(buffer, payloadBegin(buffer, from, to), to);
+    }
+
+    /**
+     * Skips the syslog header of a line, if any.
+     * @return the offset of the first byte of the message.
+     */
+    @VisibleForTesting
+    static int payloadBegin(@Nonnull byte[] line, int from, int to)
+    {
+        if (from == to || line[from] != '<')
+        {
+            return from;
+        }
+        int i = from + 1;
+        while (i < to && i - from <= 4 && line[i] >= '0' && line[i] <= '9')
+        {
+            i++;
+        }
+        if (i == from + 1 || i == to || line[i] != '>')
+        {
+            //not a priority
+            return from;
+        }
+        i++;
+        if (i + 1 < to && line[i] == '1' && line[i + 1] == ' ')
+        {
+            return rfc5424PayloadBegin(line, i + 2, to);
+        }
+        return bsdPayloadBegin(line, i, to);
+    }
+
+    /**
+     * @param from offset following the version.
+     */
+    private static int rfc5424PayloadBegin(byte[] line, int from, int to)
+    {
+        int i = from;
+        //timestamp, hostname, app-name, procid, msgid
+        for (int field = 0; field < 5; field++)
+        {
+            while (i < to && line[i] != ' ')
+            {
+                i++;
+            }
+            if (i == to)
+            {
+                return to;
+            }
+            i++;
+        }
+        if (i < to && line[i] == '-')
+        {
+            i++;
+        } else
+        {
+            while (i < to && line[i] == '[')
+            {
+                i = structuredDataElementEnd(line, i, to);
+            }
+        }
+        if (i < to && line[i] == ' ')
+        {
+            i++;
+        }
+        //byte order mark of UTF-8 messages
+        if (i + 2 < to && line[i] == (byte) 0xEF && line[i + 1] == (byte) 0xBB && line[i + 2] == (byte) 0xBF)
+        {
+            i += 3;
+        }
+        return i;
+    }
+
+    /**
+     * @return the offset following the ']' closing the element beginning at the offset, values being quoted
+     * with '\' escapes.
+     */
+    private static int structuredDataElementEnd(byte[] line, int from, int to)
+    {
+        boolean quoted = false;
+        for (int i = from + 1; i < to; i++)
+        {
+            if (quoted && line[i] == '\\')
+            {
+                i++;
+            } else if (line[i] == '"')
+            {
+                quoted = !quoted;
+            } else if (!quoted && line[i] == ']')
+            {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @param from offset following the priority.
+     */
+    private static int bsdPayloadBegin(byte[] line, int from, int to)
+    {
+        //Mmm dd hh:mm:ss followed by a space
+        if (to - from < 16 || line[from + 3] != ' ' || line[from + 6] != ' ' || line[from + 9] != ':'
+                || line[from + 12] != ':' || line[from + 15] != ' ')
+        {
+            return from;
+        }
+        int i = from + 16;
+        //hostname
+        while (i < to && line[i] != ' ')
+        {
+            i++;
+        }
+        int tagBegin = i + 1;
+        //the tag ends with a colon, e.g. "nginx:" or "nginx[123]:"
+        for (int j = tagBegin; j < to && j - tagBegin <= 48; j++)
+        {
+            if (line[j] == ':')
+            {
+                return j + 1 < to && line[j + 1] == ' ' ? j + 2 : j + 1;
+            }
+            if (line[j] == ' ')
+            {
+                break;
+            }
+        }
+        return Math.min(tagBegin, to);
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable == null)
+        {
+            return;
+        }
+        try
+        {
+            closeable.close();
+        } catch (IOException e)
+        {
+            //nothing to do
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package corsi.vladimiro.hlm.parsing;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a byte stream in lines without decoding them to characters.
+ * Lines are terminated by '\n', a trailing '\r' is stripped.
+ * The current line is exposed as a slice of an internal buffer which is only valid
+ * until the next invocation of {@link ByteLineReader#next()}.
+ */
+class ByteLineReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream is;
+    private final Runnable onIdle;
+    private byte[] buffer;
+    private long bufferOffset;
+    private int position;
+    private int limit;
+    private int lineBegin;
+    private int lineEnd;
+    private boolean eof;
+
+    ByteLineReader(@Nonnull InputStream is)
+    {
+        this(is, DEFAULT_BUFFER_SIZE, () -> {});
+    }
+
+    /**
+     * @param onIdle invoked before reading from the stream when no bytes are available without blocking.
+     */
+    ByteLineReader(@Nonnull InputStream is, @Nonnull Runnable onIdle)
+    {
+        this(is, DEFAULT_BUFFER_SIZE, onIdle);
+    }
+
+    ByteLineReader(@Nonnull InputStream is, int bufferSize)
+    {
+        this(is, bufferSize, () -> {});
+    }
+
+    private ByteLineReader(@Nonnull InputStream is, int bufferSize, @Nonnull Runnable onIdle)
+    {
+        Preconditions.checkArgument(bufferSize > 0);
+        this.is = Preconditions.checkNotNull(is);
+        this.buffer = new byte[bufferSize];
+        this.onIdle = Preconditions.checkNotNull(onIdle);
+    }
+
+    /**
+     * Advances to the next line.
+     * @return false if the end of the stream has been reached.
+     * @throws IOException in case of I/O error.
+     */
+    boolean next() throws IOException
+    {
+        int scanFrom = position;
+        while (true)
+        {
+            int i = ByteScanner.DEFAULT.indexOf(buffer, scanFrom, limit, (byte) '\n');
+            if (i >= 0)
+            {
+                setLine(position, i);
+                position = i + 1;
+                return true;
+            }
+            if (eof)
+            {
+                if (position < limit)
+                {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scanFrom = limit - position;
+            fill();
+        }
+    }
+
+    /**
+     * @return the buffer holding the current line.
+     */
+    @Nonnull
+    byte[] buffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return offset in {@link ByteLineReader#buffer()} of the first byte of the current line.
+     */
+    int lineBegin()
+    {
+        return lineBegin;
+    }
+
+    /**
+     * @return offset in {@link ByteLineReader#buffer()} following the last byte of the current line.
+     */
+    int lineEnd()
+    {
+        return lineEnd;
+    }
+
+    /**
+     * @return offset in the stream of the first byte of the current line.
+     */
+    long lineOffset()
+    {
+        return bufferOffset + lineBegin;
+    }
+
+    private void setLine(int begin, int end)
+    {
+        if (end > begin && buffer[end - 1] == '\r')
+        {
+            end--;
+        }
+        lineBegin = begin;
+        lineEnd = end;
+    }
+
+    /**
+     * Compacts the unconsumed bytes at the beginning of the buffer, growing it if it is
+     * full of a single line, and reads more bytes from the stream.
+     */
+    private void fill() throws IOException
+    {
+        int pending = limit - position;
+        bufferOffset += position;
+        if (position == 0 && limit == buffer.length)
+        {
+            var grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        } else if (position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, pending);
+        }
+        position = 0;
+        limit = pending;
+        if (is.available() == 0)
+        {
+            onIdle.run();
+        }
+        int read = is.read(buffer, limit, buffer.length - limit);
+        if (read < 0)
+        {
+            eof = true;
+        } else
+        {
+            limit += read;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds structural bytes (line terminators, separators, quotes) in a byte array.
+ * {@link ByteScanner#SWAR} reads the array a long at a time and finds matching bytes with arithmetic on the whole
+ * word ("SIMD within a register"), so that it tests 8 bytes per iteration without requiring vector instructions.
+ * {@link ByteScanner#SCALAR} tests one byte at a time and is the reference implementation: both return the same
+ * results for any input. The scanner used by the parser can be chosen with the <code>hlm.scanner</code> system
+ * property, <code>swar</code> (default) or <code>scalar</code>.
+ */
+enum ByteScanner {
+
+    SCALAR
+    {
+        @Override
+        int indexOf(@Nonnull byte[] buffer, int from, int to, byte b)
+        {
+            for (int i = from; i < to; i++)
+            {
+                if (buffer[i] == b)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int indexOfAny(@Nonnull byte[] buffer, int from, int to, byte b1, byte b2, byte b3)
+        {
+            for (int i = from; i < to; i++)
+            {
+                byte b = buffer[i];
+                if (b == b1 || b == b2 || b == b3)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    },
+
+    SWAR
+    {
+        @Override
+        int indexOf(@Nonnull byte[] buffer, int from, int to, byte b)
+        {
+            long pattern = broadcast(b);
+            int i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES)
+            {
+                long mask = zeroBytes((long) LONGS.get(buffer, i) ^ pattern);
+                if (mask != 0)
+                {
+                    return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+                }
+            }
+            return SCALAR.indexOf(buffer, i, to, b);
+        }
+
+        @Override
+        int indexOfAny(@Nonnull byte[] buffer, int from, int to, byte b1, byte b2, byte b3)
+        {
+            long pattern1 = broadcast(b1);
+            long pattern2 = broadcast(b2);
+            long pattern3 = broadcast(b3);
+            int i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES)
+            {
+                long word = (long) LONGS.get(buffer, i);
+                //the lowest bit of each mask is exact, so is the lowest bit of their union
+                long mask = zeroBytes(word ^ pattern1) | zeroBytes(word ^ pattern2) | zeroBytes(word ^ pattern3);
+                if (mask != 0)
+                {
+                    return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+                }
+            }
+            return SCALAR.indexOfAny(buffer, i, to, b1, b2, b3);
+        }
+    };
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * The scanner selected by the <code>hlm.scanner</code> system property.
+     */
+    static final ByteScanner DEFAULT =
+            "scalar".equalsIgnoreCase(System.getProperty("hlm.scanner")) ? SCALAR : SWAR;
+
+    /**
+     * @return the offset of the first occurrence of the byte in [from, to) or -1.
+     */
+    abstract int indexOf(@Nonnull byte[] buffer, int from, int to, byte b);
+
+    /**
+     * @return the offset of the first occurrence of any of the bytes in [from, to) or -1.
+     */
+    abstract int indexOfAny(@Nonnull byte[] buffer, int from, int to, byte b1, byte b2, byte b3);
+
+    private static long broadcast(byte b)
+    {
+        return (b & 0xFFL) * ONES;
+    }
+
+    /**
+     * @return a word whose bytes have the high bit set where the byte of the given word is zero. Bytes above
+     * the first zero byte may be falsely reported, the lowest set bit is always exact.
+     */
+    private static long zeroBytes(long word)
+    {
+        return (word - ONES) & ~word & HIGH_BITS;
+    }
+}
@@ -0,0 +1,191 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Splits a CSV log line held in a byte array in its fields, without allocating.
+ * Field bounds are stored in place and can be read back after {@link CSVLineTokenizer#tokenize(byte[], int, int)}.
+ * Only the plain quoting used by the log export is supported: fields are either unquoted or
+ * entirely enclosed in double quotes, with no quote or escape character inside. Anything else
+ * is reported to the caller which is expected to fall back to a full CSV parser.
+ * Separators and quotes are found by a {@link ByteScanner}.
+ */
+class CSVLineTokenizer {
+
+    static final int REMOTE_HOST = 0;
+    static final int DATE = 3;
+    static final int REQUEST = 4;
+    static final int STATUS = 5;
+    static final int BYTES = 6;
+    static final int NUM_FIELDS = 7;
+
+    /**
+     * Returned by {@link CSVLineTokenizer#tokenize(byte[], int, int)} when the line uses quoting which is not
+     * supported by this tokenizer.
+     */
+    static final int UNSUPPORTED = -1;
+
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+    private static final byte ESCAPE = '\\';
+
+    private final int[] fieldBegin = new int[NUM_FIELDS];
+    private final int[] fieldEnd = new int[NUM_FIELDS];
+    private final ByteScanner scanner;
+
+    CSVLineTokenizer()
+    {
+        this(ByteScanner.DEFAULT);
+    }
+
+    CSVLineTokenizer(@Nonnull ByteScanner scanner)
+    {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Splits the line in fields. Only the bounds of the first {@link CSVLineTokenizer#NUM_FIELDS} fields are
+     * retained, quotes excluded.
+     * @param line buffer holding the line.
+     * @param from offset of the first byte of the line.
+     * @param to offset following the last byte of the line.
+     * @return the number of fields in the line or {@link CSVLineTokenizer#UNSUPPORTED}.
+     */
+    int tokenize(@Nonnull byte[] line, int from, int to)
+    {
+        int field = 0;
+        int i = from;
+        while (true)
+        {
+            int begin;
+            int end;
+            if (i < to && line[i] == QUOTE)
+            {
+                begin = i + 1;
+                end = scanner.indexOfAny(line, begin, to, QUOTE, ESCAPE, ESCAPE);
+                //unterminated quote, escape or closing quote not followed by a separator
+                if (end < 0 || line[end] == ESCAPE || (end + 1 < to && line[end + 1] != SEPARATOR))
+                {
+                    return UNSUPPORTED;
+                }
+                i = end + 1;
+            } else
+            {
+                begin = i;
+                end = scanner.indexOfAny(line, i, to, SEPARATOR, QUOTE, ESCAPE);
+                if (end < 0)
+                {
+                    end = to;
+                } else if (line[end] != SEPARATOR)
+                {
+                    return UNSUPPORTED;
+                }
+                i = end;
+            }
+            if (field < NUM_FIELDS)
+            {
+                fieldBegin[field] = begin;
+                fieldEnd[field] = end;
+            }
+            field++;
+            if (i == to)
+            {
+                return field;
+            }
+            //skip separator
+            i++;
+        }
+    }
+
+    int begin(int field)
+    {
+        return fieldBegin[field];
+    }
+
+    int end(int field)
+    {
+        return fieldEnd[field];
+    }
+
+    /**
+     * Parses a decimal long with the same rules as {@link Long#parseLong(String)}, without throwing.
+     * @return the value or -1 if the bytes do not represent a long or the long is negative.
+     */
+    static long parseNonNegativeLong(@Nonnull byte[] buffer, int from, int to)
+    {
+        if (from >= to)
+        {
+            return -1;
+        }
+        int i = from;
+        boolean negative = false;
+        if (buffer[i] == '-' || buffer[i] == '+')
+        {
+            negative = buffer[i] == '-';
+            i++;
+            if (i == to)
+            {
+                return -1;
+            }
+        }
+        long result = 0;
+        for (; i < to; i++)
+        {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return -1;
+            }
+            //a negative number is only valid here if it is zero, so the magnitude is bounded by Long.MAX_VALUE
+            if (result > (Long.MAX_VALUE - digit) / 10)
+            {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return negative && result != 0 ? -1 : result;
+    }
+
+    /**
+     * Byte level equivalent of {@link CSVLogParser#parseSection(String)}: the section begins at the first '/'
+     * and ends before the following '/' or the first " HTTP", whichever comes first.
+     * @param sectionBegin offset of the first '/' in the request or -1 if there is none.
+     * @return the offset following the last byte of the section or -1 if the section cannot be found.
+     */
+    static int sectionEnd(@Nonnull byte[] request, int from, int to, int sectionBegin)
+    {
+        int http = indexOfHttp(request, from, to);
+        if (sectionBegin < 0 || http < 0)
+        {
+            return -1;
+        }
+        int slash = indexOf(request, sectionBegin + 1, to, (byte) '/');
+        int end = slash < 0 ? http : Math.min(slash, http);
+        return end < sectionBegin ? -1 : end;
+    }
+
+    /**
+     * @return the offset of the first occurrence of the byte in [from, to) or -1.
+     */
+    static int indexOf(@Nonnull byte[] buffer, int from, int to, byte b)
+    {
+        return ByteScanner.DEFAULT.indexOf(buffer, from, to, b);
+    }
+
+    private static int indexOfHttp(byte[] buffer, int from, int to)
+    {
+        int i = indexOf(buffer, from, to, (byte) ' ');
+        while (i >= 0 && i + 5 <= to)
+        {
+            if (buffer[i + 1] == 'H'
+                    && buffer[i + 2] == 'T'
+                    && buffer[i + 3] == 'T'
+                    && buffer[i + 4] == 'P')
+            {
+                return i;
+            }
+            i = indexOf(buffer, i + 1, to, (byte) ' ');
+        }
+        return -1;
+    }
+}
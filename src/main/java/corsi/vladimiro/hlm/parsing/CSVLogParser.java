@@ -2,19 +2,30 @@ package corsi.vladimiro.hlm.parsing;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ObjectArrays;
+import com.opencsv.CSVParser;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.exceptions.CsvValidationException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Parsing logic for HTTP log files. Lines of log file are parsed
  * in {@link DataPoint} objects.
+ * When built from an {@link InputStream} lines are tokenized at byte level by a tokenizer dedicated to the
+ * log export layout, lines with unusual quoting fall back to opencsv. When built from a {@link BufferedReader}
+ * all lines are parsed by opencsv. Other layouts can be parsed from an {@link InputStream} through a
+ * {@link LogFormat}.
  */
 public class CSVLogParser {
 
@@ -24,15 +35,25 @@ public class CSVLogParser {
     public static class Builder
     {
         private final BufferedReader br;
+        private final InputStream is;
         private DataPointListener[] listeners;
+        private LineOffsetListener offsetListener;
+        private boolean header = true;
+        private boolean dataPointReuse;
+        private int batchSize;
+        private MalformedLineListener malformedLineListener;
+        private LogFormat format;
+        private LineFilter[] dropFilters = new LineFilter[0];
 
-        private Builder(BufferedReader br) {
+        private Builder(BufferedReader br, InputStream is) {
             this.br = br;
+            this.is = is;
         }
 
         /**
          * @param listeners list of {@link DataPointListener} objects which
-         *                  will be notified upon parsing of each {@link DataPoint}.
+         *                  will be notified upon parsing of each {@link DataPoint}. Only the fields
+         *                  they require are decoded, see {@link DataPointListener#getRequiredFields()}.
          * @return this builder.
          */
         public Builder withListeners(@Nonnull DataPointListener... listeners)
@@ -46,35 +67,200 @@ public class CSVLogParser {
         }
 
         /**
-         * @return A new {@link CSVLogParser}.
+         * @param offsetListener a {@link LineOffsetListener} which will be notified, after the other listeners,
+         *                       with each {@link DataPoint} and the offset of its line. Only supported when parsing
+         *                       an {@link InputStream}.
+         * @return this builder.
          */
-        public CSVLogParser build()
+        public Builder withOffsetListener(@Nonnull LineOffsetListener offsetListener)
+        {
+            Preconditions.checkState(is != null);
+            this.offsetListener = Preconditions.checkNotNull(offsetListener);
+            return this;
+        }
+
+        /**
+         * Makes the parser reuse a single flyweight {@link DataPoint} for all the lines it parses, so that
+         * parsing does not allocate once sections and status codes have been seen. Listeners must not retain
+         * the {@link DataPoint} they receive, see {@link DataPointListener}.
+         * Lines parsed by the fallback CSV parser still get a new {@link DataPoint}.
+         * @return this builder.
+         */
+        public Builder withDataPointReuse()
+        {
+            this.dataPointReuse = true;
+            return this;
+        }
+
+        /**
+         * Makes the parser deliver parsed lines in batches, through {@link DataPointListener#onBatch(DataPointBatch)}.
+         * A batch is delivered when full, when the input has no more bytes available without blocking and
+         * at the end of parsing (see also {@link CSVLogParser#flush()}).
+         * @param batchSize maximum number of rows of a batch, positive.
+         * @return this builder.
+         */
+        public Builder withBatchSize(int batchSize)
+        {
+            Preconditions.checkArgument(batchSize > 0);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param malformedLineListener receives the lines which are rejected. In any case rejected lines are
+         *                              counted, see {@link CSVLogParser#getMalformedLineCount(MalformedLineReason)}.
+         * @return this builder.
+         */
+        public Builder withMalformedLineListener(@Nonnull MalformedLineListener malformedLineListener)
         {
-            var parser = new CSVLogParser(this.br);
-            if (this.listeners != null)
+            this.malformedLineListener = Preconditions.checkNotNull(malformedLineListener);
+            return this;
+        }
+
+        /**
+         * Makes the parser decode lines with the given format instead of the CSV export layout. Not supported
+         * when parsing a {@link BufferedReader}. The first line is not skipped: header lines, if any, are
+         * recognized by the format.
+         * @param format the layout of the log lines.
+         * @return this builder.
+         */
+        public Builder withFormat(@Nonnull LogFormat format)
+        {
+            Preconditions.checkState(br == null);
+            this.format = Preconditions.checkNotNull(format);
+            return this;
+        }
+
+        /**
+         * Makes the parser drop the lines matched by any of the filters before they are turned into
+         * {@link DataPoint}s: dropped lines reach no listener and are counted per filter, see
+         * {@link CSVLogParser#getDroppedLineCount(LineFilter)}. In the CSV layout filters are evaluated right after
+         * tokenizing, before fields are validated, with a {@link LogFormat} right after decoding.
+         * @param dropFilters filters on the section, status or remote host of lines.
+         * @return this builder.
+         */
+        public Builder withDropFilters(@Nonnull LineFilter... dropFilters)
+        {
+            for (var filter : dropFilters)
             {
-               parser.listeners.addAll(List.of(this.listeners));
+                Preconditions.checkArgument(EnumSet.of(DataPointField.SECTION, DataPointField.STATUS,
+                        DataPointField.REMOTE_HOST).contains(filter.getField()));
             }
-            return parser;
+            this.dropFilters = dropFilters;
+            return this;
+        }
+
+        /**
+         * Declares that the input does not begin with the header line, e.g. because it is
+         * a portion of a log file. By default the first line is skipped.
+         * @return this builder.
+         */
+        public Builder withoutHeader()
+        {
+            this.header = false;
+            return this;
+        }
+
+        /**
+         * @return A new {@link CSVLogParser}.
+         */
+        public CSVLogParser build()
+        {
+            return new CSVLogParser(this);
         }
     }
 
+    private static final byte[] HEADER_PREFIX = "\"remotehost\",".getBytes(StandardCharsets.US_ASCII);
+
     private final BufferedReader reader;
+    private final InputStream inputStream;
+    private final boolean header;
+    private final LineOffsetListener offsetListener;
+    private final DataPoint flyweight;
+    private final DataPointBatch batch;
+    private final MalformedLineListener malformedLineListener;
+    private final long[] malformedLineCounts = new long[MalformedLineReason.values().length];
+    private final LineFilter[] dropFilters;
+    private final long[] droppedLineCounts;
+    private final boolean sectionFiltered;
     private final ArrayList<DataPointListener> listeners;
+    private final boolean timestampRequired;
+    private final boolean sectionRequired;
+    private final boolean statusRequired;
+    private final boolean bytesRequired;
+    private final boolean remoteHostRequired;
+    private final CSVLineTokenizer tokenizer = new CSVLineTokenizer();
+    private final CSVParser fallbackParser = new CSVParser();
+    private final LogFormat.LineDecoder decoder;
+    private final DecodedLine decodedLine = new DecodedLine();
+    private String[] pendingValues;
+    private long lineOffset = -1;
 
     /**
-     * @param br A {@link BufferedReader} to read log lines.
+     * Creates a parser without input, whose lines are submitted through
+     * {@link CSVLogParser#parseLine(byte[], int, int)}, e.g. lines received from the network.
+     * @return a new {@link Builder}.
+     */
+    public static Builder builder()
+    {
+        return new Builder(null, null);
+    }
+
+    /**
+     * @param br A {@link BufferedReader} to read log lines, which will be parsed by opencsv.
      * @return a new {@link Builder}.
      */
     public static Builder builder(@Nonnull BufferedReader br)
     {
         Preconditions.checkNotNull(br);
-        return new Builder(br);
+        return new Builder(br, null);
+    }
+
+    /**
+     * @param is An {@link InputStream} to read UTF-8 encoded log lines, which will be tokenized at byte level.
+     * @return a new {@link Builder}.
+     */
+    public static Builder builder(@Nonnull InputStream is)
+    {
+        Preconditions.checkNotNull(is);
+        return new Builder(null, is);
     }
 
-    private CSVLogParser(@Nonnull BufferedReader br) {
-        this.reader = br;
+    private CSVLogParser(Builder builder) {
+        this.reader = builder.br;
+        this.inputStream = builder.is;
+        this.header = builder.header;
+        this.offsetListener = builder.offsetListener;
+        this.flyweight = builder.dataPointReuse ? new DataPoint() : null;
+        this.batch = builder.batchSize > 0 ? new DataPointBatch(builder.batchSize) : null;
+        this.malformedLineListener = builder.malformedLineListener;
         this.listeners = new ArrayList<>();
+        if (builder.listeners != null)
+        {
+            this.listeners.addAll(List.of(builder.listeners));
+        }
+        Set<DataPointField> fields = DataPointField.requiredBy(this.listeners);
+        if (offsetListener != null)
+        {
+            fields.addAll(offsetListener.getRequiredFields());
+        }
+        this.timestampRequired = fields.contains(DataPointField.TIMESTAMP);
+        this.sectionRequired = fields.contains(DataPointField.SECTION);
+        this.statusRequired = fields.contains(DataPointField.STATUS);
+        this.bytesRequired = fields.contains(DataPointField.BYTES);
+        this.remoteHostRequired = fields.contains(DataPointField.REMOTE_HOST);
+        this.dropFilters = builder.dropFilters;
+        this.droppedLineCounts = new long[dropFilters.length];
+        var decodedFields = EnumSet.noneOf(DataPointField.class);
+        decodedFields.addAll(fields);
+        boolean sectionFiltered = false;
+        for (var filter : dropFilters)
+        {
+            decodedFields.add(filter.getField());
+            sectionFiltered |= filter.getField() == DataPointField.SECTION;
+        }
+        this.sectionFiltered = sectionFiltered;
+        this.decoder = builder.format == null ? null : builder.format.newDecoder(decodedFields);
     }
 
     /**
@@ -83,61 +269,475 @@ public class CSVLogParser {
      * @throws CsvValidationException if file is not in valid CSV format.
      */
     public void parse() throws IOException, CsvValidationException {
-        try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(1).build())
+        Preconditions.checkState(inputStream != null || reader != null, "The parser has no input");
+        if (inputStream != null)
+        {
+            parseBytes();
+            return;
+        }
+        try (CSVReader csvReader = new CSVReaderBuilder(reader).withSkipLines(header ? 1 : 0).build())
         {
             String[] values;
             while ((values = csvReader.readNext()) != null) {
-                try {
-                    var dataPoint = parseDataPoint(values);
-                    for (var listener : listeners){
-                        listener.onDataPoint(dataPoint);
-                    }
-                } catch (DataPointParseException e) {
-                    e.printStackTrace();
+                var reason = parseValues(values);
+                if (reason != null)
+                {
+                    var line = String.join(",", values).getBytes(StandardCharsets.UTF_8);
+                    malformedLine(reason, line, 0, line.length);
+                }
+            }
+        }
+        flush();
+    }
+
+    private void parseBytes() throws IOException {
+        try (inputStream)
+        {
+            //a batch must not wait for lines which are not yet available, e.g. when following a file
+            var lineReader = new ByteLineReader(inputStream, this::flush);
+            if (header && decoder == null && !lineReader.next())
+            {
+                return;
+            }
+            while (lineReader.next())
+            {
+                if (!fallbackParser.isPending())
+                {
+                    lineOffset = lineReader.lineOffset();
                 }
+                parseLine(lineReader.buffer(), lineReader.lineBegin(), lineReader.lineEnd());
             }
         }
+        flush();
     }
 
-    @Nonnull
-    private static DataPoint parseDataPoint(@Nonnull String[] values) throws DataPointParseException {
-        try {
-            long timestamp = Long.parseLong(values[3]);
-            String section = parseSection(values[4]);
-            String status = values[5];
-            long bytes = Long.parseLong(values[6]);
-            String remoteHost = values[0];
-            return new DataPoint(
+    /**
+     * Delivers the pending batch, if any, to the listeners. Needed only when lines are submitted through
+     * {@link CSVLogParser#parseLine(byte[], int, int)} and the parser is built with
+     * {@link Builder#withBatchSize(int)}.
+     */
+    public void flush() {
+        if (batch == null || batch.size() == 0)
+        {
+            return;
+        }
+        for (var listener : listeners)
+        {
+            listener.onBatch(batch);
+        }
+        if (offsetListener != null)
+        {
+            for (int row = 0; row < batch.size(); row++)
+            {
+                long offset = batch.getLineOffset(row);
+                if (offset >= 0)
+                {
+                    offsetListener.onDataPoint(batch.getDataPoint(row), offset);
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Parses a single log line and notifies listeners.
+     * Header lines are ignored, so that files following each other in the same input, e.g. after a log rotation,
+     * can be parsed without further care.
+     * @param line buffer holding the UTF-8 encoded line, without line terminator.
+     * @param from offset of the first byte of the line.
+     * @param to offset following the last byte of the line.
+     */
+    public void parseLine(@Nonnull byte[] line, int from, int to) {
+        if (decoder != null)
+        {
+            parseDecoded(line, from, to);
+            return;
+        }
+        if (!fallbackParser.isPending() && isHeader(line, from, to))
+        {
+            return;
+        }
+        if (!fallbackParser.isPending())
+        {
+            int numFields = tokenizer.tokenize(line, from, to);
+            if (numFields != CSVLineTokenizer.UNSUPPORTED)
+            {
+                var reason = parseTokenized(line, numFields);
+                if (reason != null)
+                {
+                    malformedLine(reason, line, from, to);
+                }
+                return;
+            }
+        }
+        String[] values;
+        try
+        {
+            values = fallbackParser.parseLineMulti(new String(line, from, to - from, StandardCharsets.UTF_8));
+        } catch (IOException e)
+        {
+            pendingValues = null;
+            malformedLine(MalformedLineReason.BAD_CSV, line, from, to);
+            return;
+        }
+        if (pendingValues != null)
+        {
+            values = ObjectArrays.concat(pendingValues, values, String.class);
+            pendingValues = null;
+        }
+        if (fallbackParser.isPending())
+        {
+            //a quoted field spanning more lines is completed by the following lines
+            pendingValues = values;
+            return;
+        }
+        var reason = parseValues(values);
+        if (reason != null)
+        {
+            malformedLine(reason, line, from, to);
+        }
+    }
+
+    /**
+     * @param reason a reason for which lines are rejected.
+     * @return the number of lines rejected for the reason so far.
+     */
+    public long getMalformedLineCount(@Nonnull MalformedLineReason reason)
+    {
+        return malformedLineCounts[reason.ordinal()];
+    }
+
+    /**
+     * @param filter one of the filters the parser has been built with.
+     * @return the number of lines dropped by the filter so far. A line matched by more filters is only
+     * counted for the first of them.
+     */
+    public long getDroppedLineCount(@Nonnull LineFilter filter)
+    {
+        for (int i = 0; i < dropFilters.length; i++)
+        {
+            if (dropFilters[i] == filter)
+            {
+                return droppedLineCounts[i];
+            }
+        }
+        throw new IllegalArgumentException("Unknown filter " + filter);
+    }
+
+    /**
+     * Evaluates the drop filters against the bounds of the fields of a line.
+     * @return true if the line is dropped.
+     */
+    private boolean dropped(byte[] buffer, DecodedLine fields)
+    {
+        for (int i = 0; i < dropFilters.length; i++)
+        {
+            var filter = dropFilters[i];
+            boolean matches = switch (filter.getField()) {
+                case SECTION -> filter.matches(buffer, fields.getSectionBegin(), fields.getSectionEnd());
+                case STATUS -> filter.matches(buffer, fields.getStatusBegin(), fields.getStatusEnd());
+                default -> filter.matches(buffer, fields.getRemoteHostBegin(), fields.getRemoteHostEnd());
+            };
+            if (matches)
+            {
+                droppedLineCounts[i]++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void malformedLine(MalformedLineReason reason, byte[] line, int from, int to)
+    {
+        malformedLineCounts[reason.ordinal()]++;
+        if (malformedLineListener != null)
+        {
+            malformedLineListener.onMalformedLine(reason, line, from, to);
+        }
+    }
+
+    private static boolean isHeader(byte[] line, int from, int to)
+    {
+        if (to - from < HEADER_PREFIX.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < HEADER_PREFIX.length; i++)
+        {
+            if (line[from + i] != HEADER_PREFIX[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void notifyListeners(DataPoint dataPoint) {
+        if (batch != null)
+        {
+            batch.add(dataPoint, lineOffset);
+            if (batch.isFull())
+            {
+                flush();
+            }
+            return;
+        }
+        for (var listener : listeners){
+            listener.onDataPoint(dataPoint);
+        }
+        if (offsetListener != null && lineOffset >= 0)
+        {
+            offsetListener.onDataPoint(dataPoint, lineOffset);
+        }
+    }
+
+    private void parseDecoded(byte[] line, int from, int to)
+    {
+        if (decoder.isHeader(line, from, to))
+        {
+            return;
+        }
+        decodedLine.clear();
+        var reason = decoder.decode(line, from, to, decodedLine);
+        if (reason != null)
+        {
+            malformedLine(reason, line, from, to);
+            return;
+        }
+        if (dropFilters.length > 0 && dropped(line, decodedLine))
+        {
+            return;
+        }
+        int sectionId = sectionRequired
+                ? SectionTable.global().idOf(line, decodedLine.getSectionBegin(), decodedLine.getSectionEnd())
+                : DataPoint.NO_SECTION;
+        emit(line,
+                decodedLine.getTimestamp(),
+                sectionId,
+                decodedLine.getStatusBegin(),
+                statusRequired ? decodedLine.getStatusEnd() : decodedLine.getStatusBegin(),
+                decodedLine.getBytes(),
+                decodedLine.getRemoteHostBegin(),
+                remoteHostRequired ? decodedLine.getRemoteHostEnd() : decodedLine.getRemoteHostBegin());
+    }
+
+    /**
+     * Parses a line tokenized by the byte level tokenizer and notifies listeners.
+     * @return null if the line has been parsed or the reason for which it is malformed.
+     */
+    @Nullable
+    private MalformedLineReason parseTokenized(byte[] line, int numFields) {
+        if (numFields < CSVLineTokenizer.NUM_FIELDS)
+        {
+            return MalformedLineReason.WRONG_COLUMN_COUNT;
+        }
+        if (dropFilters.length > 0 && dropped(line, tokenizedFields(line)))
+        {
+            return null;
+        }
+        long timestamp = 0;
+        int sectionId = DataPoint.NO_SECTION;
+        long bytes = 0;
+        if (timestampRequired)
+        {
+            timestamp = CSVLineTokenizer.parseNonNegativeLong(line,
+                    tokenizer.begin(CSVLineTokenizer.DATE), tokenizer.end(CSVLineTokenizer.DATE));
+            if (timestamp < 0)
+            {
+                return MalformedLineReason.BAD_TIMESTAMP;
+            }
+        }
+        if (sectionRequired)
+        {
+            int requestBegin = tokenizer.begin(CSVLineTokenizer.REQUEST);
+            int requestEnd = tokenizer.end(CSVLineTokenizer.REQUEST);
+            int sectionBegin = CSVLineTokenizer.indexOf(line, requestBegin, requestEnd, (byte) '/');
+            int sectionEnd = CSVLineTokenizer.sectionEnd(line, requestBegin, requestEnd, sectionBegin);
+            if (sectionEnd < 0)
+            {
+                return MalformedLineReason.BAD_REQUEST;
+            }
+            sectionId = SectionTable.global().idOf(line, sectionBegin, sectionEnd);
+        }
+        if (bytesRequired)
+        {
+            bytes = CSVLineTokenizer.parseNonNegativeLong(line,
+                    tokenizer.begin(CSVLineTokenizer.BYTES), tokenizer.end(CSVLineTokenizer.BYTES));
+            if (bytes < 0)
+            {
+                return MalformedLineReason.BAD_BYTES;
+            }
+        }
+        int statusBegin = tokenizer.begin(CSVLineTokenizer.STATUS);
+        int statusEnd = statusRequired ? tokenizer.end(CSVLineTokenizer.STATUS) : statusBegin;
+        int remoteHostBegin = tokenizer.begin(CSVLineTokenizer.REMOTE_HOST);
+        int remoteHostEnd = remoteHostRequired ? tokenizer.end(CSVLineTokenizer.REMOTE_HOST) : remoteHostBegin;
+        emit(line, timestamp, sectionId, statusBegin, statusEnd, bytes, remoteHostBegin, remoteHostEnd);
+        return null;
+    }
+
+    /**
+     * @return the bounds of the fields of the tokenized line which can be filtered, the section is empty if the
+     * request has none.
+     */
+    private DecodedLine tokenizedFields(byte[] line)
+    {
+        decodedLine.clear();
+        if (sectionFiltered)
+        {
+            int requestBegin = tokenizer.begin(CSVLineTokenizer.REQUEST);
+            int requestEnd = tokenizer.end(CSVLineTokenizer.REQUEST);
+            int sectionBegin = CSVLineTokenizer.indexOf(line, requestBegin, requestEnd, (byte) '/');
+            int sectionEnd = CSVLineTokenizer.sectionEnd(line, requestBegin, requestEnd, sectionBegin);
+            if (sectionEnd >= 0)
+            {
+                decodedLine.setSection(sectionBegin, sectionEnd);
+            }
+        }
+        decodedLine.setStatus(tokenizer.begin(CSVLineTokenizer.STATUS), tokenizer.end(CSVLineTokenizer.STATUS));
+        decodedLine.setRemoteHost(tokenizer.begin(CSVLineTokenizer.REMOTE_HOST),
+                tokenizer.end(CSVLineTokenizer.REMOTE_HOST));
+        return decodedLine;
+    }
+
+    /**
+     * Evaluates the drop filters against the fields of a line split by opencsv.
+     * @return true if the line is dropped.
+     */
+    private boolean droppedValues(String[] values)
+    {
+        var section = parseSection(values[CSVLineTokenizer.REQUEST]);
+        byte[] sectionBytes = (section == null ? "" : section).getBytes(StandardCharsets.UTF_8);
+        byte[] status = values[CSVLineTokenizer.STATUS].getBytes(StandardCharsets.UTF_8);
+        byte[] remoteHost = values[CSVLineTokenizer.REMOTE_HOST].getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[sectionBytes.length + status.length + remoteHost.length];
+        System.arraycopy(sectionBytes, 0, buffer, 0, sectionBytes.length);
+        System.arraycopy(status, 0, buffer, sectionBytes.length, status.length);
+        System.arraycopy(remoteHost, 0, buffer, sectionBytes.length + status.length, remoteHost.length);
+        decodedLine.clear();
+        decodedLine.setSection(0, sectionBytes.length);
+        decodedLine.setStatus(sectionBytes.length, sectionBytes.length + status.length);
+        decodedLine.setRemoteHost(sectionBytes.length + status.length, buffer.length);
+        return dropped(buffer, decodedLine);
+    }
+
+    /**
+     * Notifies listeners of a line decoded at byte level, text fields being given as bounds in the line buffer.
+     */
+    private void emit(byte[] line,
+                      long timestamp,
+                      int sectionId,
+                      int statusBegin,
+                      int statusEnd,
+                      long bytes,
+                      int remoteHostBegin,
+                      int remoteHostEnd) {
+        int statusCode = DataPoint.statusCode(line, statusBegin, statusEnd);
+        if (batch != null)
+        {
+            batch.add(timestamp, sectionId, statusCode, bytes, line, remoteHostBegin, remoteHostEnd, lineOffset);
+            if (batch.isFull())
+            {
+                flush();
+            }
+            return;
+        }
+        DataPoint dataPoint;
+        if (flyweight != null)
+        {
+            flyweight.reuse(timestamp, sectionId, statusCode, bytes, line, remoteHostBegin, remoteHostEnd);
+            dataPoint = flyweight;
+        } else
+        {
+            dataPoint = new DataPoint(
                     timestamp,
-                    section,
-                    status,
+                    sectionId,
+                    statusCode,
                     bytes,
-                    remoteHost
+                    decode(line, remoteHostBegin, remoteHostEnd)
             );
-        } catch (Exception e) {
-            throw new DataPointParseException(e);
         }
+        notifyListeners(dataPoint);
     }
 
-    @Nonnull
-    @VisibleForTesting
-    static String parseSection(@Nonnull String request) {
-        Preconditions.checkNotNull(request);
-        int begin = request.indexOf("/");
-        int end = request.indexOf("/", begin + 1);
-        if (end < 0)
+    private static String decode(byte[] buffer, int from, int to)
+    {
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the fields of a line split by opencsv and notifies listeners.
+     * @return null if the line has been parsed or the reason for which it is malformed.
+     */
+    @Nullable
+    private MalformedLineReason parseValues(@Nonnull String[] values) {
+        if (values.length < CSVLineTokenizer.NUM_FIELDS)
         {
-            end = request.indexOf(" HTTP");
-        } else
+            return MalformedLineReason.WRONG_COLUMN_COUNT;
+        }
+        if (dropFilters.length > 0 && droppedValues(values))
         {
-            end = Math.min(end, request.indexOf(" HTTP"));
+            return null;
+        }
+        long timestamp = 0;
+        int sectionId = DataPoint.NO_SECTION;
+        long bytes = 0;
+        if (timestampRequired)
+        {
+            timestamp = parseNonNegativeLong(values[CSVLineTokenizer.DATE]);
+            if (timestamp < 0)
+            {
+                return MalformedLineReason.BAD_TIMESTAMP;
+            }
+        }
+        if (sectionRequired)
+        {
+            var section = parseSection(values[CSVLineTokenizer.REQUEST]);
+            if (section == null)
+            {
+                return MalformedLineReason.BAD_REQUEST;
+            }
+            sectionId = SectionTable.global().idOf(section);
         }
-        return request.substring(begin, end);
+        if (bytesRequired)
+        {
+            bytes = parseNonNegativeLong(values[CSVLineTokenizer.BYTES]);
+            if (bytes < 0)
+            {
+                return MalformedLineReason.BAD_BYTES;
+            }
+        }
+        notifyListeners(new DataPoint(
+                timestamp,
+                sectionId,
+                statusRequired ? DataPoint.statusCode(values[CSVLineTokenizer.STATUS]) : -1,
+                bytes,
+                remoteHostRequired ? values[CSVLineTokenizer.REMOTE_HOST] : ""
+        ));
+        return null;
     }
 
-    private static class DataPointParseException extends Exception {
-        public DataPointParseException(Exception e) {
-            super(e);
+    private static long parseNonNegativeLong(String value)
+    {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        return CSVLineTokenizer.parseNonNegativeLong(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return the section of the request or null if there is none.
+     */
+    @Nullable
+    @VisibleForTesting
+    static String parseSection(@Nonnull String request) {
+        Preconditions.checkNotNull(request);
+        int begin = request.indexOf("/");
+        int http = request.indexOf(" HTTP");
+        if (begin < 0 || http < 0)
+        {
+            return null;
         }
+        int end = request.indexOf("/", begin + 1);
+        end = end < 0 ? http : Math.min(end, http);
+        return end < begin ? null : request.substring(begin, end);
     }
 }
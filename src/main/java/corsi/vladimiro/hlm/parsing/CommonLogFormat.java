@@ -0,0 +1,269 @@
+package corsi.vladimiro.hlm.parsing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The NCSA Common Log Format, e.g.
+ * <pre>127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] "GET /apache_pb.gif HTTP/1.0" 200 2326</pre>
+ * The Combined Log Format, which appends the referer and the user agent, is accepted as well: trailing fields
+ * are ignored. A "-" byte count, used for responses without body, is decoded as zero.
+ */
+public class CommonLogFormat implements LogFormat {
+
+    @Nonnull
+    @Override
+    public LineDecoder newDecoder(@Nonnull Set<DataPointField> requiredFields)
+    {
+        return new Decoder(requiredFields);
+    }
+
+    /**
+     * Decodes lines at byte level. Consecutive lines of a log mostly share the same date, or at least the same
+     * minute: the last decoded date is cached, so that a full date parsing is only done once per minute.
+     */
+    @VisibleForTesting
+    static class Decoder implements LineDecoder
+    {
+        //dd/MMM/yyyy:HH:mm:ss Z
+        private static final int DATE_LENGTH = 26;
+        //the date up to the seconds
+        private static final int MINUTE_LENGTH = 18;
+        private static final int SECOND_OFFSET = 18;
+        private static final int ZONE_OFFSET = 20;
+        private static final byte[][] MONTHS = new byte[12][];
+
+        static
+        {
+            for (var month : Month.values())
+            {
+                var name = month.name();
+                MONTHS[month.ordinal()] = (name.charAt(0) + name.substring(1, 3).toLowerCase())
+                        .getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        private final boolean timestampRequired;
+        private final boolean sectionRequired;
+        private final boolean statusRequired;
+        private final boolean bytesRequired;
+        private final boolean remoteHostRequired;
+        private final byte[] lastDate = new byte[DATE_LENGTH];
+        private long lastTimestamp = -1;
+        private long lastMinuteTimestamp;
+        private int fullDateParsings;
+
+        private Decoder(Set<DataPointField> requiredFields)
+        {
+            Preconditions.checkNotNull(requiredFields);
+            this.timestampRequired = requiredFields.contains(DataPointField.TIMESTAMP);
+            this.sectionRequired = requiredFields.contains(DataPointField.SECTION);
+            this.statusRequired = requiredFields.contains(DataPointField.STATUS);
+            this.bytesRequired = requiredFields.contains(DataPointField.BYTES);
+            this.remoteHostRequired = requiredFields.contains(DataPointField.REMOTE_HOST);
+        }
+
+        @Override
+        public MalformedLineReason decode(@Nonnull byte[] buffer, int from, int to, @Nonnull DecodedLine line)
+        {
+            int remoteHostEnd = CSVLineTokenizer.indexOf(buffer, from, to, (byte) ' ');
+            int dateBegin = remoteHostEnd < 0 ? -1 : CSVLineTokenizer.indexOf(buffer, remoteHostEnd, to, (byte) '[');
+            int dateEnd = dateBegin < 0 ? -1 : CSVLineTokenizer.indexOf(buffer, dateBegin, to, (byte) ']');
+            if (dateEnd < 0 || dateEnd + 2 >= to || buffer[dateEnd + 1] != ' ' || buffer[dateEnd + 2] != '"')
+            {
+                return MalformedLineReason.WRONG_COLUMN_COUNT;
+            }
+            int requestBegin = dateEnd + 3;
+            int requestEnd = closingQuote(buffer, requestBegin, to);
+            if (requestEnd < 0 || requestEnd + 1 >= to || buffer[requestEnd + 1] != ' ')
+            {
+                return MalformedLineReason.WRONG_COLUMN_COUNT;
+            }
+            int statusBegin = requestEnd + 2;
+            int statusEnd = CSVLineTokenizer.indexOf(buffer, statusBegin, to, (byte) ' ');
+            if (statusEnd < 0)
+            {
+                return MalformedLineReason.WRONG_COLUMN_COUNT;
+            }
+            int bytesBegin = statusEnd + 1;
+            int bytesEnd = CSVLineTokenizer.indexOf(buffer, bytesBegin, to, (byte) ' ');
+            bytesEnd = bytesEnd < 0 ? to : bytesEnd;
+            if (timestampRequired)
+            {
+                long timestamp = timestamp(buffer, dateBegin + 1, dateEnd);
+                if (timestamp < 0)
+                {
+                    return MalformedLineReason.BAD_TIMESTAMP;
+                }
+                line.setTimestamp(timestamp);
+            }
+            if (sectionRequired)
+            {
+                int sectionBegin = CSVLineTokenizer.indexOf(buffer, requestBegin, requestEnd, (byte) '/');
+                int sectionEnd = CSVLineTokenizer.sectionEnd(buffer, requestBegin, requestEnd, sectionBegin);
+                if (sectionEnd < 0)
+                {
+                    return MalformedLineReason.BAD_REQUEST;
+                }
+                line.setSection(sectionBegin, sectionEnd);
+            }
+            if (bytesRequired && !(bytesEnd - bytesBegin == 1 && buffer[bytesBegin] == '-'))
+            {
+                long bytes = CSVLineTokenizer.parseNonNegativeLong(buffer, bytesBegin, bytesEnd);
+                if (bytes < 0)
+                {
+                    return MalformedLineReason.BAD_BYTES;
+                }
+                line.setBytes(bytes);
+            }
+            if (statusRequired)
+            {
+                line.setStatus(statusBegin, statusEnd);
+            }
+            if (remoteHostRequired)
+            {
+                line.setRemoteHost(from, remoteHostEnd);
+            }
+            return null;
+        }
+
+        /**
+         * @return number of dates which could not be resolved through the cache.
+         */
+        @VisibleForTesting
+        int getFullDateParsings()
+        {
+            return fullDateParsings;
+        }
+
+        /**
+         * @return the offset of the quote closing a quoted field, quotes escaped by a backslash excluded,
+         * or -1 if there is none.
+         */
+        private static int closingQuote(byte[] buffer, int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                if (buffer[i] == '\\')
+                {
+                    i++;
+                } else if (buffer[i] == '"')
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the unix timestamp of the date or -1 if the date is invalid or precedes the epoch.
+         */
+        private long timestamp(byte[] buffer, int from, int to)
+        {
+            if (to - from != DATE_LENGTH)
+            {
+                return -1;
+            }
+            if (lastTimestamp >= 0)
+            {
+                if (Arrays.equals(buffer, from, to, lastDate, 0, DATE_LENGTH))
+                {
+                    return lastTimestamp;
+                }
+                if (Arrays.equals(buffer, from, from + MINUTE_LENGTH, lastDate, 0, MINUTE_LENGTH)
+                        && Arrays.equals(buffer, from + ZONE_OFFSET, to, lastDate, ZONE_OFFSET, DATE_LENGTH))
+                {
+                    int second = twoDigits(buffer, from + SECOND_OFFSET);
+                    if (second < 0 || second > 59)
+                    {
+                        return -1;
+                    }
+                    return cache(buffer, from, lastMinuteTimestamp, second);
+                }
+            }
+            fullDateParsings++;
+            return parseDate(buffer, from);
+        }
+
+        private long parseDate(byte[] buffer, int from)
+        {
+            int day = twoDigits(buffer, from);
+            int month = month(buffer, from + 3);
+            int year = twoDigits(buffer, from + 7) * 100 + twoDigits(buffer, from + 9);
+            int hour = twoDigits(buffer, from + 12);
+            int minute = twoDigits(buffer, from + 15);
+            int second = twoDigits(buffer, from + SECOND_OFFSET);
+            int zoneHours = twoDigits(buffer, from + ZONE_OFFSET + 2);
+            int zoneMinutes = twoDigits(buffer, from + ZONE_OFFSET + 4);
+            byte sign = buffer[from + ZONE_OFFSET + 1];
+            if (buffer[from + 2] != '/' || buffer[from + 6] != '/' || buffer[from + 11] != ':'
+                    || buffer[from + 14] != ':' || buffer[from + 17] != ':' || buffer[from + ZONE_OFFSET] != ' '
+                    || (sign != '+' && sign != '-'))
+            {
+                return -1;
+            }
+            if (month < 0 || twoDigits(buffer, from + 7) < 0 || twoDigits(buffer, from + 9) < 0
+                    || day < 1 || day > Month.of(month + 1).length(Year.isLeap(year))
+                    || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+                    || zoneHours < 0 || zoneHours > 18 || zoneMinutes < 0 || zoneMinutes > 59)
+            {
+                return -1;
+            }
+            long offset = (zoneHours * 60L + zoneMinutes) * 60;
+            long minuteTimestamp = LocalDate.of(year, month + 1, day).toEpochDay() * 86400
+                    + hour * 3600L + minute * 60L
+                    - (sign == '-' ? -offset : offset);
+            return cache(buffer, from, minuteTimestamp, second);
+        }
+
+        private long cache(byte[] buffer, int from, long minuteTimestamp, int second)
+        {
+            long timestamp = minuteTimestamp + second;
+            if (timestamp < 0)
+            {
+                return -1;
+            }
+            System.arraycopy(buffer, from, lastDate, 0, DATE_LENGTH);
+            lastMinuteTimestamp = minuteTimestamp;
+            lastTimestamp = timestamp;
+            return timestamp;
+        }
+
+        /**
+         * @return the month, from 0 for January, or -1 if the bytes are not an English three letters month.
+         */
+        private static int month(byte[] buffer, int from)
+        {
+            for (int i = 0; i < MONTHS.length; i++)
+            {
+                if (Arrays.equals(buffer, from, from + 3, MONTHS[i], 0, 3))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the value of two decimal digits or -1 if they are not digits.
+         */
+        private static int twoDigits(byte[] buffer, int from)
+        {
+            int tens = buffer[from] - '0';
+            int units = buffer[from + 1] - '0';
+            if (tens < 0 || tens > 9 || units < 0 || units > 9)
+            {
+                return -1;
+            }
+            return tens * 10 + units;
+        }
+    }
+}
@@ -3,46 +3,177 @@ package corsi.vladimiro.hlm.parsing;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nonnull;
-import javax.annotation.concurrent.Immutable;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Represents a log line.
+ * Instances are immutable, unless the parser is built with {@link CSVLogParser.Builder#withDataPointReuse()}:
+ * in that case the parser updates a single flyweight instance for each line, see {@link DataPointListener}
+ * for the contract listeners must respect.
+ * The status is normalized in the same way whichever the parsing path, batches and segment files: it is held as a
+ * status code, see {@link DataPoint#statusCode(byte[], int, int)}, so e.g. "0200" is read as "200" and a status which
+ * is not a number is read as empty.
  */
-@Immutable
 public class DataPoint {
 
-    private final long unixTimestamp;
-    private final String section;
-    private final String status;
-    private final long bytes;
-    private final String remoteHost;
+    /**
+     * Section id of data points whose section has not been decoded, see {@link DataPointListener#getRequiredFields()}.
+     */
+    public static final int NO_SECTION = -1;
+
+    private static final String[] STATUS_CACHE = new String[1000];
+
+    private long unixTimestamp;
+    private int sectionId;
+    private int statusCode;
+    private long bytes;
+    private String remoteHost;
+
+    //flyweight only: the remote host is decoded from the line buffer on demand
+    private byte[] line;
+    private int remoteHostBegin;
+    private int remoteHostEnd;
 
     DataPoint(long timestamp,
-                     @Nonnull  String section,
-                     @Nonnull String status,
+                     int sectionId,
+                     int statusCode,
                      long bytes,
                      @Nonnull String remoteHost) {
+        set(timestamp, sectionId, statusCode, bytes);
+        this.remoteHost = Preconditions.checkNotNull(remoteHost);
+    }
+
+    /**
+     * Creates a flyweight instance, to be updated with {@link DataPoint#reuse(long, int, int, long, byte[], int, int)}.
+     */
+    DataPoint() {
+    }
+
+    /**
+     * Updates this flyweight instance with a new line.
+     * @param line buffer holding the line, it must stay unchanged as long as this instance
+     *             holds the values of the line.
+     * @param remoteHostBegin offset of the first byte of the remote host in the line buffer.
+     * @param remoteHostEnd offset following the last byte of the remote host in the line buffer.
+     */
+    void reuse(long timestamp,
+               int sectionId,
+               int statusCode,
+               long bytes,
+               @Nonnull byte[] line,
+               int remoteHostBegin,
+               int remoteHostEnd) {
+        set(timestamp, sectionId, statusCode, bytes);
+        this.remoteHost = null;
+        this.line = line;
+        this.remoteHostBegin = remoteHostBegin;
+        this.remoteHostEnd = remoteHostEnd;
+    }
+
+    private void set(long timestamp, int sectionId, int statusCode, long bytes) {
         Preconditions.checkArgument(timestamp >= 0);
         this.unixTimestamp = timestamp;
-        this.section = Preconditions.checkNotNull(section);
-        this.status = Preconditions.checkNotNull(status);
+        Preconditions.checkArgument(sectionId >= NO_SECTION);
+        this.sectionId = sectionId;
+        Preconditions.checkArgument(statusCode >= -1);
+        this.statusCode = statusCode;
         Preconditions.checkArgument(bytes >= 0);
         this.bytes = bytes;
-        this.remoteHost = Preconditions.checkNotNull(remoteHost);
+    }
+
+    /**
+     * @param statusCode a status code, -1 if unknown.
+     * @return the status code as String, cached for three digits codes. Empty if unknown.
+     */
+    @Nonnull
+    static String statusOf(int statusCode) {
+        if (statusCode < 0)
+        {
+            return "";
+        }
+        if (statusCode >= STATUS_CACHE.length)
+        {
+            return Integer.toString(statusCode);
+        }
+        var status = STATUS_CACHE[statusCode];
+        if (status == null)
+        {
+            //benign race, Strings are immutable
+            status = Integer.toString(statusCode);
+            STATUS_CACHE[statusCode] = status;
+        }
+        return status;
+    }
+
+    /**
+     * Parses the status field of a line, the only place where statuses are parsed.
+     * @param buffer buffer holding the ASCII digits of the status.
+     * @param from offset of the first byte of the status.
+     * @param to offset following the last byte of the status.
+     * @return the status code, -1 if the status is not made of 1 to 9 decimal digits. Leading zeros are ignored.
+     */
+    public static int statusCode(@Nonnull byte[] buffer, int from, int to) {
+        if (from >= to || to - from > 9)
+        {
+            return -1;
+        }
+        int code = 0;
+        for (int i = from; i < to; i++)
+        {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return -1;
+            }
+            code = code * 10 + digit;
+        }
+        return code;
+    }
+
+    /**
+     * @return the status code of a status field, see {@link DataPoint#statusCode(byte[], int, int)}.
+     */
+    static int statusCode(@Nonnull String status) {
+        //non ASCII characters are replaced by '?', which is not a digit
+        var bytes = status.getBytes(StandardCharsets.US_ASCII);
+        return statusCode(bytes, 0, bytes.length);
     }
 
     public long getUnixTimestamp() {
         return unixTimestamp;
     }
 
+    /**
+     * @return the section of the request, resolved through {@link SectionTable#global()}. Empty if the section
+     * has not been decoded.
+     */
     @Nonnull
     public String getSection() {
-        return section;
+        return sectionId == NO_SECTION ? "" : SectionTable.global().nameOf(sectionId);
+    }
+
+    /**
+     * @return the id of the section of the request in {@link SectionTable#global()},
+     * {@link DataPoint#NO_SECTION} if the section has not been decoded.
+     */
+    public int getSectionId() {
+        return sectionId;
     }
 
+    /**
+     * @return the status code in decimal without leading zeros, empty if the status is not a number or it has not
+     * been decoded.
+     */
     @Nonnull
     public String getStatus() {
-        return status;
+        return statusOf(statusCode);
+    }
+
+    /**
+     * @return the status code, -1 if the status is not a number or it has not been decoded.
+     */
+    public int getStatusCode() {
+        return statusCode;
     }
 
     public long getBytes() {
@@ -51,6 +182,10 @@ public class DataPoint {
 
     @Nonnull
     public String getRemoteHost() {
+        if (remoteHost == null)
+        {
+            remoteHost = new String(line, remoteHostBegin, remoteHostEnd - remoteHostBegin, StandardCharsets.UTF_8);
+        }
         return remoteHost;
     }
 }
@@ -0,0 +1,235 @@
+package corsi.vladimiro.hlm.parsing;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A batch of parsed log lines stored by column, so that listeners can process them in tight loops over
+ * primitive arrays. Rows are valid in [0, {@link DataPointBatch#size()}): arrays returned by the getters may be
+ * longer than the batch. The batch is reused by the parser, listeners must not retain it or its arrays after
+ * {@link DataPointListener#onBatch(DataPointBatch)} returns.
+ * Sources of data points other than the parser, e.g. the replay of stored data points, fill batches through
+ * {@link DataPointBatch#add(long, int, int, long, byte[], int, int)}.
+ */
+public class DataPointBatch {
+
+    private final long[] timestamps;
+    private final int[] sectionIds;
+    private final int[] statuses;
+    private final long[] bytes;
+    private final long[] lineOffsets;
+    private final int[] remoteHostEnds;
+    private byte[] remoteHosts = new byte[1024];
+    private int size;
+    private final DataPoint flyweight = new DataPoint();
+
+    /**
+     * @param capacity maximum number of rows in the batch, positive.
+     */
+    public DataPointBatch(int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0);
+        timestamps = new long[capacity];
+        sectionIds = new int[capacity];
+        statuses = new int[capacity];
+        bytes = new long[capacity];
+        lineOffsets = new long[capacity];
+        remoteHostEnds = new int[capacity];
+    }
+
+    /**
+     * @return the number of rows in the batch.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isFull()
+    {
+        return size == timestamps.length;
+    }
+
+    @Nonnull
+    public long[] getTimestamps()
+    {
+        return timestamps;
+    }
+
+    /**
+     * @return ids of the sections in {@link SectionTable#global()}, {@link DataPoint#NO_SECTION} for sections
+     * which have not been decoded.
+     */
+    @Nonnull
+    public int[] getSectionIds()
+    {
+        return sectionIds;
+    }
+
+    /**
+     * @return HTTP status codes as normalized by {@link DataPoint#statusCode(byte[], int, int)}, -1 for status codes
+     * which are not numbers.
+     */
+    @Nonnull
+    public int[] getStatuses()
+    {
+        return statuses;
+    }
+
+    @Nonnull
+    public long[] getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @return the UTF-8 encoded remote hosts of the rows, one after the other: the remote host of a row ends at
+     * its offset in {@link DataPointBatch#getRemoteHostEnds()} and begins where the one of the previous row ends.
+     */
+    @Nonnull
+    public byte[] getRemoteHostBytes()
+    {
+        return remoteHosts;
+    }
+
+    /**
+     * @return the offsets in {@link DataPointBatch#getRemoteHostBytes()} following the remote hosts of the rows.
+     */
+    @Nonnull
+    public int[] getRemoteHostEnds()
+    {
+        return remoteHostEnds;
+    }
+
+    /**
+     * @param row index of the row.
+     * @return the remote host of the row, decoded on each invocation.
+     */
+    @Nonnull
+    public String getRemoteHost(int row)
+    {
+        Preconditions.checkElementIndex(row, size);
+        int begin = remoteHostBegin(row);
+        return new String(remoteHosts, begin, remoteHostEnds[row] - begin, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param row index of the row.
+     * @return a flyweight {@link DataPoint} holding the values of the row. The same instance is returned
+     * for all rows, see {@link DataPointListener} for the contract of flyweight data points.
+     */
+    @Nonnull
+    public DataPoint getDataPoint(int row)
+    {
+        Preconditions.checkElementIndex(row, size);
+        flyweight.reuse(timestamps[row], sectionIds[row], statuses[row], bytes[row],
+                remoteHosts, remoteHostBegin(row), remoteHostEnds[row]);
+        return flyweight;
+    }
+
+    /**
+     * @param row index of the row.
+     * @return offset in the parsed input stream of the line of the row, -1 if unknown.
+     */
+    long getLineOffset(int row)
+    {
+        return lineOffsets[row];
+    }
+
+    /**
+     * Appends a row to the batch, which must not be full.
+     * @param sectionId id of the section in {@link SectionTable#global()} or {@link DataPoint#NO_SECTION}.
+     * @param status HTTP status code, -1 if unknown.
+     * @param remoteHost buffer holding the UTF-8 encoded remote host, which is copied.
+     * @param remoteHostFrom offset of the first byte of the remote host.
+     * @param remoteHostTo offset following the last byte of the remote host.
+     */
+    public void add(long timestamp,
+                    int sectionId,
+                    int status,
+                    long bytes,
+                    @Nonnull byte[] remoteHost,
+                    int remoteHostFrom,
+                    int remoteHostTo)
+    {
+        add(timestamp, sectionId, status, bytes, remoteHost, remoteHostFrom, remoteHostTo, -1);
+    }
+
+    /**
+     * Appends a copy of a row of another batch to this batch, which must not be full.
+     * @param batch the batch holding the row.
+     * @param row index of the row in the other batch.
+     */
+    public void add(@Nonnull DataPointBatch batch, int row)
+    {
+        Preconditions.checkElementIndex(row, batch.size);
+        add(batch.timestamps[row], batch.sectionIds[row], batch.statuses[row], batch.bytes[row],
+                batch.remoteHosts, batch.remoteHostBegin(row), batch.remoteHostEnds[row], batch.lineOffsets[row]);
+    }
+
+    void add(long timestamp,
+             int sectionId,
+             int status,
+             long bytes,
+             @Nonnull byte[] remoteHost,
+             int remoteHostFrom,
+             int remoteHostTo,
+             long lineOffset)
+    {
+        Preconditions.checkState(!isFull());
+        Preconditions.checkArgument(timestamp >= 0);
+        Preconditions.checkArgument(sectionId >= DataPoint.NO_SECTION);
+        Preconditions.checkArgument(bytes >= 0);
+        int begin = remoteHostBegin(size);
+        int length = remoteHostTo - remoteHostFrom;
+        if (begin + length > remoteHosts.length)
+        {
+            var grown = new byte[Math.max(remoteHosts.length * 2, begin + length)];
+            System.arraycopy(remoteHosts, 0, grown, 0, begin);
+            remoteHosts = grown;
+        }
+        System.arraycopy(remoteHost, remoteHostFrom, remoteHosts, begin, length);
+        this.timestamps[size] = timestamp;
+        this.sectionIds[size] = sectionId;
+        this.statuses[size] = status;
+        this.bytes[size] = bytes;
+        this.lineOffsets[size] = lineOffset;
+        this.remoteHostEnds[size] = begin + length;
+        size++;
+    }
+
+    /**
+     * Appends a copy of a data point to the batch, which must not be full.
+     * @param dataPoint the data point, which is not retained.
+     */
+    public void add(@Nonnull DataPoint dataPoint)
+    {
+        add(dataPoint, -1);
+    }
+
+    void add(@Nonnull DataPoint dataPoint, long lineOffset)
+    {
+        byte[] remoteHost = dataPoint.getRemoteHost().getBytes(StandardCharsets.UTF_8);
+        add(dataPoint.getUnixTimestamp(),
+                dataPoint.getSectionId(),
+                dataPoint.getStatusCode(),
+                dataPoint.getBytes(),
+                remoteHost, 0, remoteHost.length,
+                lineOffset);
+    }
+
+    /**
+     * Removes all the rows.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    private int remoteHostBegin(int row)
+    {
+        return row == 0 ? 0 : remoteHostEnds[row - 1];
+    }
+}
@@ -0,0 +1,34 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Fields of a {@link DataPoint} which listeners can declare they need through
+ * {@link DataPointListener#getRequiredFields()}. The parser decodes and validates only the fields required by at
+ * least one of its listeners, the other columns are just skipped over by the tokenizer.
+ */
+public enum DataPointField {
+
+    TIMESTAMP,
+    SECTION,
+    STATUS,
+    BYTES,
+    REMOTE_HOST;
+
+    /**
+     * @param listeners the listeners of a parser.
+     * @return the union of the fields required by the listeners.
+     */
+    @Nonnull
+    public static Set<DataPointField> requiredBy(@Nonnull Iterable<? extends DataPointListener> listeners)
+    {
+        var fields = EnumSet.noneOf(DataPointField.class);
+        for (var listener : listeners)
+        {
+            fields.addAll(listener.getRequiredFields());
+        }
+        return fields;
+    }
+}
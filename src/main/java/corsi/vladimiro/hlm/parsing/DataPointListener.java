@@ -1,12 +1,45 @@
 package corsi.vladimiro.hlm.parsing;
 
 import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Receives {@link DataPoint} objects from {@link CSVLogParser}.
+ * When the parser is built with {@link CSVLogParser.Builder#withDataPointReuse()} the same {@link DataPoint}
+ * instance is passed for every line, updated in place: implementations must not retain it after
+ * {@link DataPointListener#onDataPoint(DataPoint)} returns. Values read from it (timestamp, section id, Strings...)
+ * can be retained.
+ * Listeners can restrict the fields decoded by the parser through {@link DataPointListener#getRequiredFields()}.
  */
 public interface DataPointListener {
 
     void onDataPoint(@Nonnull DataPoint dataPoint);
 
+    /**
+     * Declares the fields this listener reads. Fields not required by any listener of a parser are neither decoded
+     * nor validated: their getters return empty Strings, zero or -1 for status codes in a {@link DataPointBatch}.
+     * @return the fields read by this listener, all of them by default.
+     */
+    @Nonnull
+    default Set<DataPointField> getRequiredFields()
+    {
+        return EnumSet.allOf(DataPointField.class);
+    }
+
+    /**
+     * Receives a batch of data points when the parser is built with {@link CSVLogParser.Builder#withBatchSize(int)}.
+     * The default implementation passes each row to {@link DataPointListener#onDataPoint(DataPoint)} as a
+     * flyweight {@link DataPoint}, so the same contract as for {@link CSVLogParser.Builder#withDataPointReuse()}
+     * applies. Implementations can override it to process the columns of the batch directly.
+     * @param batch the batch, which must not be retained.
+     */
+    default void onBatch(@Nonnull DataPointBatch batch)
+    {
+        for (int row = 0; row < batch.size(); row++)
+        {
+            onDataPoint(batch.getDataPoint(row));
+        }
+    }
+
 }
@@ -0,0 +1,98 @@
+package corsi.vladimiro.hlm.parsing;
+
+/**
+ * Fields of a log line decoded by a {@link LogFormat.LineDecoder}. Text fields are held as bounds in the buffer
+ * of the line, numbers are decoded. Fields not required by the listeners may be left unset: numbers default to
+ * zero and text fields to empty bounds.
+ */
+public class DecodedLine {
+
+    private long timestamp;
+    private int sectionBegin;
+    private int sectionEnd;
+    private int statusBegin;
+    private int statusEnd;
+    private long bytes;
+    private int remoteHostBegin;
+    private int remoteHostEnd;
+
+    public void setTimestamp(long timestamp)
+    {
+        this.timestamp = timestamp;
+    }
+
+    public void setSection(int begin, int end)
+    {
+        this.sectionBegin = begin;
+        this.sectionEnd = end;
+    }
+
+    public void setStatus(int begin, int end)
+    {
+        this.statusBegin = begin;
+        this.statusEnd = end;
+    }
+
+    public void setBytes(long bytes)
+    {
+        this.bytes = bytes;
+    }
+
+    public void setRemoteHost(int begin, int end)
+    {
+        this.remoteHostBegin = begin;
+        this.remoteHostEnd = end;
+    }
+
+    long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    int getSectionBegin()
+    {
+        return sectionBegin;
+    }
+
+    int getSectionEnd()
+    {
+        return sectionEnd;
+    }
+
+    int getStatusBegin()
+    {
+        return statusBegin;
+    }
+
+    int getStatusEnd()
+    {
+        return statusEnd;
+    }
+
+    long getBytes()
+    {
+        return bytes;
+    }
+
+    int getRemoteHostBegin()
+    {
+        return remoteHostBegin;
+    }
+
+    int getRemoteHostEnd()
+    {
+        return remoteHostEnd;
+    }
+
+    void clear()
+    {
+        timestamp = 0;
+        sectionBegin = 0;
+        sectionEnd = 0;
+        statusBegin = 0;
+        statusEnd = 0;
+        bytes = 0;
+        remoteHostBegin = 0;
+        remoteHostEnd = 0;
+    }
+}
@@ -0,0 +1,59 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Conversions of IPv4 addresses between their dotted decimal text and an unsigned int, e.g. for remote hosts.
+ */
+public final class Ipv4Addresses {
+
+    private Ipv4Addresses()
+    {
+    }
+
+    /**
+     * @param buffer buffer holding the ASCII text.
+     * @param from offset of the first byte of the text.
+     * @param to offset following the last byte of the text.
+     * @return the dotted decimal IPv4 address as an unsigned int or -1 if the bytes are not such an address.
+     */
+    public static long parse(@Nonnull byte[] buffer, int from, int to)
+    {
+        long address = 0;
+        int octets = 0;
+        int octet = 0;
+        int digits = 0;
+        for (int i = from; i <= to; i++)
+        {
+            if (i == to || buffer[i] == '.')
+            {
+                if (digits == 0 || octet > 255 || ++octets > 4)
+                {
+                    return -1;
+                }
+                address = address << 8 | octet;
+                octet = 0;
+                digits = 0;
+                continue;
+            }
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || ++digits > 3)
+            {
+                return -1;
+            }
+            octet = octet * 10 + digit;
+        }
+        return octets == 4 ? address : -1;
+    }
+
+    /**
+     * @param address an IPv4 address as an unsigned int.
+     * @return the address in dotted decimal notation.
+     */
+    @Nonnull
+    public static String format(long address)
+    {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+}
@@ -0,0 +1,27 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A predicate on the raw bytes of a field of a log line, evaluated by {@link CSVLogParser} before the line is
+ * turned into a {@link DataPoint}: lines matched by a filter are dropped, see
+ * {@link CSVLogParser.Builder#withDropFilters(LineFilter...)}. {@link LineFilters} provides the usual filters.
+ */
+public interface LineFilter {
+
+    /**
+     * @return the field tested by the filter: {@link DataPointField#SECTION}, {@link DataPointField#STATUS} or
+     * {@link DataPointField#REMOTE_HOST}.
+     */
+    @Nonnull
+    DataPointField getField();
+
+    /**
+     * @param buffer buffer holding the UTF-8 encoded field, only valid during the invocation.
+     * @param from offset of the first byte of the field.
+     * @param to offset following the last byte of the field. The field is empty if the line has none,
+     *           e.g. the section of a request without path.
+     * @return true if the line is to be dropped.
+     */
+    boolean matches(@Nonnull byte[] buffer, int from, int to);
+}
@@ -0,0 +1,163 @@
+package corsi.vladimiro.hlm.parsing;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Factory of {@link LineFilter}s. The filters describe themselves through {@link Object#toString()}, e.g. to
+ * report how many lines each of them dropped.
+ */
+public final class LineFilters {
+
+    private LineFilters()
+    {
+    }
+
+    /**
+     * @param prefix a prefix of sections, e.g. "/healthz".
+     * @return a filter matching the lines whose section starts with the prefix.
+     */
+    @Nonnull
+    public static LineFilter sectionPrefix(@Nonnull String prefix)
+    {
+        return new SectionPrefix(prefix);
+    }
+
+    /**
+     * @param statusClass the class of status codes, from 1 to 5, e.g. 3 for redirections.
+     * @return a filter matching the lines whose status code, normalized as {@link DataPoint#statusCode(byte[], int, int)}
+     * does, is in the class.
+     */
+    @Nonnull
+    public static LineFilter statusClass(int statusClass)
+    {
+        return new StatusClass(statusClass);
+    }
+
+    /**
+     * @param cidr an IPv4 address range in CIDR notation, e.g. "10.0.0.0/24".
+     * @return a filter matching the lines whose remote host is an IPv4 address in the range.
+     */
+    @Nonnull
+    public static LineFilter remoteHostCidr(@Nonnull String cidr)
+    {
+        return new RemoteHostCidr(cidr);
+    }
+
+    private static class SectionPrefix implements LineFilter
+    {
+        private final byte[] prefix;
+
+        private SectionPrefix(String prefix)
+        {
+            Preconditions.checkArgument(!prefix.isEmpty());
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Nonnull
+        @Override
+        public DataPointField getField()
+        {
+            return DataPointField.SECTION;
+        }
+
+        @Override
+        public boolean matches(@Nonnull byte[] buffer, int from, int to)
+        {
+            if (to - from < prefix.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++)
+            {
+                if (buffer[from + i] != prefix[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "section " + new String(prefix, StandardCharsets.UTF_8) + "*";
+        }
+    }
+
+    private static class StatusClass implements LineFilter
+    {
+        private final int statusClass;
+
+        private StatusClass(int statusClass)
+        {
+            Preconditions.checkArgument(statusClass >= 1 && statusClass <= 5);
+            this.statusClass = statusClass;
+        }
+
+        @Nonnull
+        @Override
+        public DataPointField getField()
+        {
+            return DataPointField.STATUS;
+        }
+
+        @Override
+        public boolean matches(@Nonnull byte[] buffer, int from, int to)
+        {
+            //the status class of the status code, as counted by the aggregations
+            int code = DataPoint.statusCode(buffer, from, to);
+            return code >= 100 && code < 600 && code / 100 == statusClass;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "status " + statusClass + "xx";
+        }
+    }
+
+    private static class RemoteHostCidr implements LineFilter
+    {
+        private final String cidr;
+        private final int network;
+        private final int mask;
+
+        private RemoteHostCidr(String cidr)
+        {
+            this.cidr = cidr;
+            int slash = cidr.indexOf('/');
+            Preconditions.checkArgument(slash > 0, "Not a CIDR range: %s", cidr);
+            var address = cidr.getBytes(StandardCharsets.US_ASCII);
+            long parsedNetwork = Ipv4Addresses.parse(address, 0, slash);
+            var prefixLength = Ints.tryParse(cidr.substring(slash + 1));
+            Preconditions.checkArgument(parsedNetwork >= 0 && prefixLength != null
+                    && prefixLength >= 0 && prefixLength <= 32, "Not a CIDR range: %s", cidr);
+            this.mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+            this.network = (int) parsedNetwork & mask;
+        }
+
+        @Nonnull
+        @Override
+        public DataPointField getField()
+        {
+            return DataPointField.REMOTE_HOST;
+        }
+
+        @Override
+        public boolean matches(@Nonnull byte[] buffer, int from, int to)
+        {
+            long address = Ipv4Addresses.parse(buffer, from, to);
+            return address >= 0 && ((int) address & mask) == network;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "host " + cidr;
+        }
+    }
+}
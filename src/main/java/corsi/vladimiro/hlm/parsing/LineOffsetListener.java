@@ -0,0 +1,30 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Receives {@link DataPoint} objects from {@link CSVLogParser} together with the position
+ * of the line they have been parsed from.
+ */
+public interface LineOffsetListener {
+
+    /**
+     * Invoked after all the {@link DataPointListener}s have been notified.
+     * @param dataPoint the parsed {@link DataPoint}.
+     * @param lineOffset offset in the parsed input stream of the first byte of the line.
+     */
+    void onDataPoint(@Nonnull DataPoint dataPoint, long lineOffset);
+
+    /**
+     * @return the fields read by this listener, all of them by default.
+     * @see DataPointListener#getRequiredFields()
+     */
+    @Nonnull
+    default Set<DataPointField> getRequiredFields()
+    {
+        return EnumSet.allOf(DataPointField.class);
+    }
+
+}
@@ -0,0 +1,45 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+import java.util.Set;
+
+/**
+ * A log line layout which {@link CSVLogParser} can parse in place of the CSV export layout,
+ * see {@link CSVLogParser.Builder#withFormat(LogFormat)}. The format only locates and decodes the fields of
+ * a line: the parser turns them into {@link DataPoint}s exactly as for CSV lines, so listeners receive the same
+ * stream whatever the format.
+ */
+public interface LogFormat {
+
+    /**
+     * @param requiredFields the fields required by the listeners of the parser, the decoder can skip the others.
+     * @return a new {@link LineDecoder}, used by a single parser.
+     */
+    @Nonnull
+    LineDecoder newDecoder(@Nonnull Set<DataPointField> requiredFields);
+
+    /**
+     * Decodes the lines of a {@link LogFormat}. Decoders can be stateful, e.g. cache the last decoded date.
+     */
+    interface LineDecoder
+    {
+        /**
+         * Decodes the required fields of a line. Bounds of the section, status and remote host are offsets in
+         * the line buffer, the section being the request path up to its second '/' as for CSV lines.
+         * @param buffer buffer holding the UTF-8 encoded line, without line terminator.
+         * @param from offset of the first byte of the line.
+         * @param to offset following the last byte of the line.
+         * @param line receives the decoded fields, it is cleared before each invocation.
+         * @return null if the line has been decoded or the reason for which it is malformed.
+         */
+        MalformedLineReason decode(@Nonnull byte[] buffer, int from, int to, @Nonnull DecodedLine line);
+
+        /**
+         * @return true if the line is a header line to be ignored, false by default.
+         */
+        default boolean isHeader(@Nonnull byte[] buffer, int from, int to)
+        {
+            return false;
+        }
+    }
+}
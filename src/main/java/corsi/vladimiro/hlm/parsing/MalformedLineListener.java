@@ -0,0 +1,19 @@
+package corsi.vladimiro.hlm.parsing;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the lines rejected by {@link CSVLogParser}. Malformed lines are expected to come in bursts,
+ * implementations should be cheap, e.g. sample lines rather than reporting all of them.
+ */
+public interface MalformedLineListener {
+
+    /**
+     * @param reason why the line has been rejected.
+     * @param line buffer holding the UTF-8 encoded line, only valid during the invocation.
+     * @param from offset of the first byte of the line.
+     * @param to offset following the last byte of the line.
+     */
+    void onMalformedLine(@Nonnull MalformedLineReason reason, @Nonnull byte[] line, int from, int to);
+
+}
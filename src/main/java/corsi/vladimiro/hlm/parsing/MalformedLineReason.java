@@ -0,0 +1,28 @@
+package corsi.vladimiro.hlm.parsing;
+
+/**
+ * Reasons for which {@link CSVLogParser} rejects a log line.
+ */
+public enum MalformedLineReason {
+
+    /**
+     * The line has less columns than the log export layout.
+     */
+    WRONG_COLUMN_COUNT,
+    /**
+     * The date is not a non-negative long.
+     */
+    BAD_TIMESTAMP,
+    /**
+     * No section can be found in the request.
+     */
+    BAD_REQUEST,
+    /**
+     * The number of bytes is not a non-negative long.
+     */
+    BAD_BYTES,
+    /**
+     * The line cannot be parsed as CSV, e.g. because of unbalanced quotes.
+     */
+    BAD_CSV
+}
@@ -0,0 +1,103 @@
+package corsi.vladimiro.hlm.parsing;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends a sample of malformed lines to a file, each line preceded by the reason of its rejection and a tab.
+ * At most a given number of lines per second is written, the others are only counted: a burst of malformed lines
+ * costs little more than a clock read per line. Lines are flushed to the file at most once per second and on close.
+ * Can be shared by parsers running in different threads.
+ */
+public class QuarantineFile implements MalformedLineListener, Closeable {
+
+    private static final byte[] NEW_LINE = {'\n'};
+    private static final long SECOND_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final OutputStream os;
+    private final int maxLinesPerSecond;
+    private long secondBeginNanos;
+    private int linesInSecond;
+    private long writtenLines;
+    private long droppedLines;
+
+    /**
+     * @param path the file, created if missing and appended to otherwise.
+     * @param maxLinesPerSecond maximum number of lines written per second, positive.
+     * @throws IOException if the file cannot be opened.
+     */
+    public QuarantineFile(@Nonnull Path path, int maxLinesPerSecond) throws IOException
+    {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkArgument(maxLinesPerSecond > 0);
+        this.os = new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE));
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.secondBeginNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void onMalformedLine(@Nonnull MalformedLineReason reason,
+                                             @Nonnull byte[] line,
+                                             int from,
+                                             int to)
+    {
+        long now = System.nanoTime();
+        try
+        {
+            if (now - secondBeginNanos >= SECOND_IN_NANOS)
+            {
+                secondBeginNanos = now;
+                linesInSecond = 0;
+                os.flush();
+            }
+            if (linesInSecond == maxLinesPerSecond)
+            {
+                droppedLines++;
+                return;
+            }
+            linesInSecond++;
+            writtenLines++;
+            os.write(reason.name().getBytes(StandardCharsets.US_ASCII));
+            os.write('\t');
+            os.write(line, from, to - from);
+            os.write(NEW_LINE);
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the number of lines written to the file.
+     */
+    public synchronized long getWrittenLines()
+    {
+        return writtenLines;
+    }
+
+    /**
+     * @return the number of lines not written because of the rate limit.
+     */
+    public synchronized long getDroppedLines()
+    {
+        return droppedLines;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        os.close();
+    }
+}
@@ -0,0 +1,349 @@
+package corsi.vladimiro.hlm.parsing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Symbol table of request sections. Each distinct section is assigned a dense int id, starting from zero.
+ * Lookups are done directly on the UTF-8 bytes of the section: when the section is already known no object
+ * is allocated. Names are materialized once, when the section is first seen.
+ * Lookups are lock-free and can be done concurrently, insertions of new sections are serialized.
+ * By default ids are never released, the table is meant for the low cardinality of sections. For a high cardinality,
+ * e.g. when counts are approximated by label anyway, the table can be bounded, see {@link SectionTable#limitSize(int)}.
+ * A second table, {@link SectionTable#remoteHosts()}, holds the remote hosts which are names rather than IPv4
+ * addresses.
+ */
+public class SectionTable {
+
+    private static final SectionTable GLOBAL = new SectionTable();
+    private static final SectionTable REMOTE_HOSTS = new SectionTable();
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * Open addressing hash table. Slots hold the id of the section plus one, zero meaning empty slot.
+     * Keys and names are indexed by id. Entries are always written before the slot referencing them.
+     */
+    private static class State
+    {
+        private final AtomicIntegerArray slots;
+        private final AtomicReferenceArray<byte[]> keys;
+        private final AtomicReferenceArray<String> names;
+        //whether the id has been looked up since the clock hand passed it, a hint which tolerates racy updates
+        private final byte[] referenced;
+        //number of holders which need the id to keep its section, guarded by the lock of the table
+        private final int[] pins;
+
+        private State(int capacity)
+        {
+            slots = new AtomicIntegerArray(capacity * 2);
+            keys = new AtomicReferenceArray<>(capacity);
+            names = new AtomicReferenceArray<>(capacity);
+            referenced = new byte[capacity];
+            pins = new int[capacity];
+        }
+    }
+
+    private volatile State state = new State(INITIAL_CAPACITY);
+    private int size;
+    private int maxSize = UNBOUNDED;
+    //next id considered for reassignment once the table is full
+    private int clockHand;
+    private long reassignedCount;
+
+    @VisibleForTesting
+    SectionTable()
+    {
+    }
+
+    /**
+     * @return the table shared by parsing and aggregation.
+     */
+    @Nonnull
+    public static SectionTable global()
+    {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the table of remote host names, e.g. used to break down counts by remote host.
+     */
+    @Nonnull
+    public static SectionTable remoteHosts()
+    {
+        return REMOTE_HOSTS;
+    }
+
+    /**
+     * @param buffer buffer holding the UTF-8 encoded section.
+     * @param from offset of the first byte of the section.
+     * @param to offset following the last byte of the section.
+     * @return the id of the section, a new id is assigned if the section has never been seen.
+     */
+    public int idOf(@Nonnull byte[] buffer, int from, int to)
+    {
+        int hash = hash(buffer, from, to);
+        var current = state;
+        int id = find(current, hash, buffer, from, to);
+        if (id < 0)
+        {
+            return insert(hash, buffer, from, to);
+        }
+        //written once per id and pass of the clock hand, not on every lookup
+        if (current.referenced[id] == 0)
+        {
+            current.referenced[id] = 1;
+        }
+        return id;
+    }
+
+    /**
+     * @param section the section.
+     * @return the id of the section, a new id is assigned if the section has never been seen.
+     */
+    public int idOf(@Nonnull String section)
+    {
+        byte[] bytes = section.getBytes(StandardCharsets.UTF_8);
+        return idOf(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param id id of a section returned by this table.
+     * @return the section.
+     */
+    @Nonnull
+    public String nameOf(int id)
+    {
+        var names = state.names;
+        Preconditions.checkElementIndex(id, names.length());
+        var name = names.get(id);
+        Preconditions.checkArgument(name != null, "Unknown section id %s", id);
+        return name;
+    }
+
+    /**
+     * Bounds the number of ids, so that memory stays flat however many distinct sections are seen. Once the table is
+     * full, a new section is assigned the id of a section which has not been looked up for a while and is not pinned,
+     * chosen with the clock (second chance) algorithm: an id stays assigned to its section for at least
+     * <code>maxSize - 1</code> insertions of other sections after {@link SectionTable#idOf(byte[], int, int)} returned
+     * it, so holders of ids must either resolve them before that or pin them, see {@link SectionTable#pin(int)}. A
+     * section looked up at least once every <code>maxSize - 1</code> insertions keeps its id. If all the ids are
+     * pinned, new ids are assigned beyond the maximum size.
+     * @param maxSize the maximum number of ids, at least the current size.
+     */
+    public synchronized void limitSize(int maxSize)
+    {
+        Preconditions.checkArgument(maxSize > 0);
+        Preconditions.checkState(size <= maxSize, "More than %s sections already", maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Keeps the id assigned to its section until {@link SectionTable#unpin(int)} is invoked as many times, e.g. while a
+     * counter holds the id, whose count would otherwise be attributed to the section taking the id over.
+     * @param id id of a section returned by this table.
+     */
+    public synchronized void pin(int id)
+    {
+        var pins = state.pins;
+        Preconditions.checkElementIndex(id, size);
+        pins[id]++;
+    }
+
+    /**
+     * Releases a pin taken with {@link SectionTable#pin(int)}.
+     * @param id id of a pinned section.
+     */
+    public synchronized void unpin(int id)
+    {
+        var pins = state.pins;
+        Preconditions.checkElementIndex(id, size);
+        Preconditions.checkState(pins[id] > 0, "Section id %s is not pinned", id);
+        pins[id]--;
+    }
+
+    /**
+     * @return number of distinct sections seen so far, or holding an id if the table is bounded.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return number of ids reassigned to a new section because the table was full, see
+     * {@link SectionTable#limitSize(int)}.
+     */
+    public synchronized long getReassignedCount()
+    {
+        return reassignedCount;
+    }
+
+    private static int find(State state, int hash, byte[] buffer, int from, int to)
+    {
+        var slots = state.slots;
+        int mask = slots.length() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+        {
+            int entry = slots.get(slot);
+            if (entry == 0)
+            {
+                return -1;
+            }
+            if (equals(state.keys.get(entry - 1), buffer, from, to))
+            {
+                return entry - 1;
+            }
+        }
+    }
+
+    private synchronized int insert(int hash, byte[] buffer, int from, int to)
+    {
+        var current = state;
+        int id = find(current, hash, buffer, from, to);
+        if (id >= 0)
+        {
+            return id;
+        }
+        if (size >= maxSize)
+        {
+            id = reassign(current);
+        }
+        if (id < 0)
+        {
+            if (size == current.keys.length())
+            {
+                current = grow(current);
+            }
+            id = size++;
+        }
+        byte[] key = new byte[to - from];
+        System.arraycopy(buffer, from, key, 0, key.length);
+        current.keys.set(id, key);
+        current.names.set(id, new String(key, StandardCharsets.UTF_8));
+        setSlot(current, hash, id);
+        return id;
+    }
+
+    /**
+     * Frees the first id neither pinned nor looked up since the clock hand last passed it, giving a second chance to
+     * the others.
+     * @return the freed id, which the new section takes right behind the hand, -1 if all the ids are pinned.
+     */
+    private int reassign(State current)
+    {
+        //after a turn of the hand only pinned ids can have their referenced bit set
+        for (int turn = 0; turn < 2 * size; turn++)
+        {
+            int id = clockHand;
+            clockHand = (clockHand + 1) % size;
+            if (current.pins[id] > 0)
+            {
+                continue;
+            }
+            if (current.referenced[id] != 0)
+            {
+                current.referenced[id] = 0;
+                continue;
+            }
+            var key = current.keys.get(id);
+            removeSlot(current, hash(key, 0, key.length), id);
+            reassignedCount++;
+            return id;
+        }
+        return -1;
+    }
+
+    private State grow(State current)
+    {
+        var grown = new State(current.keys.length() * 2);
+        for (int id = 0; id < size; id++)
+        {
+            var key = current.keys.get(id);
+            grown.keys.set(id, key);
+            grown.names.set(id, current.names.get(id));
+            grown.referenced[id] = current.referenced[id];
+            grown.pins[id] = current.pins[id];
+            setSlot(grown, hash(key, 0, key.length), id);
+        }
+        state = grown;
+        return grown;
+    }
+
+    private static void setSlot(State state, int hash, int id)
+    {
+        var slots = state.slots;
+        int mask = slots.length() - 1;
+        int slot = hash & mask;
+        while (slots.get(slot) != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        slots.set(slot, id + 1);
+    }
+
+    /**
+     * Empties the slot of an id, shifting back the following entries of the probe sequence so that no tombstone is
+     * needed. A concurrent lookup may miss an entry being shifted, it then finds it again under the lock of insert.
+     */
+    private static void removeSlot(State state, int hash, int id)
+    {
+        var slots = state.slots;
+        int mask = slots.length() - 1;
+        int slot = hash & mask;
+        while (slots.get(slot) != id + 1)
+        {
+            slot = (slot + 1) & mask;
+        }
+        int next = slot;
+        while (true)
+        {
+            next = (next + 1) & mask;
+            int entry = slots.get(next);
+            if (entry == 0)
+            {
+                slots.set(slot, 0);
+                return;
+            }
+            var key = state.keys.get(entry - 1);
+            int home = hash(key, 0, key.length) & mask;
+            //the entry can fill the hole if the hole lies between its home slot and its slot
+            if (((next - home) & mask) >= ((next - slot) & mask))
+            {
+                slots.set(slot, entry);
+                slot = next;
+            }
+        }
+    }
+
+    private static int hash(byte[] buffer, int from, int to)
+    {
+        int hash = 1;
+        for (int i = from; i < to; i++)
+        {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] buffer, int from, int to)
+    {
+        if (key.length != to - from)
+        {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++)
+        {
+            if (key[i] != buffer[from + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package corsi.vladimiro.hlm.segment;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte array written sequentially, with varint encoding of integers.
+ */
+final class ByteSink {
+
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    void writeByte(int b)
+    {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Writes a non-negative value, or any long as unsigned, 7 bits per byte.
+     */
+    void writeVarint(long value)
+    {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0)
+        {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    void writeBytes(@Nonnull byte[] buffer, int from, int to)
+    {
+        ensureCapacity(to - from);
+        System.arraycopy(buffer, from, bytes, size, to - from);
+        size += to - from;
+    }
+
+    /**
+     * Writes the bytes of another sink.
+     */
+    void write(@Nonnull ByteSink sink)
+    {
+        writeBytes(sink.bytes, 0, sink.size);
+    }
+
+    /**
+     * Writes the bytes of another sink preceded by their number.
+     */
+    void writeLengthPrefixed(@Nonnull ByteSink sink)
+    {
+        writeVarint(sink.size);
+        write(sink);
+    }
+
+    void writeTo(@Nonnull OutputStream os) throws IOException
+    {
+        os.write(bytes, 0, size);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    void clear()
+    {
+        size = 0;
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (size + length > bytes.length)
+        {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+    }
+}
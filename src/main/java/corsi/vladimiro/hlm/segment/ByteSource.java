@@ -0,0 +1,110 @@
+package corsi.vladimiro.hlm.segment;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads bytes written by a {@link ByteSink} from an array. Reading past the end of the data throws, so that
+ * corrupt segments are reported instead of decoded into garbage.
+ */
+final class ByteSource {
+
+    private byte[] bytes = new byte[0];
+    private int position;
+    private int limit;
+
+    void reset(@Nonnull byte[] bytes, int limit)
+    {
+        this.bytes = bytes;
+        this.position = 0;
+        this.limit = limit;
+    }
+
+    int readByte() throws IOException
+    {
+        if (position == limit)
+        {
+            throw corrupt();
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    long readVarint() throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw corrupt();
+    }
+
+    /**
+     * @return a varint which must be a non-negative int.
+     */
+    int readInt() throws IOException
+    {
+        long value = readVarint();
+        if (value < 0 || value > Integer.MAX_VALUE)
+        {
+            throw corrupt();
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return the bytes preceded by their number.
+     */
+    @Nonnull
+    byte[] readLengthPrefixed() throws IOException
+    {
+        int length = readInt();
+        if (length > limit - position)
+        {
+            throw corrupt();
+        }
+        position += length;
+        return Arrays.copyOfRange(bytes, position - length, position);
+    }
+
+    /**
+     * Reads the length of a column and checks the column is complete.
+     * @return the offset following the column.
+     */
+    int readColumnEnd() throws IOException
+    {
+        int length = readInt();
+        if (length > limit - position)
+        {
+            throw corrupt();
+        }
+        return position + length;
+    }
+
+    /**
+     * Checks that a column has been entirely read.
+     */
+    void endColumn(int columnEnd) throws IOException
+    {
+        if (position != columnEnd)
+        {
+            throw corrupt();
+        }
+    }
+
+    void skipTo(int position)
+    {
+        this.position = position;
+    }
+
+    static IOException corrupt()
+    {
+        return new IOException("Corrupt segment");
+    }
+}
@@ -0,0 +1,46 @@
+package corsi.vladimiro.hlm.segment;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of segment files, written by {@link SegmentWriter} and read by {@link SegmentReader}.
+ * <p>
+ * A segment begins with {@link SegmentFormat#MAGIC} and is followed by blocks of at most
+ * {@link SegmentFormat#BLOCK_SIZE} data points. Each block is prefixed by its length in bytes and holds:
+ * <ul>
+ *     <li>a flags byte, {@link SegmentFormat#FLAG_RESET} meaning that the dictionaries are emptied before
+ *     reading the block;</li>
+ *     <li>the number of rows;</li>
+ *     <li>the entries appended to the section, status and remote host dictionaries by the block, each dictionary
+ *     as a count followed by length-prefixed UTF-8 strings;</li>
+ *     <li>one column per field, each prefixed by its length in bytes so that unneeded columns can be skipped:
+ *     timestamps as zig-zag encoded deltas from the previous data point, section ids (zero for data points without
+ *     section, dictionary index plus one otherwise), status ids, byte counts and remote host ids.</li>
+ * </ul>
+ * All integers are unsigned LEB128 varints: with few distinct statuses a status takes a single byte.
+ */
+final class SegmentFormat {
+
+    static final byte[] MAGIC = "HLMSEG1\n".getBytes(StandardCharsets.US_ASCII);
+    static final int FLAG_RESET = 1;
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Dictionaries are reset when any of them grows beyond this size, bounding the memory of writer and reader.
+     */
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private SegmentFormat()
+    {
+    }
+
+    static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
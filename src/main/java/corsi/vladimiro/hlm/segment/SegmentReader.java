@@ -0,0 +1,300 @@
+package corsi.vladimiro.hlm.segment;
+
+import com.google.common.base.Preconditions;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import corsi.vladimiro.hlm.parsing.SectionTable;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays the data points stored in a segment file by a {@link SegmentWriter}. Each block of the segment is
+ * delivered to the listeners as a {@link DataPointBatch}, through {@link DataPointListener#onBatch(DataPointBatch)}.
+ * Columns of fields not required by any listener are skipped without being decoded.
+ */
+public class SegmentReader {
+
+    /**
+     * Builder class for {@link SegmentReader}.
+     */
+    public static class Builder
+    {
+        private final Path path;
+        private DataPointListener[] listeners = new DataPointListener[0];
+
+        private Builder(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * @param listeners list of {@link DataPointListener} objects which will receive the stored data points.
+         * @return this builder.
+         */
+        public Builder withListeners(@Nonnull DataPointListener... listeners)
+        {
+            for (var listener : listeners)
+            {
+                Preconditions.checkNotNull(listener);
+            }
+            this.listeners = listeners;
+            return this;
+        }
+
+        /**
+         * @return A new {@link SegmentReader}.
+         */
+        public SegmentReader build()
+        {
+            return new SegmentReader(this);
+        }
+    }
+
+    private static final byte[] NO_REMOTE_HOST = new byte[0];
+
+    private final Path path;
+    private final DataPointListener[] listeners;
+    private final boolean timestampRequired;
+    private final boolean sectionRequired;
+    private final boolean statusRequired;
+    private final boolean bytesRequired;
+    private final boolean remoteHostRequired;
+    private final ByteSource source = new ByteSource();
+    //global section id by file section id
+    private int[] sectionIds = new int[256];
+    private int sectionCount;
+    //status code by file status id
+    private int[] statusCodes = new int[16];
+    private int statusCount;
+    private final List<byte[]> remoteHosts = new ArrayList<>();
+    private byte[] block = new byte[64 * 1024];
+    private long[] timestamps = new long[0];
+    private int[] rowSections = new int[0];
+    private int[] rowStatuses = new int[0];
+    private long[] rowBytes = new long[0];
+    private int[] rowRemoteHosts = new int[0];
+    private DataPointBatch batch;
+    private long lastTimestamp;
+
+    /**
+     * @param path the segment file.
+     * @return a new {@link Builder}.
+     */
+    public static Builder builder(@Nonnull Path path)
+    {
+        Preconditions.checkNotNull(path);
+        return new Builder(path);
+    }
+
+    private SegmentReader(Builder builder)
+    {
+        this.path = builder.path;
+        this.listeners = builder.listeners;
+        Set<DataPointField> fields = DataPointField.requiredBy(List.of(listeners));
+        this.timestampRequired = fields.contains(DataPointField.TIMESTAMP);
+        this.sectionRequired = fields.contains(DataPointField.SECTION);
+        this.statusRequired = fields.contains(DataPointField.STATUS);
+        this.bytesRequired = fields.contains(DataPointField.BYTES);
+        this.remoteHostRequired = fields.contains(DataPointField.REMOTE_HOST);
+    }
+
+    /**
+     * Reads the whole segment, returns when all data points have been delivered to listeners.
+     * @throws IOException in case of I/O error or if the file is not a valid segment.
+     */
+    public void replay() throws IOException
+    {
+        try (var is = new BufferedInputStream(Files.newInputStream(path), 64 * 1024))
+        {
+            if (!Arrays.equals(is.readNBytes(SegmentFormat.MAGIC.length), SegmentFormat.MAGIC))
+            {
+                throw new IOException("Not a segment file: " + path);
+            }
+            int length;
+            while ((length = readBlockLength(is)) >= 0)
+            {
+                if (length > block.length)
+                {
+                    block = new byte[Math.max(block.length * 2, length)];
+                }
+                if (is.readNBytes(block, 0, length) != length)
+                {
+                    throw ByteSource.corrupt();
+                }
+                source.reset(block, length);
+                readBlock();
+            }
+        }
+    }
+
+    /**
+     * @return the length of the next block or -1 at the end of the segment.
+     */
+    private static int readBlockLength(InputStream is) throws IOException
+    {
+        long length = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = is.read();
+            if (b < 0)
+            {
+                if (shift == 0)
+                {
+                    return -1;
+                }
+                throw ByteSource.corrupt();
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                if (length > Integer.MAX_VALUE)
+                {
+                    throw ByteSource.corrupt();
+                }
+                return (int) length;
+            }
+        }
+        throw ByteSource.corrupt();
+    }
+
+    private void readBlock() throws IOException
+    {
+        if ((source.readByte() & SegmentFormat.FLAG_RESET) != 0)
+        {
+            sectionCount = 0;
+            statusCount = 0;
+            remoteHosts.clear();
+        }
+        int rows = source.readInt();
+        if (rows == 0)
+        {
+            throw ByteSource.corrupt();
+        }
+        readDictionaries();
+        ensureCapacity(rows);
+
+        int end = source.readColumnEnd();
+        if (timestampRequired)
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                lastTimestamp += SegmentFormat.unZigZag(source.readVarint());
+                timestamps[row] = lastTimestamp;
+            }
+            source.endColumn(end);
+        }
+        source.skipTo(end);
+        readIds(rows, rowSections, sectionRequired, sectionCount + 1);
+        readIds(rows, rowStatuses, statusRequired, statusCount);
+        end = source.readColumnEnd();
+        if (bytesRequired)
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                rowBytes[row] = source.readVarint();
+            }
+            source.endColumn(end);
+        }
+        source.skipTo(end);
+        readIds(rows, rowRemoteHosts, remoteHostRequired, remoteHosts.size());
+        deliver(rows);
+    }
+
+    private void readDictionaries() throws IOException
+    {
+        int added = source.readInt();
+        for (int i = 0; i < added; i++)
+        {
+            byte[] section = source.readLengthPrefixed();
+            if (sectionCount == sectionIds.length)
+            {
+                sectionIds = Arrays.copyOf(sectionIds, sectionIds.length * 2);
+            }
+            sectionIds[sectionCount++] = SectionTable.global().idOf(section, 0, section.length);
+        }
+        added = source.readInt();
+        for (int i = 0; i < added; i++)
+        {
+            byte[] status = source.readLengthPrefixed();
+            if (statusCount == statusCodes.length)
+            {
+                statusCodes = Arrays.copyOf(statusCodes, statusCodes.length * 2);
+            }
+            statusCodes[statusCount++] = DataPoint.statusCode(status, 0, status.length);
+        }
+        added = source.readInt();
+        for (int i = 0; i < added; i++)
+        {
+            remoteHosts.add(source.readLengthPrefixed());
+        }
+    }
+
+    /**
+     * Reads a column of dictionary ids, or skips it if the field is not required.
+     * @param dictionarySize ids must be less than this.
+     */
+    private void readIds(int rows, int[] ids, boolean required, int dictionarySize) throws IOException
+    {
+        int end = source.readColumnEnd();
+        if (required)
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                long id = source.readVarint();
+                if (id < 0 || id >= dictionarySize)
+                {
+                    throw ByteSource.corrupt();
+                }
+                ids[row] = (int) id;
+            }
+            source.endColumn(end);
+        }
+        source.skipTo(end);
+    }
+
+    private void deliver(int rows)
+    {
+        if (batch == null || batch.getTimestamps().length < rows)
+        {
+            batch = new DataPointBatch(Math.max(rows, SegmentFormat.BLOCK_SIZE));
+        }
+        for (int row = 0; row < rows; row++)
+        {
+            byte[] remoteHost = remoteHostRequired ? remoteHosts.get(rowRemoteHosts[row]) : NO_REMOTE_HOST;
+            int section = sectionRequired ? rowSections[row] : 0;
+            batch.add(timestampRequired ? timestamps[row] : 0,
+                    section == 0 ? DataPoint.NO_SECTION : sectionIds[section - 1],
+                    statusRequired ? statusCodes[rowStatuses[row]] : -1,
+                    bytesRequired ? rowBytes[row] : 0,
+                    remoteHost, 0, remoteHost.length);
+        }
+        for (var listener : listeners)
+        {
+            listener.onBatch(batch);
+        }
+        batch.clear();
+    }
+
+    private void ensureCapacity(int rows)
+    {
+        if (timestamps.length < rows)
+        {
+            timestamps = new long[rows];
+            rowSections = new int[rows];
+            rowStatuses = new int[rows];
+            rowBytes = new long[rows];
+            rowRemoteHosts = new int[rows];
+        }
+    }
+}
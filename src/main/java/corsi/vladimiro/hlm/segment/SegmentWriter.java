@@ -0,0 +1,202 @@
+package corsi.vladimiro.hlm.segment;
+
+import com.google.common.base.Preconditions;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the data points it receives in a segment file, see {@link SegmentFormat}, so that they can be replayed
+ * by a {@link SegmentReader} without parsing the log again. Meant to be added to the listeners of a parser,
+ * it requires all the fields. Data points are encoded by column in blocks, a block is written when full and on
+ * {@link SegmentWriter#close()}.
+ */
+public class SegmentWriter implements DataPointListener, Closeable {
+
+    private final OutputStream os;
+    private final ByteSink timestamps = new ByteSink();
+    private final ByteSink sections = new ByteSink();
+    private final ByteSink statuses = new ByteSink();
+    private final ByteSink bytes = new ByteSink();
+    private final ByteSink remoteHosts = new ByteSink();
+    private final Dictionary sectionDictionary = new Dictionary();
+    private final Dictionary statusDictionary = new Dictionary();
+    private final Dictionary remoteHostDictionary = new Dictionary();
+    private final ByteSink block = new ByteSink();
+    private final ByteSink blockLength = new ByteSink();
+    //file section id plus one by global section id, zero if the section is not yet in the dictionary
+    private int[] sectionIds = new int[256];
+    //section of each global section id in sectionIds, a bounded SectionTable may reassign ids
+    private String[] sectionNames = new String[256];
+    private long lastTimestamp;
+    private int rows;
+    private boolean reset;
+    private long writtenDataPoints;
+
+    /**
+     * Entries of a dictionary, with the entries added since the last written block.
+     */
+    private static class Dictionary
+    {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final ByteSink added = new ByteSink();
+        private int addedCount;
+
+        private int idOf(String value)
+        {
+            var id = ids.get(value);
+            if (id == null)
+            {
+                id = ids.size();
+                ids.put(value, id);
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                added.writeVarint(encoded.length);
+                added.writeBytes(encoded, 0, encoded.length);
+                addedCount++;
+            }
+            return id;
+        }
+
+        private int size()
+        {
+            return ids.size();
+        }
+
+        private void writeAdded(ByteSink sink)
+        {
+            sink.writeVarint(addedCount);
+            sink.write(added);
+            added.clear();
+            addedCount = 0;
+        }
+
+        private void clear()
+        {
+            ids.clear();
+        }
+    }
+
+    /**
+     * @param path the segment file, created or truncated.
+     * @throws IOException if the file cannot be written.
+     */
+    public SegmentWriter(@Nonnull Path path) throws IOException
+    {
+        Preconditions.checkNotNull(path);
+        this.os = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+        os.write(SegmentFormat.MAGIC);
+    }
+
+    @Override
+    public void onDataPoint(@Nonnull DataPoint dataPoint)
+    {
+        timestamps.writeVarint(SegmentFormat.zigZag(dataPoint.getUnixTimestamp() - lastTimestamp));
+        lastTimestamp = dataPoint.getUnixTimestamp();
+        sections.writeVarint(sectionId(dataPoint));
+        statuses.writeVarint(statusDictionary.idOf(dataPoint.getStatus()));
+        bytes.writeVarint(dataPoint.getBytes());
+        remoteHosts.writeVarint(remoteHostDictionary.idOf(dataPoint.getRemoteHost()));
+        writtenDataPoints++;
+        if (++rows == SegmentFormat.BLOCK_SIZE)
+        {
+            writeBlock();
+        }
+    }
+
+    /**
+     * @return the number of data points received so far.
+     */
+    public long getWrittenDataPoints()
+    {
+        return writtenDataPoints;
+    }
+
+    /**
+     * Writes the pending block and closes the file.
+     * @throws IOException in case of I/O error.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try (os)
+        {
+            if (rows > 0)
+            {
+                writeBlock();
+            }
+        } catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    private int sectionId(DataPoint dataPoint)
+    {
+        int globalId = dataPoint.getSectionId();
+        if (globalId == DataPoint.NO_SECTION)
+        {
+            return 0;
+        }
+        if (globalId >= sectionIds.length)
+        {
+            sectionIds = Arrays.copyOf(sectionIds, Math.max(sectionIds.length * 2, globalId + 1));
+            sectionNames = Arrays.copyOf(sectionNames, sectionIds.length);
+        }
+        //the table holds one name instance per assignment of the id
+        var section = dataPoint.getSection();
+        if (sectionIds[globalId] == 0 || sectionNames[globalId] != section)
+        {
+            sectionIds[globalId] = sectionDictionary.idOf(section) + 1;
+            sectionNames[globalId] = section;
+        }
+        return sectionIds[globalId];
+    }
+
+    private void writeBlock()
+    {
+        block.clear();
+        block.writeByte(reset ? SegmentFormat.FLAG_RESET : 0);
+        block.writeVarint(rows);
+        sectionDictionary.writeAdded(block);
+        statusDictionary.writeAdded(block);
+        remoteHostDictionary.writeAdded(block);
+        for (var column : new ByteSink[]{timestamps, sections, statuses, bytes, remoteHosts})
+        {
+            block.writeLengthPrefixed(column);
+            column.clear();
+        }
+        blockLength.clear();
+        blockLength.writeVarint(block.size());
+        try
+        {
+            blockLength.writeTo(os);
+            block.writeTo(os);
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        rows = 0;
+        reset = sectionDictionary.size() > SegmentFormat.MAX_DICTIONARY_SIZE
+                || statusDictionary.size() > SegmentFormat.MAX_DICTIONARY_SIZE
+                || remoteHostDictionary.size() > SegmentFormat.MAX_DICTIONARY_SIZE;
+        if (reset)
+        {
+            sectionDictionary.clear();
+            statusDictionary.clear();
+            remoteHostDictionary.clear();
+            Arrays.fill(sectionIds, 0);
+        }
+    }
+}
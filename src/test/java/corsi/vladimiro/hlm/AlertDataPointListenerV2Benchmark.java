@@ -0,0 +1,123 @@
+package corsi.vladimiro.hlm;
+
+import corsi.vladimiro.hlm.aggregation.Aggregation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sliding window of {@link AlertDataPointListenerV2} per completed 1-second aggregation, against the
+ * window in a {@link TreeMap} it replaced, which scans all the intervals of the window on every aggregation. Every
+ * 8th aggregation is out of order by 5 seconds. The windows are filled before measuring, so that intervals are evicted
+ * as in steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertDataPointListenerV2Benchmark {
+
+    private static final double NEVER_REACHED_THRESHOLD = 1e12;
+
+    @Param({"120", "86400"})
+    public int timeWindowInSecs;
+
+    private AlertDataPointListenerV2 listener;
+    private TreeMapWindow treeMapWindow;
+    private long timestamp;
+    private int aggregations;
+
+    @Setup
+    public void setUp()
+    {
+        listener = new AlertDataPointListenerV2(timeWindowInSecs, NEVER_REACHED_THRESHOLD, 1);
+        treeMapWindow = new TreeMapWindow(timeWindowInSecs);
+        for (timestamp = 0; timestamp < timeWindowInSecs; timestamp++)
+        {
+            listener.handleAggregation(Aggregation.single(timestamp, timestamp + 1));
+            treeMapWindow.submit(Aggregation.single(timestamp, timestamp + 1));
+        }
+    }
+
+    @Benchmark
+    public long ring()
+    {
+        listener.handleAggregation(nextAggregation());
+        return timestamp;
+    }
+
+    @Benchmark
+    public long treeMap()
+    {
+        return treeMapWindow.submit(nextAggregation());
+    }
+
+    private Aggregation nextAggregation()
+    {
+        long begin = ++aggregations % 8 == 0 ? timestamp - 5 : timestamp++;
+        return Aggregation.single(begin, begin + 1);
+    }
+
+    /**
+     * The window of {@link AlertDataPointListenerV2} before it became a ring, without the alerting.
+     */
+    private static class TreeMapWindow
+    {
+        private final TreeMap<Long, Aggregation> timeWindow = new TreeMap<>();
+        private final int timeWindowInSecs;
+        private long count;
+
+        private TreeMapWindow(int timeWindowInSecs)
+        {
+            this.timeWindowInSecs = timeWindowInSecs;
+        }
+
+        private long submit(Aggregation aggregation)
+        {
+            this.count += aggregation.getTotalCount();
+            var existing = timeWindow.get(aggregation.getBeginTimestamp());
+            if (existing != null)
+            {
+                aggregation.mergeInto(existing);
+            } else
+            {
+                timeWindow.put(aggregation.getBeginTimestamp(), aggregation);
+            }
+            long endOfWindow = timeWindow.descendingMap().firstEntry().getValue().getBeginTimestamp();
+            var timeWindowIt = timeWindow.entrySet().iterator();
+            while (timeWindowIt.hasNext())
+            {
+                var curEntry = timeWindowIt.next();
+                var curTimestamp = curEntry.getValue().getBeginTimestamp();
+                if (endOfWindow - curTimestamp >= timeWindowInSecs)
+                {
+                    count = count - curEntry.getValue().getTotalCount();
+                    timeWindowIt.remove();
+                }
+            }
+            return count;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AlertDataPointListenerV2Benchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
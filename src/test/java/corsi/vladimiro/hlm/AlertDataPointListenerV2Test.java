@@ -77,4 +77,29 @@ class AlertDataPointListenerV2Test {
         Mockito.verify(listener, Mockito.times(1)).alertActive(31L);
 
     }
+
+    @Test
+    void onDataPoint_after_gap()
+    {
+        //the window of 5 seconds holds 3 intervals of 2 seconds
+        var listener =
+                Mockito.spy(new AlertDataPointListenerV2(5, 1D, 2));
+
+        Mockito.doReturn(0L).when(dataPoint).getUnixTimestamp();
+        for (int i = 0; i < 6; i++)
+        {
+            listener.onDataPoint(dataPoint);
+        }
+        Mockito.doReturn(2L).when(dataPoint).getUnixTimestamp();
+        listener.onDataPoint(dataPoint);
+        Mockito.verify(listener, Mockito.times(1)).alertActive(0L);
+
+        //far beyond the window, all its intervals are evicted
+        Mockito.doReturn(1000L).when(dataPoint).getUnixTimestamp();
+        listener.onDataPoint(dataPoint);
+        Mockito.doReturn(1002L).when(dataPoint).getUnixTimestamp();
+        listener.onDataPoint(dataPoint);
+        Mockito.verify(listener, Mockito.times(1)).alertInactive(1000L);
+        Mockito.verify(listener, Mockito.times(1)).alertActive(ArgumentMatchers.anyLong());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package corsi.vladimiro.hlm;
+
+import corsi.vladimiro.hlm.ingest.SyslogReceiver;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class MainTest {
+
+    private static final String LINE = "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234";
+
+    @Test
+    void receive_prints_open_interval_before_shutdown_hook_returns() throws Exception {
+        //given
+        var listener = Mockito.spy(StatDataPointListener.builder(2, 10).build());
+        var parser = CSVLogParser.builder().withListeners(listener).withBatchSize(16).build();
+        var loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        var receiver = SyslogReceiver.builder(parser).withUdp(loopback).build();
+        var hook = new AtomicReference<Thread>();
+        var executor = Executors.newSingleThreadExecutor();
+        var loop = executor.submit(() -> {
+            Main.receive(receiver, listener, hook::set);
+            return null;
+        });
+        try (var udp = DatagramChannel.open())
+        {
+            var datagram = LINE + "\n" + LINE;
+            udp.send(ByteBuffer.wrap(datagram.getBytes(StandardCharsets.UTF_8)), receiver.getUdpAddress());
+        }
+        Mockito.verify(listener, Mockito.timeout(5000)).onBatch(ArgumentMatchers.any());
+
+        //when: the JVM is shut down, from another thread
+        hook.get().start();
+        hook.get().join(5000);
+
+        //then: the interval still open has been printed before the hook returned
+        assertFalse(hook.get().isAlive());
+        Mockito.verify(listener).printStat(
+                ArgumentMatchers.eq(1549574330L),
+                ArgumentMatchers.eq(1549574340L),
+                ArgumentMatchers.eq(2L),
+                ArgumentMatchers.eq(List.of(Map.entry("/api", 2L))));
+        loop.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+    }
+}
@@ -1,6 +1,7 @@
 package corsi.vladimiro.hlm;
 
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.SectionTable;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentMatchers;
@@ -11,6 +12,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 @ExtendWith(MockitoExtension.class)
 class StatDataPointListenerTest {
 
@@ -22,7 +25,7 @@ class StatDataPointListenerTest {
         var listener = Mockito.spy(new StatDataPointListener(2, 10));
 
         Mockito.doReturn(1L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section1").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section1")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
         Mockito.verify(listener, Mockito.never()).printStat(
                 ArgumentMatchers.anyLong(),
@@ -31,7 +34,7 @@ class StatDataPointListenerTest {
                 ArgumentMatchers.anyList());
 
         Mockito.doReturn(1L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section2").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section2")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
         Mockito.verify(listener, Mockito.never()).printStat(
                 ArgumentMatchers.anyLong(),
@@ -40,7 +43,7 @@ class StatDataPointListenerTest {
                 ArgumentMatchers.anyList());
 
         Mockito.doReturn(1L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section3").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section3")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
         Mockito.verify(listener, Mockito.never()).printStat(
                 ArgumentMatchers.anyLong(),
@@ -49,7 +52,7 @@ class StatDataPointListenerTest {
                 ArgumentMatchers.anyList());
 
         Mockito.doReturn(4L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section2").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section2")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
         Mockito.verify(listener, Mockito.never()).printStat(
                 ArgumentMatchers.anyLong(),
@@ -58,7 +61,7 @@ class StatDataPointListenerTest {
                 ArgumentMatchers.anyList());
 
         Mockito.doReturn(3L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section1").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section1")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
         Mockito.verify(listener, Mockito.never()).printStat(
                 ArgumentMatchers.anyLong(),
@@ -67,7 +70,7 @@ class StatDataPointListenerTest {
                 ArgumentMatchers.anyList());
 
         Mockito.doReturn(9L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section1").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section1")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
         Mockito.verify(listener, Mockito.never()).printStat(
                 ArgumentMatchers.anyLong(),
@@ -77,7 +80,7 @@ class StatDataPointListenerTest {
 
         //this point won't be part of the printed statistics, it is in a new interval.
         Mockito.doReturn(10L).when(dataPoint).getUnixTimestamp();
-        Mockito.doReturn("section1").when(dataPoint).getSection();
+        Mockito.doReturn(SectionTable.global().idOf("section1")).when(dataPoint).getSectionId();
         listener.onDataPoint(dataPoint);
 
         var expectedLabelMap = List.of(
@@ -90,4 +93,88 @@ class StatDataPointListenerTest {
                 ArgumentMatchers.eq(6L),
                 ArgumentMatchers.eq(expectedLabelMap));
     }
+
+    @Test
+    void onDataPoint_with_breakdowns() {
+        var listener = Mockito.spy(StatDataPointListener.builder(1, 10).withBreakdowns().build());
+        submit(listener, 1, "section1", "503", "10.0.0.1");
+        submit(listener, 2, "section1", "500", "10.0.0.2");
+        submit(listener, 3, "section2", "500", "10.0.0.2");
+        submit(listener, 4, "section2", "200", "10.0.0.2");
+        submit(listener, 10, "section1", "200", "10.0.0.1");
+
+        Mockito.verify(listener).printStat(
+                ArgumentMatchers.eq(0L),
+                ArgumentMatchers.eq(10L),
+                ArgumentMatchers.eq(4L),
+                ArgumentMatchers.eq(List.of(Map.entry("section1", 2L))));
+        Mockito.verify(listener).printBreakdowns(
+                ArgumentMatchers.eq(List.of(Map.entry("section1", 2L))),
+                ArgumentMatchers.eq(List.of(Map.entry("10.0.0.2", 3L))));
+    }
+
+    @Test
+    void onDataPoint_with_distinct_clients() {
+        var listener = Mockito.spy(StatDataPointListener.builder(1, 10).withDistinctClients(20).build());
+
+        submit(listener, 1, "section1", "200", "10.0.0.1");
+        submit(listener, 2, "section1", "200", "10.0.0.2");
+        submit(listener, 12, "section1", "200", "10.0.0.2");
+        submit(listener, 13, "section1", "200", "10.0.0.3");
+        submit(listener, 20, "section1", "200", "10.0.0.3");
+
+        var inOrder = Mockito.inOrder(listener);
+        inOrder.verify(listener).printDistinctClients(2, 2, 20);
+        inOrder.verify(listener).printDistinctClients(2, 3, 20);
+    }
+
+    @Test
+    void onDataPoint_with_allowed_lateness() {
+        var listener = Mockito.spy(StatDataPointListener.builder(1, 10).withAllowedLateness(10).build());
+
+        submit(listener, 1, "section1", "200", "10.0.0.1");
+        submit(listener, 12, "section2", "200", "10.0.0.1");
+        //out of order within the allowed lateness
+        submit(listener, 5, "section1", "200", "10.0.0.1");
+        submit(listener, 25, "section1", "200", "10.0.0.1");
+        //the watermark has passed the first interval
+        submit(listener, 8, "section1", "200", "10.0.0.1");
+        submit(listener, 15, "section2", "200", "10.0.0.1");
+        submit(listener, 40, "section1", "200", "10.0.0.1");
+        submit(listener, 50, "section1", "200", "10.0.0.1");
+
+        var inOrder = Mockito.inOrder(listener);
+        inOrder.verify(listener).printStat(0, 10, 2, List.of(Map.entry("section1", 2L)));
+        inOrder.verify(listener).printStat(10, 20, 2, List.of(Map.entry("section2", 2L)));
+        inOrder.verify(listener).printStat(20, 30, 1, List.of(Map.entry("section1", 1L)));
+        Mockito.verify(listener, Mockito.times(3)).printStat(
+                ArgumentMatchers.anyLong(),
+                ArgumentMatchers.anyLong(),
+                ArgumentMatchers.anyLong(),
+                ArgumentMatchers.anyList());
+        assertEquals(1, listener.getLateDataPoints());
+
+        //the input ends: the intervals within the allowed lateness are printed too
+        listener.flush();
+        inOrder.verify(listener).printStat(40, 50, 1, List.of(Map.entry("section1", 1L)));
+        inOrder.verify(listener).printStat(50, 60, 1, List.of(Map.entry("section1", 1L)));
+        submit(listener, 55, "section1", "200", "10.0.0.1");
+        listener.flush();
+        Mockito.verify(listener, Mockito.times(5)).printStat(
+                ArgumentMatchers.anyLong(),
+                ArgumentMatchers.anyLong(),
+                ArgumentMatchers.anyLong(),
+                ArgumentMatchers.anyList());
+    }
+
+    private void submit(StatDataPointListener listener, long timestamp, String section, String status,
+                        String host) {
+        Mockito.doReturn(timestamp).when(dataPoint).getUnixTimestamp();
+        //not read by every listener, nor for discarded data points
+        Mockito.lenient().doReturn(SectionTable.global().idOf(section)).when(dataPoint).getSectionId();
+        Mockito.lenient().doReturn(status).when(dataPoint).getStatus();
+        Mockito.lenient().doReturn(Integer.parseInt(status)).when(dataPoint).getStatusCode();
+        Mockito.lenient().doReturn(host).when(dataPoint).getRemoteHost();
+        listener.onDataPoint(dataPoint);
+    }
 }
\ No newline at end of file
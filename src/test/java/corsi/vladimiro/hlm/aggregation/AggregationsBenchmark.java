@@ -0,0 +1,88 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the merge of 10k partial {@link Aggregation}s with 200 labels each, out of 5000 distinct labels:
+ * folding them with {@link Aggregation#sum(Aggregation)}, merging them in place with
+ * {@link Aggregation#mergeInto(Aggregation)} and with the merge tree of {@link Aggregations#merge(List)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationsBenchmark {
+
+    private static final int PARTIALS = 10_000;
+    private static final int LABELS_PER_PARTIAL = 200;
+    private static final int LABELS = 5000;
+
+    private final List<Aggregation> partials = new ArrayList<>();
+
+    @Setup
+    public void setUp()
+    {
+        var random = new Random(42);
+        for (int i = 0; i < PARTIALS; i++)
+        {
+            var partial = new Aggregation(0, 10);
+            for (int j = 0; j < LABELS_PER_PARTIAL; j++)
+            {
+                partial.increment(Labels.of("/section" + random.nextInt(LABELS)));
+            }
+            partials.add(partial);
+        }
+    }
+
+    @Benchmark
+    public Aggregation sum()
+    {
+        var result = partials.get(0);
+        for (int i = 1; i < PARTIALS; i++)
+        {
+            result = result.sum(partials.get(i));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Aggregation mergeInto()
+    {
+        var result = new Aggregation(0, 10);
+        for (var partial : partials)
+        {
+            partial.mergeInto(result);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Aggregation mergeTree()
+    {
+        return Aggregations.merge(partials);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AggregationsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,69 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AggregationsTest {
+
+    @Test
+    void merge_into() {
+        //given
+        var aggregation = new Aggregation(0, 10);
+        aggregation.increment(Labels.of("/a"));
+        aggregation.increment(Labels.of("/b"));
+        var target = new Aggregation(0, 10);
+        target.increment(Labels.of("/b"));
+        target.increment(5);
+
+        //when
+        aggregation.mergeInto(target);
+
+        //then: only the target changes
+        assertEquals(8, target.getTotalCount());
+        assertEquals(Map.of(Labels.of("/a"), 1L, Labels.of("/b"), 2L), target.getLabelCounts());
+        assertEquals(2, aggregation.getTotalCount());
+        assertEquals(Map.of(Labels.of("/a"), 1L, Labels.of("/b"), 1L), aggregation.getLabelCounts());
+        assertThrows(IllegalArgumentException.class, () -> target.mergeInto(target));
+    }
+
+    @Test
+    void merge_partials() {
+        //given: partial aggregations of shards, with overlapping sections
+        var random = new Random(3);
+        List<Aggregation> partials = new ArrayList<>();
+        Map<Labels, Long> expected = new HashMap<>();
+        long expectedTotal = 0;
+        for (int shard = 0; shard < 10_000; shard++)
+        {
+            var partial = new Aggregation(100, 110);
+            for (int i = 0; i < 20; i++)
+            {
+                var labels = Labels.of("/merge" + random.nextInt(3000));
+                partial.increment(labels);
+                expected.merge(labels, 1L, Long::sum);
+                expectedTotal++;
+            }
+            partials.add(partial);
+        }
+
+        //when
+        var merged = Aggregations.merge(partials, new ForkJoinPool(4));
+
+        //then
+        assertEquals(100, merged.getBeginTimestamp());
+        assertEquals(110, merged.getEndTimestamp());
+        assertEquals(expectedTotal, merged.getTotalCount());
+        assertEquals(expected, merged.getLabelCounts());
+        assertEquals(20, partials.get(0).getTotalCount());
+        assertEquals(partials.get(0).getLabelCounts(), Aggregations.merge(partials.subList(0, 1)).getLabelCounts());
+    }
+}
@@ -0,0 +1,119 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Aggregator#submit} by section, per data point. Each invocation submits a batch of data points,
+ * which move to the following interval every 100 batches so that {@link Aggregation}s are completed as in steady
+ * state, with counts beyond the range of cached {@link Long}s. With a positive <code>maxLabels</code> the breakdowns
+ * are approximate, see {@link Aggregator#withMaxLabels(int)}. With <code>bytesQuantiles</code> the response sizes are
+ * recorded by section too.
+ * Run with <code>-prof gc</code> to also measure the allocations, e.g. from the test classpath:
+ * <code>java org.openjdk.jmh.Main AggregatorBenchmark -prof gc</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregatorBenchmark {
+
+    private static final int BATCH_SIZE = 1024;
+    private static final int INTERVAL_IN_SECS = 10;
+    private static final int BATCHES_PER_INTERVAL = 100;
+
+    @Param({"20", "1000"})
+    public int sections;
+
+    @Param({"0", "100"})
+    public int maxLabels;
+
+    @Param({"false", "true"})
+    public boolean bytesQuantiles;
+
+    private DataPointBatch batch;
+    private Aggregator aggregator;
+    private int batches;
+
+    @Setup
+    public void setUp()
+    {
+        var random = new Random(42);
+        int[] sectionIds = new int[sections];
+        for (int i = 0; i < sections; i++)
+        {
+            sectionIds[i] = Labels.of("/section" + i).getSectionId();
+        }
+        batch = new DataPointBatch(BATCH_SIZE);
+        byte[] remoteHost = "10.0.0.1".getBytes();
+        for (int row = 0; row < BATCH_SIZE; row++)
+        {
+            batch.add(row * INTERVAL_IN_SECS / BATCH_SIZE, sectionIds[random.nextInt(sections)], 200,
+                    random.nextInt(100_000), remoteHost, 0, remoteHost.length);
+        }
+        aggregator = maxLabels == 0
+                ? Aggregator.bySection(INTERVAL_IN_SECS)
+                : Aggregator.bySection(INTERVAL_IN_SECS).withMaxLabels(maxLabels);
+        if (bytesQuantiles)
+        {
+            aggregator = aggregator.withBytesQuantiles(maxLabels == 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void submitDataPoints(Blackhole blackhole)
+    {
+        nextInterval();
+        for (int row = 0; row < BATCH_SIZE; row++)
+        {
+            blackhole.consume(aggregator.submit(batch.getDataPoint(row)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void submitBatch(Blackhole blackhole)
+    {
+        nextInterval();
+        aggregator.submit(batch, blackhole::consume);
+    }
+
+    private void nextInterval()
+    {
+        if (++batches % BATCHES_PER_INTERVAL != 0)
+        {
+            return;
+        }
+        long[] timestamps = batch.getTimestamps();
+        for (int row = 0; row < BATCH_SIZE; row++)
+        {
+            timestamps[row] += INTERVAL_IN_SECS;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AggregatorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -1,12 +1,23 @@
 package corsi.vladimiro.hlm.aggregation;
 
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
 import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import corsi.vladimiro.hlm.parsing.SectionTable;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -53,4 +64,225 @@ class AggregatorTest {
         assertEquals(1, aggregation.get().getLabelCounts().get(Labels.of("section1")));
         assertEquals(1, aggregation.get().getLabelCounts().get(Labels.of("section2")));
     }
+
+    @Test
+    void submit_batch_same_as_data_points() throws CsvValidationException, IOException {
+        //given lines out of order, filtered like StatDataPointListener does: discarded if before the end
+        //of the last completed aggregation
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",11,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",12,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",16,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",14,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",27,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",21,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",22,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",26,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",40,\"GET /report HTTP/1.0\",200,1");
+
+        for (var aggregators : List.of(
+                List.of(new Aggregator(5), new Aggregator(5)),
+                List.of(Aggregator.bySection(5), Aggregator.bySection(5)),
+                List.of(new Aggregator(5, dataPoint1 -> Optional.of(Labels.ofSection(dataPoint1.getSectionId()))),
+                        Aggregator.bySection(5))))
+        {
+            //when
+            var fromDataPoints = new ArrayList<String>();
+            var fromBatches = new ArrayList<String>();
+            long[] lastEndTimestamps = new long[2];
+            CSVLogParser.builder(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))
+                    .withBatchSize(3)
+                    .withListeners(new DataPointListener() {
+                        @Override
+                        public void onDataPoint(DataPoint dataPoint) {
+                            if (dataPoint.getUnixTimestamp() > lastEndTimestamps[0])
+                            {
+                                aggregators.get(0).submit(dataPoint).ifPresent(aggregation -> {
+                                    lastEndTimestamps[0] = aggregation.getEndTimestamp();
+                                    fromDataPoints.add(describe(aggregation));
+                                });
+                            }
+                        }
+
+                        @Override
+                        public void onBatch(DataPointBatch batch) {
+                            DataPointListener.super.onBatch(batch);
+                            aggregators.get(1).submit(batch,
+                                    timestamp -> timestamp > lastEndTimestamps[1],
+                                    aggregation -> {
+                                        lastEndTimestamps[1] = aggregation.getEndTimestamp();
+                                        fromBatches.add(describe(aggregation));
+                                    });
+                        }
+                    })
+                    .build().parse();
+
+            //then
+            assertEquals(4, fromDataPoints.size());
+            assertEquals(fromDataPoints, fromBatches);
+        }
+    }
+
+    @Test
+    void submit_by_event_time() throws CsvValidationException, IOException {
+        //given lines out of order, as from two nodes, the last one too late
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",11,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",12,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",16,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",14,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",27,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",21,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",22,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",26,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",40,\"GET /report HTTP/1.0\",200,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",29,\"GET /report HTTP/1.0\",200,1");
+        var dataPointAggregator = Aggregator.bySection(5).withAllowedLateness(5);
+        var batchAggregator = Aggregator.bySection(5).withAllowedLateness(5);
+        var fromDataPoints = new ArrayList<String>();
+        var fromBatches = new ArrayList<String>();
+
+        //when
+        CSVLogParser.builder(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))
+                .withBatchSize(3)
+                .withListeners(new DataPointListener() {
+                    @Override
+                    public void onDataPoint(DataPoint dataPoint) {
+                        dataPointAggregator.submit(dataPoint, aggregation -> fromDataPoints.add(describe(aggregation)));
+                    }
+
+                    @Override
+                    public void onBatch(DataPointBatch batch) {
+                        DataPointListener.super.onBatch(batch);
+                        batchAggregator.submit(batch, aggregation -> fromBatches.add(describe(aggregation)));
+                    }
+                })
+                .build().parse();
+        var completedBeforeFlush = fromDataPoints.size();
+        dataPointAggregator.flush(aggregation -> fromDataPoints.add(describe(aggregation)));
+        batchAggregator.flush(aggregation -> fromBatches.add(describe(aggregation)));
+
+        //then: the intervals are completed in order once the watermark passes them, the last one by the flush
+        assertEquals(4, completedBeforeFlush);
+        assertEquals(List.of("10 15 3 2", "15 20 1 1", "20 25 2 1", "25 30 2 1", "40 45 1 1"), fromDataPoints);
+        assertEquals(fromDataPoints, fromBatches);
+        assertEquals(1, dataPointAggregator.getLateCount());
+        assertEquals(1, batchAggregator.getLateCount());
+    }
+
+    @Test
+    void submit_by_cuboids() throws CsvValidationException, IOException {
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1,\"GET /api/user HTTP/1.0\",200,1"
+                , "\"10.0.0.2\",\"-\",\"apache\",2,\"GET /api/user HTTP/1.0\",503,1"
+                , "\"host.example\",\"-\",\"apache\",3,\"GET /report HTTP/1.0\",500,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",4,\"GET /api/user HTTP/1.0\",502,1"
+                , "\"10.0.0.1\",\"-\",\"apache\",10,\"GET /report HTTP/1.0\",200,1");
+        var sectionStatusClass = Cuboid.of(Dimension.SECTION, Dimension.STATUS_CLASS);
+        var remoteHost = Cuboid.of(Dimension.REMOTE_HOST);
+        var fromDataPoints = new ArrayList<Aggregation>();
+        var fromBatches = new ArrayList<Aggregation>();
+        var dataPointAggregator = Aggregator.byCuboids(10, Cuboid.SECTION, sectionStatusClass, remoteHost);
+        var batchAggregator = Aggregator.byCuboids(10, Cuboid.SECTION, sectionStatusClass, remoteHost);
+
+        //when
+        CSVLogParser.builder(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))
+                .withBatchSize(2)
+                .withListeners(new DataPointListener() {
+                    @Override
+                    public void onDataPoint(DataPoint dataPoint) {
+                        dataPointAggregator.submit(dataPoint).ifPresent(fromDataPoints::add);
+                    }
+
+                    @Override
+                    public void onBatch(DataPointBatch batch) {
+                        DataPointListener.super.onBatch(batch);
+                        batchAggregator.submit(batch, fromBatches::add);
+                    }
+                })
+                .build().parse();
+
+        //then
+        for (var aggregations : List.of(fromDataPoints, fromBatches))
+        {
+            assertEquals(1, aggregations.size());
+            var aggregation = aggregations.get(0);
+            assertEquals(4, aggregation.getTotalCount());
+            assertEquals(3, aggregation.getLabelCount(Labels.of("/api")));
+            assertEquals(1, aggregation.getLabelCount(Cuboid.SECTION, Labels.of("/report")));
+            assertEquals(2, aggregation.getLabelCount(sectionStatusClass, Labels.of("/api").withStatus(500)));
+            assertEquals(1, aggregation.getLabelCount(sectionStatusClass, Labels.of("/report").withStatus(500)));
+            assertEquals(0, aggregation.getLabelCount(sectionStatusClass, Labels.of("/report").withStatus(200)));
+            var remoteHosts = aggregation.getLabelCounts(remoteHost);
+            assertEquals(3, remoteHosts.size());
+            assertEquals(2, remoteHosts.get(Labels.ofKey(0).withRemoteHost("10.0.0.1")));
+            assertEquals(1, remoteHosts.get(Labels.ofKey(0).withRemoteHost("host.example")));
+        }
+    }
+
+    @Test
+    void labels_keys() {
+        var labels = Labels.of("/api").withStatus(404).withRemoteHost("192.168.0.1");
+        assertEquals("/api", labels.getSection());
+        assertEquals(4, labels.getStatusClass());
+        assertEquals("192.168.0.1", labels.getRemoteHost());
+        assertEquals(labels, Labels.ofKey(labels.getKey()));
+
+        var named = Labels.ofKey(0).withStatus(999).withRemoteHost("host.example");
+        assertEquals("", named.getSection());
+        assertEquals(Labels.OTHER_STATUS_CLASS, named.getStatusClass());
+        assertEquals("host.example", named.getRemoteHost());
+        assertEquals(labels.getKey() & Labels.mask(Dimension.SECTION),
+                Labels.of("/api").getKey());
+    }
+
+    @Test
+    void submit_with_max_labels_keeps_heavy_hitter_ids() throws CsvValidationException, IOException {
+        //given a section heavy early in the interval, then quiet during a flood of one-off sections which overflows
+        //the bounded table of sections many times over
+        var content = new StringBuilder("\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"\n");
+        for (int i = 0; i < 1000; i++)
+        {
+            content.append("\"10.0.0.1\",\"-\",\"apache\",1,\"GET /heavy HTTP/1.0\",200,1\n");
+        }
+        for (int i = 0; i < 5000; i++)
+        {
+            content.append("\"10.0.0.1\",\"-\",\"apache\",2,\"GET /flood").append(i).append(" HTTP/1.0\",200,1\n");
+        }
+        content.append("\"10.0.0.1\",\"-\",\"apache\",10,\"GET /next HTTP/1.0\",200,1\n");
+        var sections = SectionTable.global();
+        sections.limitSize(sections.size() + 1000);
+        try
+        {
+            //counts overestimated by at most 6000/100
+            var aggregator = Aggregator.bySection(10).withMaxLabels(100);
+            var completed = new ArrayList<Aggregation>();
+
+            //when
+            CSVLogParser.builder(new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)))
+                    .withListeners(dataPoint -> aggregator.submit(dataPoint, completed::add))
+                    .build().parse();
+
+            //then: the count of the heavy section is still its own, not the one of a flood section taking its id
+            assertTrue(sections.getReassignedCount() > 0);
+            assertEquals(1, completed.size());
+            var top = completed.get(0).getLabelCounts().entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .orElseThrow();
+            assertEquals("/heavy", top.getKey().getSection());
+            assertTrue(top.getValue() >= 1000);
+            aggregator.flush(completed::add);
+        } finally
+        {
+            sections.limitSize(Integer.MAX_VALUE);
+        }
+    }
+
+    private static String describe(Aggregation aggregation) {
+        return aggregation.getBeginTimestamp() + " " + aggregation.getEndTimestamp() + " "
+                + aggregation.getTotalCount() + " " + aggregation.getLabelCounts().size();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+
+    @Test
+    void quantiles_and_merge() {
+        //given: sizes spread over several orders of magnitude, in two histograms
+        var random = new Random(13);
+        long[] values = new long[100_000];
+        var first = new Histogram();
+        var second = new Histogram();
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            (i % 2 == 0 ? first : second).record(values[i]);
+        }
+        Arrays.sort(values);
+
+        //when
+        var merged = first.copy();
+        merged.addAll(second);
+
+        //then
+        assertEquals(values.length, merged.getTotalCount());
+        for (double quantile : new double[]{0, 0.01, 0.5, 0.9, 0.99, 1})
+        {
+            long expected = values[Math.max(0, (int) Math.ceil(quantile * values.length) - 1)];
+            long actual = merged.quantile(quantile);
+            assertTrue(Math.abs(actual - expected) <= Math.max(1, expected / 64), quantile + ": " + actual);
+        }
+        assertEquals(-1, new Histogram().quantile(0.5));
+    }
+
+    @Test
+    void buckets() {
+        for (long value = 0; value < 100_000; value++)
+        {
+            long middle = Histogram.middle(Histogram.bucket(value));
+            assertTrue(Math.abs(middle - value) <= value / 64, value + ": " + middle);
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.middle(Histogram.bucket(Long.MAX_VALUE)), Long.MAX_VALUE / 64.0);
+    }
+
+    @Test
+    void bytes_quantiles_by_section() {
+        //given: small responses on /a and large ones on /b
+        var batch = new DataPointBatch(2001);
+        byte[] remoteHost = "10.0.0.1".getBytes(StandardCharsets.UTF_8);
+        int a = Labels.of("/a").getSectionId();
+        int b = Labels.of("/b").getSectionId();
+        for (int i = 1; i <= 1000; i++)
+        {
+            batch.add(0, a, 200, i, remoteHost, 0, remoteHost.length);
+            batch.add(1, b, 200, 1000L * i, remoteHost, 0, remoteHost.length);
+        }
+        batch.add(10, a, 200, 0, remoteHost, 0, remoteHost.length);
+        var fromBatches = new ArrayList<Aggregation>();
+        var fromDataPoints = new ArrayList<Aggregation>();
+
+        //when
+        Aggregator.bySection(10).withBytesQuantiles(true).submit(batch, fromBatches::add);
+        var aggregator = Aggregator.bySection(10).withBytesQuantiles(true);
+        for (int row = 0; row < batch.size(); row++)
+        {
+            aggregator.submit(batch.getDataPoint(row)).ifPresent(fromDataPoints::add);
+        }
+
+        //then
+        for (var aggregations : List.of(fromBatches, fromDataPoints))
+        {
+            var aggregation = aggregations.get(0);
+            assertEquals(500, aggregation.getBytesQuantile(Labels.of("/a"), 0.5).orElseThrow(), 8);
+            assertEquals(990, aggregation.getBytesQuantile(Labels.of("/a"), 0.99).orElseThrow(), 16);
+            assertEquals(990_000, aggregation.getBytesQuantile(Labels.of("/b"), 0.99).orElseThrow(), 16_000);
+            assertEquals(1000, aggregation.getBytesQuantile(0.5).orElseThrow(), 16);
+            assertTrue(aggregation.getBytesQuantile(Labels.of("/c"), 0.5).isEmpty());
+            var sum = aggregation.sum(aggregation);
+            assertEquals(aggregation.getBytesQuantile(0.99), sum.getBytesQuantile(0.99));
+        }
+        assertTrue(new Aggregation(0, 10).getBytesQuantile(0.5).isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    @Test
+    void estimate_and_merge() {
+        //given: two sketches of overlapping IP addresses
+        var first = new HyperLogLog();
+        var second = new HyperLogLog();
+        for (int i = 0; i < 100_000; i++)
+        {
+            first.add(HyperLogLog.hash(address(i)));
+            second.add(HyperLogLog.hash(address(i + 50_000)));
+        }
+        var small = new HyperLogLog();
+        for (int i = 0; i < 100; i++)
+        {
+            small.add(HyperLogLog.hash(address(i)));
+            small.add(HyperLogLog.hash(address(i)));
+        }
+
+        //when
+        var union = first.copy();
+        union.addAll(second);
+
+        //then: within 4 standard errors
+        assertEstimate(100_000, first.estimate());
+        assertEstimate(150_000, union.estimate());
+        assertEquals(100, small.estimate(), 2);
+        union.clear();
+        assertEquals(0, union.estimate());
+    }
+
+    @Test
+    void distinct_remote_hosts_by_interval_and_window() {
+        //given: 1000 hosts per 1 second interval, half of them seen in the previous interval too
+        var aggregator = new Aggregator(1).withDistinctRemoteHosts();
+        var batch = new DataPointBatch(10_000);
+        for (int second = 0; second < 5; second++)
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                byte[] remoteHost = address(second * 500 + i).getBytes(StandardCharsets.UTF_8);
+                batch.add(second, 0, 200, 1, remoteHost, 0, remoteHost.length);
+            }
+        }
+        var completed = new ArrayList<Aggregation>();
+        var timeWindow = new TimeWindow(3, 1);
+
+        //when
+        aggregator.submit(batch, completed::add);
+        completed.forEach(timeWindow::submit);
+
+        //then: the window holds the last 3 completed intervals, i.e. seconds 1 to 3
+        assertEquals(4, completed.size());
+        for (var aggregation : completed)
+        {
+            assertEstimate(1000, aggregation.getDistinctRemoteHosts().orElseThrow());
+        }
+        assertEstimate(2000, timeWindow.getDistinctRemoteHosts().orElseThrow());
+        var sum = completed.get(0).sum(completed.get(1));
+        assertEstimate(1500, sum.getDistinctRemoteHosts().orElseThrow());
+        assertTrue(new Aggregation(0, 1).getDistinctRemoteHosts().isEmpty());
+    }
+
+    private static void assertEstimate(long expected, long estimate) {
+        assertTrue(Math.abs(estimate - expected) <= expected * 0.065, estimate + " instead of " + expected);
+    }
+
+    private static String address(int i) {
+        return "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+    }
+}
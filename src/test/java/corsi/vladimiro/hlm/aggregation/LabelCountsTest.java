@@ -0,0 +1,66 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LabelCountsTest {
+
+    @Test
+    void increment_and_get() {
+        //given: enough keys to grow the table more times
+        var labelCounts = new LabelCounts();
+        Map<Long, Long> expected = new HashMap<>();
+        var random = new Random(7);
+        for (int i = 0; i < 100_000; i++)
+        {
+            long key = random.nextInt(5000) * 1_000_003L;
+            labelCounts.increment(key, i % 3 + 1);
+            expected.merge(key, (long) (i % 3 + 1), Long::sum);
+        }
+
+        //then
+        assertEquals(expected.size(), labelCounts.size());
+        for (var e : expected.entrySet())
+        {
+            assertEquals(e.getValue(), labelCounts.get(e.getKey()));
+        }
+        assertEquals(0, labelCounts.get(1));
+        Map<Long, Long> visited = new HashMap<>();
+        labelCounts.forEach(visited::put);
+        assertEquals(expected, visited);
+        assertEquals(expected, toMap(new LabelCounts(labelCounts)));
+    }
+
+    @Test
+    void aggregation_view() {
+        //given
+        var aggregation = new Aggregation(0, 10);
+        aggregation.increment(Labels.of("/a"));
+        aggregation.increment(Labels.of("/a"));
+        aggregation.increment(Labels.of("/b"));
+        var other = new Aggregation(0, 10);
+        other.increment(Labels.of("/b"));
+        other.increment(Labels.of("/c"));
+
+        //when
+        var sum = aggregation.sum(other);
+
+        //then
+        assertEquals(Map.of(Labels.of("/a"), 2L, Labels.of("/b"), 1L), aggregation.getLabelCounts());
+        assertEquals(Map.of(Labels.of("/a"), 2L, Labels.of("/b"), 2L, Labels.of("/c"), 1L), sum.getLabelCounts());
+        assertEquals(5, sum.getTotalCount());
+        assertEquals(2, sum.getLabelCount(Labels.of("/b")));
+        assertEquals(0, aggregation.getLabelCount(Labels.of("/c")));
+    }
+
+    private static Map<Long, Long> toMap(LabelCounts labelCounts) {
+        Map<Long, Long> map = new HashMap<>();
+        labelCounts.forEach(map::put);
+        return map;
+    }
+}
@@ -0,0 +1,123 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingCountsTest {
+
+    private static final int MAX_KEYS = 100;
+
+    @Test
+    void exact_below_max_keys() {
+        var spaceSaving = new SpaceSavingCounts(MAX_KEYS);
+        var labelCounts = new LabelCounts();
+        var random = new Random(3);
+        for (int i = 0; i < 10_000; i++)
+        {
+            long key = random.nextInt(MAX_KEYS - 1) * 7919L;
+            spaceSaving.increment(key, i % 2 + 1);
+            labelCounts.increment(key, i % 2 + 1);
+        }
+
+        assertEquals(labelCounts.size(), spaceSaving.size());
+        assertEquals(toMap(labelCounts), toMap(spaceSaving));
+        assertEquals(toMap(labelCounts), toMap(spaceSaving.copy()));
+        assertEquals(0, spaceSaving.minCount());
+    }
+
+    @Test
+    void heavy_hitters_in_bounded_memory() {
+        //given: a skewed stream of a million distinct keys, where keys below 20 are heavy hitters
+        var spaceSaving = new SpaceSavingCounts(MAX_KEYS);
+        Map<Long, Long> expected = new HashMap<>();
+        long total = 0;
+        var random = new Random(11);
+        for (long i = 0; i < 1_000_000; i++)
+        {
+            long key = i % 3 == 0 ? random.nextInt(20) : 20 + i;
+            spaceSaving.increment(key, 1);
+            expected.merge(key, 1L, Long::sum);
+            total++;
+        }
+
+        //then
+        assertEquals(MAX_KEYS, spaceSaving.size());
+        assertCounts(expected, total, spaceSaving);
+        for (long key = 0; key < 20; key++)
+        {
+            assertTrue(spaceSaving.get(key) >= expected.get(key));
+        }
+    }
+
+    @Test
+    void merge() {
+        //given: two halves of a skewed stream with different heavy hitters
+        var first = new SpaceSavingCounts(MAX_KEYS);
+        var second = new SpaceSavingCounts(MAX_KEYS);
+        Map<Long, Long> expected = new HashMap<>();
+        long total = 0;
+        var random = new Random(5);
+        for (long i = 0; i < 200_000; i++)
+        {
+            boolean inFirst = i % 2 == 0;
+            long key = i % 4 < 2 ? random.nextInt(10) + (inFirst ? 0 : 5) : 100 + random.nextInt(50_000);
+            (inFirst ? first : second).increment(key, 1);
+            expected.merge(key, 1L, Long::sum);
+            total++;
+        }
+
+        //when
+        first.addAll(second);
+
+        //then
+        assertEquals(MAX_KEYS, first.size());
+        assertCounts(expected, total, first);
+        for (long key = 0; key < 15; key++)
+        {
+            assertTrue(first.get(key) >= expected.get(key));
+        }
+
+        //when: merging exact counts into a table which is not full
+        var exact = new LabelCounts();
+        exact.increment(1, 3);
+        exact.increment(2, 4);
+        var notFull = new SpaceSavingCounts(MAX_KEYS);
+        notFull.increment(1, 2);
+        notFull.addAll(exact);
+
+        //then
+        assertEquals(Map.of(1L, 5L, 2L, 4L), toMap(notFull));
+    }
+
+    /**
+     * Checks that counts are never underestimated and overestimated by at most total/MAX_KEYS, and that the heap
+     * and its index agree.
+     */
+    private static void assertCounts(Map<Long, Long> expected, long total, SpaceSavingCounts spaceSaving) {
+        for (var e : toMap(spaceSaving).entrySet())
+        {
+            long trueCount = expected.getOrDefault(e.getKey(), 0L);
+            assertEquals(e.getValue(), spaceSaving.get(e.getKey()));
+            assertTrue(e.getValue() >= trueCount, e.toString());
+            assertTrue(e.getValue() - trueCount <= total / MAX_KEYS, e.toString());
+        }
+    }
+
+    private static Map<Long, Long> toMap(Breakdown breakdown) {
+        Map<Long, Long> map = new HashMap<>();
+        for (int slot = 0; slot < breakdown.capacity(); slot++)
+        {
+            if (breakdown.keyAt(slot) >= 0)
+            {
+                map.put(breakdown.keyAt(slot), breakdown.countAt(slot));
+            }
+        }
+        return map;
+    }
+}
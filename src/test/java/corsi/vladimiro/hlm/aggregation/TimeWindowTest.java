@@ -0,0 +1,43 @@
+package corsi.vladimiro.hlm.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeWindowTest {
+
+    @Test
+    void submit_out_of_order() {
+        //given: a window of 3 intervals of 10 seconds
+        var evicted = new ArrayList<Aggregation>();
+        var timeWindow = new TimeWindow(30, 10, evicted::add);
+
+        //when: aggregations of 1 to 5 hits, out of order
+        timeWindow.submit(aggregation(12, 1));
+        timeWindow.submit(aggregation(25, 2));
+        timeWindow.submit(aggregation(3, 3));
+        timeWindow.submit(aggregation(17, 4));
+        timeWindow.submit(aggregation(61, 5));
+        timeWindow.submit(aggregation(29, 6));
+        timeWindow.submit(aggregation(45, 7));
+
+        //then: the intervals before 40 left the window in order, the late one is not merged into them
+        assertEquals(List.of(0L, 10L, 20L), evicted.stream().map(Aggregation::getBeginTimestamp).collect(Collectors.toList()));
+        assertEquals(List.of(3L, 5L, 2L), evicted.stream().map(Aggregation::getTotalCount).collect(Collectors.toList()));
+        assertEquals(20, evicted.get(1).getEndTimestamp());
+        assertEquals(6, timeWindow.getLateCount());
+        assertEquals(12, timeWindow.getCount());
+        assertEquals(70, timeWindow.getEndOfWindow());
+    }
+
+    private static Aggregation aggregation(long timestamp, long count)
+    {
+        var aggregation = new Aggregation(timestamp, timestamp + 1);
+        aggregation.increment(count);
+        return aggregation;
+    }
+}
@@ -0,0 +1,77 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void checkpoint_and_resume() throws IOException, CsvValidationException {
+        //given
+        Path file = Files.write(tempDir.resolve("access.log"), List.of(
+                "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"",
+                line(1), line(5), line(12), line(15), line(21), line(22)));
+        Path checkpointFile = tempDir.resolve("checkpoint");
+        assertTrue(Checkpointer.load(checkpointFile).isEmpty());
+
+        //when
+        try (var is = new MappedFileInputStream(file);
+             var checkpointer = new Checkpointer(checkpointFile, is, 10, 60_000, true))
+        {
+            CSVLogParser.builder(is).withOffsetListener(checkpointer).build().parse();
+        }
+
+        //then the checkpoint points to the line opening the last interval
+        var checkpoint = Checkpointer.load(checkpointFile).orElseThrow();
+        assertEquals(20, checkpoint.getLastCompletedEndTimestamp());
+        assertEquals(FileInput.fileIdentityOf(file).orElseThrow(), checkpoint.getFileIdentity());
+
+        //when resuming
+        var dataPoints = new ArrayList<DataPoint>();
+        try (var is = new MappedFileInputStream(file, checkpoint.getOffset(), Long.MAX_VALUE))
+        {
+            CSVLogParser.builder(is).withoutHeader().withListeners(dataPoints::add).build().parse();
+        }
+
+        //then
+        assertEquals(List.of(21L, 22L),
+                dataPoints.stream().map(DataPoint::getUnixTimestamp).collect(Collectors.toList()));
+    }
+
+    @Test
+    void load_corrupt() throws IOException {
+        Path checkpointFile = tempDir.resolve("checkpoint");
+        //truncated, missing keys, invalid values
+        for (var content : List.of("", "fileIdentity=1\noffset=12",
+                "fileIdentity=1\noffset=1\nlastCompletedEndTimestamp=x",
+                "offset=1\nlastCompletedEndTimestamp=10",
+                "fileIdentity=1\noffset=-1\nlastCompletedEndTimestamp=10"))
+        {
+            Files.writeString(checkpointFile, content);
+            assertTrue(Checkpointer.load(checkpointFile).isEmpty(), content);
+        }
+        Files.writeString(checkpointFile, "fileIdentity=1\noffset=12\nlastCompletedEndTimestamp=10");
+        assertEquals(12, Checkpointer.load(checkpointFile).orElseThrow().getOffset());
+    }
+
+    private static String line(long timestamp)
+    {
+        return "\"10.0.0.1\",\"-\",\"apache\"," + timestamp + ",\"GET /api/user HTTP/1.0\",200,1234";
+    }
+}
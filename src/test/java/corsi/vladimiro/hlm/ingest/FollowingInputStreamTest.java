@@ -0,0 +1,90 @@
+package corsi.vladimiro.hlm.ingest;
+
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FollowingInputStreamTest {
+
+    private static final String HEADER =
+            "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void follow_appends_truncation_and_rotation() throws Exception {
+        //given
+        Path file = tempDir.resolve("access.log");
+        Files.writeString(file, HEADER + line(1));
+        var dataPoints = new CopyOnWriteArrayList<DataPoint>();
+        var is = new FollowingInputStream(file, 0, 10);
+        var parsing = CompletableFuture.runAsync(() -> {
+            try
+            {
+                CSVLogParser.builder(is).withListeners(dataPoints::add).build().parse();
+            } catch (Exception e)
+            {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        //when appending, also a line written in two steps
+        awaitTimestamps(dataPoints, 1);
+        append(file, line(2) + line(3).substring(0, 10));
+        awaitTimestamps(dataPoints, 1, 2);
+        append(file, line(3).substring(10));
+        awaitTimestamps(dataPoints, 1, 2, 3);
+
+        //when rotating
+        Files.move(file, tempDir.resolve("access.log.1"));
+        Files.writeString(file, HEADER + line(4));
+        awaitTimestamps(dataPoints, 1, 2, 3, 4);
+
+        //when truncating
+        Files.writeString(file, line(5), StandardOpenOption.TRUNCATE_EXISTING);
+        awaitTimestamps(dataPoints, 1, 2, 3, 4, 5);
+
+        //then closing the stream ends parsing
+        is.close();
+        parsing.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void awaitTimestamps(List<DataPoint> dataPoints, long... expected) throws InterruptedException
+    {
+        var expectedList = java.util.Arrays.stream(expected).boxed().collect(Collectors.toList());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && dataPoints.size() < expected.length)
+        {
+            Thread.sleep(5);
+        }
+        assertTrue(dataPoints.size() >= expected.length);
+        assertEquals(expectedList,
+                dataPoints.stream().map(DataPoint::getUnixTimestamp).collect(Collectors.toList()));
+    }
+
+    private static void append(Path file, String content) throws IOException
+    {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static String line(long timestamp)
+    {
+        return "\"10.0.0.1\",\"-\",\"apache\"," + timestamp + ",\"GET /api/user HTTP/1.0\",200,1234\n";
+    }
+}
@@ -0,0 +1,141 @@
+package corsi.vladimiro.hlm.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipFileInputStreamTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void read_single_member() throws IOException {
+        //given
+        byte[] content = lines(0, 20_000);
+        Path file = Files.write(tempDir.resolve("log.gz"), gzip(content, Deflater.DEFAULT_COMPRESSION));
+
+        //when
+        byte[] read;
+        try (var is = new GzipFileInputStream(file, 4, 1000, 64))
+        {
+            read = readFully(is);
+        }
+
+        //then
+        assertTrue(GzipFileInputStream.isGzip(file));
+        assertArrayEquals(content, read);
+    }
+
+    @Test
+    void read_members_in_parallel() throws IOException {
+        //given: members of different sizes, one of them stored with a gzip header inside its compressed data
+        var content = new ByteArrayOutputStream();
+        var file = new ByteArrayOutputStream();
+        for (int member = 0; member < 30; member++)
+        {
+            byte[] memberContent = member == 7
+                    ? gzip(lines(0, 10), Deflater.DEFAULT_COMPRESSION)
+                    : lines(member * 1000, member * 1000 + member * 37);
+            content.write(memberContent);
+            file.write(gzip(memberContent, member == 7 ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION));
+        }
+        //trailing bytes are ignored
+        file.write(new byte[]{0, 0, 0});
+        Path path = Files.write(tempDir.resolve("log.gz"), file.toByteArray());
+
+        //when: with the default scan block and with blocks smaller than the members, scanned as reading goes
+        for (int scanBlockSize : new int[]{1 << 20, 64})
+        {
+            byte[] read;
+            try (var is = new GzipFileInputStream(path, 4, 100, scanBlockSize))
+            {
+                read = readFully(is);
+            }
+
+            //then
+            assertArrayEquals(content.toByteArray(), read);
+        }
+    }
+
+    @Test
+    void read_corrupt_member() throws IOException {
+        //given: the CRC of the second member is wrong, the third member is truncated
+        byte[] first = gzip(lines(0, 100), Deflater.DEFAULT_COMPRESSION);
+        byte[] second = gzip(lines(100, 200), Deflater.DEFAULT_COMPRESSION);
+        second[second.length - 8]++;
+        byte[] third = gzip(lines(200, 300), Deflater.DEFAULT_COMPRESSION);
+        Path corrupt = Files.write(tempDir.resolve("corrupt.gz"), concat(first, second));
+        Path truncated = Files.write(tempDir.resolve("truncated.gz"),
+                concat(first, Arrays.copyOf(third, third.length - 20)));
+        Path plain = Files.write(tempDir.resolve("plain"), lines(0, 1));
+
+        //then
+        try (var is = new GzipFileInputStream(corrupt, 2, 100, 64))
+        {
+            assertThrows(IOException.class, () -> readFully(is));
+        }
+        try (var is = new GzipFileInputStream(truncated, 2, 100, 64))
+        {
+            assertThrows(IOException.class, () -> readFully(is));
+        }
+        assertFalse(GzipFileInputStream.isGzip(plain));
+        assertThrows(IOException.class, () -> new GzipFileInputStream(plain));
+    }
+
+    private static byte[] lines(int from, int to) {
+        var sb = new StringBuilder();
+        var random = new Random(from);
+        for (int i = from; i < to; i++)
+        {
+            sb.append("\"10.0.0.").append(random.nextInt(256)).append("\",\"-\",\"apache\",").append(1549574332 + i)
+                    .append(",\"GET /api/user HTTP/1.0\",200,").append(random.nextInt(10_000)).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content, int level) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var os = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(level);
+            }
+        })
+        {
+            os.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int read;
+        while ((read = is.read(buffer, 0, buffer.length)) >= 0)
+        {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
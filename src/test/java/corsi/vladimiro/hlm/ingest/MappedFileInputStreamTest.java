@@ -0,0 +1,59 @@
+package corsi.vladimiro.hlm.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedFileInputStreamTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void read_across_windows() throws IOException {
+        //given
+        byte[] content = "line one\nline two\nline three\n".getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(tempDir.resolve("log.txt"), content);
+
+        //when
+        var out = new ByteArrayOutputStream();
+        try (var is = new MappedFileInputStream(file, 4))
+        {
+            byte[] buffer = new byte[3];
+            int read;
+            while ((read = is.read(buffer, 0, buffer.length)) >= 0)
+            {
+                out.write(buffer, 0, read);
+            }
+            assertEquals(content.length, is.position());
+        }
+
+        //then
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    void skip() throws IOException {
+        //given
+        byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(tempDir.resolve("log.txt"), content);
+
+        //when
+        try (var is = new MappedFileInputStream(file, 4))
+        {
+            assertEquals('0', is.read());
+            assertEquals(6, is.skip(6));
+            assertEquals('7', is.read());
+            assertEquals(2, is.skip(5));
+            assertEquals(-1, is.read());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package corsi.vladimiro.hlm.ingest;
+
+import corsi.vladimiro.hlm.parsing.MalformedLineReason;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MergingFileParserTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void parse_merges_by_timestamp() throws IOException {
+        //given: node i logs at timestamps i, i + 3, i + 6...
+        var paths = new ArrayList<Path>();
+        for (int node = 0; node < 3; node++)
+        {
+            var lines = new ArrayList<String>();
+            lines.add("\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"");
+            for (long timestamp = node; timestamp < 300; timestamp += 3)
+            {
+                lines.add("\"10.0.0." + node + "\",\"-\",\"apache\"," + (1549574332 + timestamp)
+                        + ",\"GET /api/user HTTP/1.0\",200," + timestamp);
+            }
+            lines.add("\"10.0.0." + node + "\",\"-\",\"apache\",not a timestamp,\"GET /api HTTP/1.0\",200,1");
+            paths.add(Files.write(tempDir.resolve("node" + node), lines));
+        }
+
+        //when: batches smaller than the files so that readers wait for the merge
+        var merged = new ArrayList<Long>();
+        var parser = MergingFileParser.builder(paths)
+                .withListeners(dataPoint -> merged.add(dataPoint.getBytes()))
+                .withBatchSize(7)
+                .build();
+        parser.parse();
+
+        //then
+        assertEquals(300, merged.size());
+        for (int i = 0; i < merged.size(); i++)
+        {
+            assertEquals(i, merged.get(i));
+        }
+        assertEquals(3, parser.getMalformedLineCount(MalformedLineReason.BAD_TIMESTAMP));
+    }
+
+    @Test
+    void parse_missing_file() throws IOException {
+        //given
+        Path file = Files.write(tempDir.resolve("node0"), List.of(
+                "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"",
+                "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"));
+
+        //when, then
+        var parser = MergingFileParser.builder(List.of(file, tempDir.resolve("missing")))
+                .withListeners(dataPoint -> {})
+                .build();
+        assertThrows(IOException.class, parser::parse);
+    }
+}
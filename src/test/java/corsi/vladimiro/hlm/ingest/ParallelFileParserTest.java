@@ -0,0 +1,89 @@
+package corsi.vladimiro.hlm.ingest;
+
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointBatch;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelFileParserTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void parse_preserves_file_order() throws IOException, CsvValidationException {
+        //given
+        var lines = new ArrayList<String>();
+        lines.add("\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"");
+        for (int i = 0; i < 1000; i++)
+        {
+            lines.add("\"10.0.0." + (i % 7) + "\",\"-\",\"apache\"," + (1549574332 + i % 13)
+                    + ",\"GET /section" + (i % 5) + "/user HTTP/1.0\",200," + i);
+        }
+        Path file = Files.write(tempDir.resolve("log.txt"), lines);
+
+        //when
+        var sequential = new ArrayList<String>();
+        CSVLogParser.builder(Files.newInputStream(file))
+                .withListeners(dataPoint -> sequential.add(describe(dataPoint)))
+                .build().parse();
+        var parallel = new ArrayList<String>();
+        var batchSizes = new ArrayList<Integer>();
+        ParallelFileParser.builder(file)
+                .withListeners(new DataPointListener() {
+                    @Override
+                    public void onDataPoint(DataPoint dataPoint) {
+                        //a flyweight, which must not be retained
+                        parallel.add(describe(dataPoint));
+                    }
+
+                    @Override
+                    public void onBatch(DataPointBatch batch) {
+                        batchSizes.add(batch.size());
+                        DataPointListener.super.onBatch(batch);
+                    }
+                })
+                .withChunkSize(1000)
+                .withBatchSize(4)
+                .withParallelism(4)
+                .build().parse();
+
+        //then: the same points in the same order, delivered in batches
+        assertEquals(1000, sequential.size());
+        assertEquals(sequential, parallel);
+        assertTrue(batchSizes.stream().allMatch(size -> size > 0 && size <= 4));
+        assertTrue(batchSizes.size() >= 1000 / 4);
+    }
+
+    private static String describe(DataPoint dataPoint) {
+        return dataPoint.getUnixTimestamp() + " " + dataPoint.getSection() + " " + dataPoint.getBytes() + " "
+                + dataPoint.getRemoteHost();
+    }
+
+    @Test
+    void splitInChunks() throws IOException {
+        //given
+        Path file = Files.write(tempDir.resolve("log.txt"), List.of("aaaa", "bb", "c", "dddddd"));
+
+        //when
+        var chunks = ParallelFileParser.splitInChunks(file, 3);
+
+        //then
+        assertEquals(3, chunks.size());
+        assertEquals(List.of(0L, 5L), List.of(chunks.get(0)[0], chunks.get(0)[1]));
+        assertEquals(List.of(5L, 10L), List.of(chunks.get(1)[0], chunks.get(1)[1]));
+        assertEquals(List.of(10L, 17L), List.of(chunks.get(2)[0], chunks.get(2)[1]));
+    }
+}
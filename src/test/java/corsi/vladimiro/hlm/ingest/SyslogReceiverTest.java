@@ -0,0 +1,131 @@
+package corsi.vladimiro.hlm.ingest;
+
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.MalformedLineReason;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyslogReceiverTest {
+
+    private static final String LINE = "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,";
+
+    @Test
+    void receive_tcp_and_udp() throws Exception {
+        //given
+        Set<Long> received = ConcurrentHashMap.newKeySet();
+        var parser = CSVLogParser.builder()
+                .withListeners(dataPoint -> received.add(dataPoint.getBytes()))
+                .withBatchSize(16)
+                .build();
+        var loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        var receiver = SyslogReceiver.builder(parser).withTcp(loopback).withUdp(loopback).build();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        Future<?> loop = executor.submit(() -> {
+            receiver.run();
+            return null;
+        });
+
+        //when: concurrent connections, written in small pieces, and datagrams with more lines
+        var senders = new ArrayList<Future<?>>();
+        for (int connection = 0; connection < 4; connection++)
+        {
+            long first = connection * 1000L;
+            senders.add(executor.submit(() -> {
+                try (var socket = new Socket(receiver.getTcpAddress().getAddress(),
+                        receiver.getTcpAddress().getPort()))
+                {
+                    OutputStream os = socket.getOutputStream();
+                    for (long bytes = first; bytes < first + 1000; bytes++)
+                    {
+                        var line = bytes % 2 == 0
+                                ? LINE + bytes + "\r\n"
+                                : "<165>1 2019-02-07T21:18:52Z host httpd - - [origin ip=\"10.0.0.1\"] " + LINE + bytes
+                                + "\n";
+                        var encoded = line.getBytes(StandardCharsets.UTF_8);
+                        os.write(encoded, 0, 10);
+                        os.flush();
+                        os.write(encoded, 10, encoded.length - 10);
+                    }
+                    //the last line is not terminated
+                    os.write((LINE + (first + 1000)).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            }));
+        }
+        try (var udp = DatagramChannel.open())
+        {
+            for (long bytes = 10_000; bytes < 10_100; bytes += 2)
+            {
+                var datagram = "<190>Feb  7 21:18:52 host nginx[42]: " + LINE + bytes + "\n" + LINE + (bytes + 1);
+                udp.send(ByteBuffer.wrap(datagram.getBytes(StandardCharsets.UTF_8)), receiver.getUdpAddress());
+            }
+        }
+        for (var sender : senders)
+        {
+            sender.get(10, TimeUnit.SECONDS);
+        }
+
+        //then
+        var expected = new ArrayList<Long>();
+        for (int connection = 0; connection < 4; connection++)
+        {
+            for (long bytes = connection * 1000L; bytes <= connection * 1000L + 1000; bytes++)
+            {
+                expected.add(bytes);
+            }
+        }
+        for (long bytes = 10_000; bytes < 10_100; bytes++)
+        {
+            expected.add(bytes);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!received.containsAll(expected) && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        receiver.close();
+        loop.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(received.containsAll(expected));
+        for (var reason : MalformedLineReason.values())
+        {
+            assertEquals(0, parser.getMalformedLineCount(reason));
+        }
+    }
+
+    @Test
+    void payload_begin() {
+        assertPayload(LINE, LINE);
+        assertPayload("<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 "
+                + "[exampleSDID@32473 iut=\"3\" eventSource=\"Appl]ication\\\"\"][x@1 a=\"b\"] " + LINE, LINE);
+        assertPayload("<165>1 2003-10-11T22:14:15.003Z host app 1 - - ﻿" + LINE, LINE);
+        assertPayload("<34>Oct 11 22:14:15 mymachine su: " + LINE, LINE);
+        assertPayload("<34>Oct 11 22:14:15 mymachine " + LINE, LINE);
+        assertPayload("<34>" + LINE, LINE);
+        assertPayload("<34", "<34");
+    }
+
+    private static void assertPayload(String line, String payload) {
+        byte[] bytes = ("xx" + line).getBytes(StandardCharsets.UTF_8);
+        int begin = SyslogReceiver.payloadBegin(bytes, 2, bytes.length);
+        assertEquals(payload, new String(bytes, begin, bytes.length - begin, StandardCharsets.UTF_8));
+    }
+}
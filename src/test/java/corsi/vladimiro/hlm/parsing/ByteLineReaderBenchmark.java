@@ -0,0 +1,134 @@
+package corsi.vladimiro.hlm.parsing;
+
+import corsi.vladimiro.hlm.ingest.MappedFileInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the splitting in lines of a memory mapped file by {@link ByteLineReader}, which copies the mapping
+ * through {@link MappedFileInputStream} into its heap buffer, against splitting the lines directly out of the
+ * {@link java.nio.MappedByteBuffer} without any copy, 8 bytes at a time as {@link ByteScanner#SWAR} does.
+ * The file (about 100 MB of log lines) is in the page cache, so that only the copy and the scan are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteLineReaderBenchmark {
+
+    private static final int LINES = 1_500_000;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long NEW_LINES = '\n' * ONES;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("hlm-benchmark", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            writer.write("\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"\n");
+            for (int i = 0; i < LINES; i++)
+            {
+                writer.write("\"10.0.0." + (i % 256) + "\",\"-\",\"apache\"," + (1549573860 + i / 100)
+                        + ",\"GET /api/s" + (i % 1000) + "/user HTTP/1.0\",200," + (i % 5000) + "\n");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long copyToHeap() throws IOException
+    {
+        long length = 0;
+        try (var is = new MappedFileInputStream(file))
+        {
+            var lineReader = new ByteLineReader(is);
+            while (lineReader.next())
+            {
+                length += lineReader.lineEnd() - lineReader.lineBegin();
+            }
+        }
+        return length;
+    }
+
+    @Benchmark
+    public long sliceMapping() throws IOException
+    {
+        long length = 0;
+        try (var channel = FileChannel.open(file))
+        {
+            var mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int limit = mapping.limit();
+            int lineBegin = 0;
+            int lineEnd;
+            while ((lineEnd = indexOfNewLine(mapping, lineBegin, limit)) >= 0)
+            {
+                length += lineEnd - lineBegin;
+                lineBegin = lineEnd + 1;
+            }
+            length += limit - lineBegin;
+        }
+        return length;
+    }
+
+    private static int indexOfNewLine(ByteBuffer buffer, int from, int to)
+    {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES)
+        {
+            long word = buffer.getLong(i) ^ NEW_LINES;
+            long mask = (word - ONES) & ~word & HIGH_BITS;
+            if (mask != 0)
+            {
+                return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+        }
+        for (; i < to; i++)
+        {
+            if (buffer.get(i) == '\n')
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ByteLineReaderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
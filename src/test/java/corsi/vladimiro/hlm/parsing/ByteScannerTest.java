@@ -0,0 +1,75 @@
+package corsi.vladimiro.hlm.parsing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ByteScannerTest {
+
+    private static final byte[] ALPHABET = {'a', ',', '"', '\\', '\n', 0, 1, (byte) 0x80, (byte) 0xFF, (byte) 0xAC};
+
+    @Test
+    void swar_same_as_scalar() {
+
+        //given
+        var random = new Random(42);
+        for (int run = 0; run < 200; run++)
+        {
+            byte[] buffer = randomBytes(random, random.nextInt(40));
+            for (int from = 0; from <= buffer.length; from++)
+            {
+                for (int to = from; to <= buffer.length; to++)
+                {
+                    for (byte b : ALPHABET)
+                    {
+                        //when, then
+                        assertEquals(ByteScanner.SCALAR.indexOf(buffer, from, to, b),
+                                ByteScanner.SWAR.indexOf(buffer, from, to, b));
+                    }
+                    assertEquals(ByteScanner.SCALAR.indexOfAny(buffer, from, to, (byte) ',', (byte) '"', (byte) '\\'),
+                            ByteScanner.SWAR.indexOfAny(buffer, from, to, (byte) ',', (byte) '"', (byte) '\\'));
+                    assertEquals(ByteScanner.SCALAR.indexOfAny(buffer, from, to, (byte) 0x80, (byte) 0, (byte) 0),
+                            ByteScanner.SWAR.indexOfAny(buffer, from, to, (byte) 0x80, (byte) 0, (byte) 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    void tokenize_swar_same_as_scalar() {
+
+        //given
+        var random = new Random(7);
+        var scalar = new CSVLineTokenizer(ByteScanner.SCALAR);
+        var swar = new CSVLineTokenizer(ByteScanner.SWAR);
+        for (int run = 0; run < 10000; run++)
+        {
+            byte[] line = randomBytes(random, random.nextInt(120));
+
+            //when
+            int expected = scalar.tokenize(line, 0, line.length);
+            int actual = swar.tokenize(line, 0, line.length);
+
+            //then
+            assertEquals(expected, actual);
+            for (int field = 0; field < Math.min(expected, CSVLineTokenizer.NUM_FIELDS); field++)
+            {
+                assertEquals(scalar.begin(field), swar.begin(field));
+                assertEquals(scalar.end(field), swar.end(field));
+            }
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length)
+    {
+        byte[] buffer = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            //mostly plain bytes, so that tokenizable lines are frequent
+            buffer[i] = random.nextInt(4) == 0 ? ALPHABET[random.nextInt(ALPHABET.length)] : (byte) 'a';
+        }
+        return buffer;
+    }
+}
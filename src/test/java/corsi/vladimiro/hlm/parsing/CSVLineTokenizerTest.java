@@ -0,0 +1,54 @@
+package corsi.vladimiro.hlm.parsing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CSVLineTokenizerTest {
+
+    @Test
+    void tokenize() {
+        var tokenizer = new CSVLineTokenizer();
+        byte[] line = bytes("\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234");
+
+        assertEquals(7, tokenizer.tokenize(line, 0, line.length));
+        assertEquals("10.0.0.1", field(tokenizer, line, CSVLineTokenizer.REMOTE_HOST));
+        assertEquals("1549574332", field(tokenizer, line, CSVLineTokenizer.DATE));
+        assertEquals("GET /api/user HTTP/1.0", field(tokenizer, line, CSVLineTokenizer.REQUEST));
+        assertEquals("200", field(tokenizer, line, CSVLineTokenizer.STATUS));
+        assertEquals("1234", field(tokenizer, line, CSVLineTokenizer.BYTES));
+
+        assertEquals(1, tokenizer.tokenize(line, 0, 0));
+        assertEquals(CSVLineTokenizer.UNSUPPORTED, tokenizer.tokenize(bytes("\"a\"\"b\",c"), 0, 6));
+        assertEquals(CSVLineTokenizer.UNSUPPORTED, tokenizer.tokenize(bytes("\"a,b"), 0, 4));
+        assertEquals(CSVLineTokenizer.UNSUPPORTED, tokenizer.tokenize(bytes("a\\b,c"), 0, 5));
+    }
+
+    @Test
+    void parseNonNegativeLong() {
+        for (String value : new String[]{"0", "-0", "1549574332", "+7", String.valueOf(Long.MAX_VALUE)})
+        {
+            byte[] bytes = bytes(value);
+            assertEquals(Long.parseLong(value), CSVLineTokenizer.parseNonNegativeLong(bytes, 0, bytes.length));
+        }
+        for (String value : new String[]{"", "-", "1a", "-12", "9223372036854775808", String.valueOf(Long.MIN_VALUE),
+                " 1"})
+        {
+            byte[] bytes = bytes(value);
+            assertEquals(-1, CSVLineTokenizer.parseNonNegativeLong(bytes, 0, bytes.length));
+        }
+    }
+
+    private static String field(CSVLineTokenizer tokenizer, byte[] line, int field)
+    {
+        return new String(line, tokenizer.begin(field), tokenizer.end(field) - tokenizer.begin(field),
+                StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
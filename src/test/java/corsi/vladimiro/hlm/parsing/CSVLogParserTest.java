@@ -1,6 +1,7 @@
 package corsi.vladimiro.hlm.parsing;
 
 import com.opencsv.exceptions.CsvValidationException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -9,10 +10,18 @@ import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 @ExtendWith(MockitoExtension.class)
 class CSVLogParserTest {
@@ -20,6 +29,12 @@ class CSVLogParserTest {
     @Mock
     private DataPointListener listener;
 
+    @BeforeEach
+    void setUp() {
+        //a mock would otherwise require no field at all
+        Mockito.lenient().doReturn(EnumSet.allOf(DataPointField.class)).when(listener).getRequiredFields();
+    }
+
     @Test
     void parse() throws CsvValidationException, IOException {
 
@@ -66,10 +81,358 @@ class CSVLogParserTest {
         assertEquals(1549574333, captor.getAllValues().get(0).getUnixTimestamp());
     }
 
+    @Test
+    void parse_bytes() throws CsvValidationException, IOException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",200,1136");
+
+        //when
+        CSVLogParser.builder(toInputStream(content))
+                .withListeners(listener).build().parse();
+
+        //then
+        ArgumentCaptor<DataPoint> captor = ArgumentCaptor.forClass(DataPoint.class);
+        Mockito.verify(listener, Mockito.times(2)).onDataPoint(captor.capture());
+
+        assertEquals(1549574332, captor.getAllValues().get(0).getUnixTimestamp());
+        assertEquals("/api", captor.getAllValues().get(0).getSection());
+        assertEquals(1234, captor.getAllValues().get(0).getBytes());
+        assertEquals("10.0.0.1", captor.getAllValues().get(0).getRemoteHost());
+        assertEquals("200", captor.getAllValues().get(0).getStatus());
+
+        assertEquals(1549574333, captor.getAllValues().get(1).getUnixTimestamp());
+        assertEquals("/report", captor.getAllValues().get(1).getSection());
+    }
+
+    @Test
+    void parse_bytes_with_invalid_line() throws CsvValidationException, IOException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",\"not a timestamp\",\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",200,1136");
+
+        //when
+        CSVLogParser.builder(toInputStream(content))
+                .withListeners(listener).build().parse();
+
+        //then
+        ArgumentCaptor<DataPoint> captor = ArgumentCaptor.forClass(DataPoint.class);
+        Mockito.verify(listener, Mockito.times(1)).onDataPoint(captor.capture());
+        assertEquals(1549574333, captor.getAllValues().get(0).getUnixTimestamp());
+    }
+
+    @Test
+    void parse_bytes_same_as_opencsv() throws CsvValidationException, IOException {
+
+        //given: lines with unusual quoting are parsed by the fallback parser
+        String content = String.join("\r\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"
+                , "10.0.0.2,-,apache,1549574332,GET /api/user HTTP/1.0,404,0"
+                , "\"10.0.0.3\",\"-\",\"ap\"\"ache\",1549574333,\"GET /report HTTP/1.0\",200,1136"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574333,\"GET /multi"
+                , "line HTTP/1.0\",500,12"
+                , "\"10.0.0.5\",\"-\",\"apache\",1549574334,\"GET /api/user HTTP/1.0\",200,-1"
+                , "\"10.0.0.6\",\"-\",\"apache\",1549574334,\"GET /ap\u00ec HTTP/1.0\",200,1"
+                , "\"10.0.0.7\",\"-\",\"apache\",1549574334,\"GET api HTTP/1.0\",200,1"
+                , ""
+                , "\"10.0.0.8\",\"-\",\"apache\",1549574335,\"GET /help HTTP/1.0\",200,99999,extra");
+
+        //when
+        var fromBytes = new CollectingListener();
+        CSVLogParser.builder(toInputStream(content))
+                .withListeners(fromBytes).build().parse();
+        var fromChars = new CollectingListener();
+        CSVLogParser.builder(new BufferedReader(new StringReader(content)))
+                .withListeners(fromChars).build().parse();
+
+        //then
+        assertEquals(6, fromChars.dataPoints.size());
+        assertEquals(fromChars.dataPoints.size(), fromBytes.dataPoints.size());
+        for (int i = 0; i < fromChars.dataPoints.size(); i++)
+        {
+            var expected = fromChars.dataPoints.get(i);
+            var actual = fromBytes.dataPoints.get(i);
+            assertEquals(expected.getUnixTimestamp(), actual.getUnixTimestamp());
+            assertEquals(expected.getSection(), actual.getSection());
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getBytes(), actual.getBytes());
+            assertEquals(expected.getRemoteHost(), actual.getRemoteHost());
+        }
+    }
+
+    @Test
+    void parse_bytes_with_data_point_reuse() throws CsvValidationException, IOException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",404,1136");
+
+        //when values are read while the listener is notified
+        var instances = new ArrayList<DataPoint>();
+        var values = new ArrayList<String>();
+        CSVLogParser.builder(toInputStream(content))
+                .withDataPointReuse()
+                .withListeners(dataPoint -> {
+                    instances.add(dataPoint);
+                    values.add(dataPoint.getUnixTimestamp() + " " + dataPoint.getSection() + " "
+                            + dataPoint.getStatus() + " " + dataPoint.getBytes() + " " + dataPoint.getRemoteHost());
+                })
+                .build().parse();
+
+        //then
+        assertEquals(List.of(
+                "1549574332 /api 200 1234 10.0.0.1",
+                "1549574333 /report 404 1136 10.0.0.4"), values);
+        assertSame(instances.get(0), instances.get(1));
+    }
+
+    @Test
+    void parse_bytes_in_batches() throws CsvValidationException, IOException {
+
+        //given a multi-line quoted field parsed by the fallback parser in the middle
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.2\",\"-\",\"multi"
+                , "line\",1549574333,\"GET /report HTTP/1.0\",500,10"
+                , "\"10.0.0.3\",\"-\",\"apache\",1549574334,\"GET /api/user HTTP/1.0\",200,20"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574335,\"GET /report HTTP/1.0\",404,1136"
+                , "\"10.0.0.5\",\"-\",\"apache\",1549574336,\"GET /report HTTP/1.0\",abc,1");
+
+        //when
+        var batchSizes = new ArrayList<Integer>();
+        var values = new ArrayList<String>();
+        CSVLogParser.builder(toInputStream(content))
+                .withBatchSize(2)
+                .withListeners(new DataPointListener() {
+                    @Override
+                    public void onDataPoint(DataPoint dataPoint) {
+                        values.add(dataPoint.getUnixTimestamp() + " " + dataPoint.getSection() + " "
+                                + dataPoint.getStatus() + " " + dataPoint.getBytes() + " " + dataPoint.getRemoteHost());
+                    }
+
+                    @Override
+                    public void onBatch(DataPointBatch batch) {
+                        batchSizes.add(batch.size());
+                        DataPointListener.super.onBatch(batch);
+                    }
+                })
+                .build().parse();
+
+        //then
+        assertEquals(List.of(2, 2, 1), batchSizes);
+        assertEquals(List.of(
+                "1549574332 /api 200 1234 10.0.0.1",
+                "1549574333 /report 500 10 10.0.0.2",
+                "1549574334 /api 200 20 10.0.0.3",
+                "1549574335 /report 404 1136 10.0.0.4",
+                "1549574336 /report  1 10.0.0.5"), values);
+    }
+
+    @Test
+    void parse_bytes_only_required_fields() throws CsvValidationException, IOException {
+
+        //given a line whose bytes are not a number
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,abc"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",404,1136");
+
+        //when only timestamp and section are required
+        var values = new ArrayList<String>();
+        CSVLogParser.builder(toInputStream(content))
+                .withListeners(new DataPointListener() {
+                    @Override
+                    public void onDataPoint(DataPoint dataPoint) {
+                        values.add(dataPoint.getUnixTimestamp() + " " + dataPoint.getSection() + " ["
+                                + dataPoint.getStatus() + "] " + dataPoint.getBytes() + " ["
+                                + dataPoint.getRemoteHost() + "]");
+                    }
+
+                    @Override
+                    public Set<DataPointField> getRequiredFields() {
+                        return EnumSet.of(DataPointField.TIMESTAMP, DataPointField.SECTION);
+                    }
+                })
+                .build().parse();
+
+        //then the other fields are neither decoded nor validated
+        assertEquals(List.of(
+                "1549574332 /api [] 0 []",
+                "1549574333 /report [] 0 []"), values);
+    }
+
+    @Test
+    void parse_bytes_counts_malformed_lines() throws CsvValidationException, IOException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200"
+                , "\"10.0.0.1\",\"-\",\"apache\",-1,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET api HTTP/1.0\",200,1234"
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,12a"
+                , "\"10.0.0.1\",\"-\",\"ap\"\"ache\",x,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",200,1136");
+
+        //when
+        var malformedLines = new ArrayList<String>();
+        var parser = CSVLogParser.builder(toInputStream(content))
+                .withListeners(listener)
+                .withMalformedLineListener((reason, line, from, to) -> malformedLines.add(
+                        reason + " " + new String(line, from, to - from, StandardCharsets.UTF_8)))
+                .build();
+        parser.parse();
+
+        //then
+        Mockito.verify(listener, Mockito.times(1)).onDataPoint(Mockito.any());
+        assertEquals(1, parser.getMalformedLineCount(MalformedLineReason.WRONG_COLUMN_COUNT));
+        assertEquals(2, parser.getMalformedLineCount(MalformedLineReason.BAD_TIMESTAMP));
+        assertEquals(1, parser.getMalformedLineCount(MalformedLineReason.BAD_REQUEST));
+        assertEquals(1, parser.getMalformedLineCount(MalformedLineReason.BAD_BYTES));
+        assertEquals(0, parser.getMalformedLineCount(MalformedLineReason.BAD_CSV));
+        assertEquals(5, malformedLines.size());
+        assertEquals("BAD_REQUEST \"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET api HTTP/1.0\",200,1234",
+                malformedLines.get(2));
+    }
+
+    @Test
+    void parse_status_normalized_on_every_path() throws CsvValidationException, IOException {
+
+        //given: the third line is parsed by the fallback parser
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",0200,1"
+                , "\"10.0.0.2\",\"-\",\"apache\",1549574333,\"GET /api/user HTTP/1.0\",abc,2"
+                , "\"10.0.0.3\",\"-\",\"ap\"\"ache\",1549574334,\"GET /api/user HTTP/1.0\",0404,3"
+                , "\"10.0.0.4\",\"-\",\"apache\",1549574335,\"GET /api/user HTTP/1.0\",1000,4"
+                , "\"10.0.0.5\",\"-\",\"apache\",1549574336,\"GET /api/user HTTP/1.0\",,5");
+
+        //when
+        var statuses = new ArrayList<List<String>>();
+        for (int batchSize : new int[]{0, 2})
+        {
+            var pathStatuses = new ArrayList<String>();
+            var builder = CSVLogParser.builder(toInputStream(content))
+                    .withListeners(dataPoint -> pathStatuses.add(dataPoint.getStatus()));
+            if (batchSize > 0)
+            {
+                builder.withBatchSize(batchSize);
+            }
+            builder.build().parse();
+            statuses.add(pathStatuses);
+        }
+        var fromChars = new ArrayList<String>();
+        CSVLogParser.builder(new BufferedReader(new StringReader(content)))
+                .withListeners(dataPoint -> fromChars.add(dataPoint.getStatus())).build().parse();
+        statuses.add(fromChars);
+
+        //then
+        var expected = List.of("200", "", "404", "1000", "");
+        assertEquals(List.of(expected, expected, expected), statuses);
+    }
+
+    @Test
+    void parse_bytes_with_format_same_as_csv() throws CsvValidationException, IOException {
+
+        //given
+        String csv = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.2\",\"-\",\"apache\",1549574333,\"POST /report HTTP/1.0\",500,0"
+                , "\"10.0.0.3\",\"-\",\"apache\",1549574334,\"GET /help HTTP/1.0\",404,12");
+        String clf = String.join("\n"
+                , "10.0.0.1 - apache [07/Feb/2019:21:18:52 +0000] \"GET /api/user HTTP/1.0\" 200 1234"
+                , "10.0.0.2 - apache [07/Feb/2019:22:18:53 +0100] \"POST /report HTTP/1.0\" 500 -"
+                , "10.0.0.3 - apache [07/Feb/2019:21:18:54 +0000] \"GET /help HTTP/1.0\" 404 12 \"-\" \"curl/7.64\"");
+
+        //when
+        var fromCsv = new CollectingListener();
+        CSVLogParser.builder(toInputStream(csv))
+                .withListeners(fromCsv).build().parse();
+        var fromClf = new CollectingListener();
+        CSVLogParser.builder(toInputStream(clf))
+                .withListeners(fromClf).withFormat(new CommonLogFormat()).build().parse();
+
+        //then
+        assertEquals(3, fromCsv.dataPoints.size());
+        assertEquals(fromCsv.dataPoints.size(), fromClf.dataPoints.size());
+        for (int i = 0; i < fromCsv.dataPoints.size(); i++)
+        {
+            var expected = fromCsv.dataPoints.get(i);
+            var actual = fromClf.dataPoints.get(i);
+            assertEquals(expected.getUnixTimestamp(), actual.getUnixTimestamp());
+            assertEquals(expected.getSection(), actual.getSection());
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getBytes(), actual.getBytes());
+            assertEquals(expected.getRemoteHost(), actual.getRemoteHost());
+        }
+    }
+
+    @Test
+    void parse_bytes_with_drop_filters() throws CsvValidationException, IOException {
+
+        //given: the last line is parsed by the fallback parser
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /healthz HTTP/1.0\",200,12"
+                , "\"10.0.0.2\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",304,0"
+                , "\"10.0.1.3\",\"-\",\"apache\",1549574333,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"192.168.0.4\",\"-\",\"apache\",not a timestamp,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"192.168.0.5\",\"-\",\"apache\",1549574334,\"GET /report HTTP/1.0\",200,1234"
+                , "\"10.0.1.6\",\"-\",\"ap\"\"ache\",1549574335,\"GET /healthz/ready HTTP/1.0\",200,1");
+        var section = LineFilters.sectionPrefix("/healthz");
+        var status = LineFilters.statusClass(3);
+        var host = LineFilters.remoteHostCidr("192.168.0.0/16");
+
+        //when
+        var dataPoints = new CollectingListener();
+        var parser = CSVLogParser.builder(toInputStream(content))
+                .withListeners(dataPoints)
+                .withDropFilters(section, status, host)
+                .build();
+        parser.parse();
+
+        //then: filters are evaluated before fields are validated
+        assertEquals(1, dataPoints.dataPoints.size());
+        assertEquals("10.0.1.3", dataPoints.dataPoints.get(0).getRemoteHost());
+        assertEquals(2, parser.getDroppedLineCount(section));
+        assertEquals(1, parser.getDroppedLineCount(status));
+        assertEquals(2, parser.getDroppedLineCount(host));
+        assertEquals(0, parser.getMalformedLineCount(MalformedLineReason.BAD_TIMESTAMP));
+    }
+
     @Test
     void parseSection() {
         assertEquals("/api", CSVLogParser.parseSection("/api/request/ HTTP/1.0"));
         assertEquals("/apiv2", CSVLogParser.parseSection("/apiv2 HTTP/1.0"));
         assertEquals("/apiv3", CSVLogParser.parseSection("POST /apiv3 HTTP"));
+        assertNull(CSVLogParser.parseSection("GET api HTTP/1.0"));
+        assertNull(CSVLogParser.parseSection("GET /api/user"));
+    }
+
+    private static ByteArrayInputStream toInputStream(String content)
+    {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class CollectingListener implements DataPointListener
+    {
+        private final List<DataPoint> dataPoints = new ArrayList<>();
+
+        @Override
+        public void onDataPoint(DataPoint dataPoint)
+        {
+            dataPoints.add(dataPoint);
+        }
     }
 }
\ No newline at end of file
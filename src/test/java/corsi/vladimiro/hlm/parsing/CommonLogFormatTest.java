@@ -0,0 +1,98 @@
+package corsi.vladimiro.hlm.parsing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CommonLogFormatTest {
+
+    private final CommonLogFormat.Decoder decoder =
+            (CommonLogFormat.Decoder) new CommonLogFormat().newDecoder(EnumSet.allOf(DataPointField.class));
+
+    @Test
+    void decode_combined_line() {
+
+        //given
+        var line = bytes("127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] "
+                + "\"GET /apache_pb.gif/x?q=\\\"a\\\" HTTP/1.0\" 200 2326 \"http://example.com/\" \"Mozilla/4.08\"");
+        var decoded = new DecodedLine();
+
+        //when
+        var reason = decoder.decode(line, 0, line.length, decoded);
+
+        //then
+        assertNull(reason);
+        assertEquals(971211336, decoded.getTimestamp());
+        assertEquals("/apache_pb.gif", slice(line, decoded.getSectionBegin(), decoded.getSectionEnd()));
+        assertEquals("200", slice(line, decoded.getStatusBegin(), decoded.getStatusEnd()));
+        assertEquals(2326, decoded.getBytes());
+        assertEquals("127.0.0.1", slice(line, decoded.getRemoteHostBegin(), decoded.getRemoteHostEnd()));
+    }
+
+    @Test
+    void decode_caches_last_minute() {
+
+        //given
+        String[] dates = {
+                "10/Oct/2000:13:55:36 -0700",
+                "10/Oct/2000:13:55:36 -0700",
+                "10/Oct/2000:13:55:59 -0700",
+                "10/Oct/2000:13:56:00 -0700",
+                "10/Oct/2000:13:56:00 +0000",
+                "10/Oct/2000:13:56:01 +0000"
+        };
+        long[] expected = {971211336, 971211336, 971211359, 971211360, 971186160, 971186161};
+
+        for (int i = 0; i < dates.length; i++)
+        {
+            //when
+            var line = bytes("10.0.0.1 - - [" + dates[i] + "] \"GET /api HTTP/1.0\" 200 1");
+            var decoded = new DecodedLine();
+            var reason = decoder.decode(line, 0, line.length, decoded);
+
+            //then
+            assertNull(reason);
+            assertEquals(expected[i], decoded.getTimestamp(), dates[i]);
+        }
+        assertEquals(3, decoder.getFullDateParsings());
+    }
+
+    @Test
+    void decode_malformed_lines() {
+        assertEquals(MalformedLineReason.WRONG_COLUMN_COUNT, decode("10.0.0.1 - - \"GET /api HTTP/1.0\" 200 1"));
+        assertEquals(MalformedLineReason.WRONG_COLUMN_COUNT,
+                decode("10.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET /api HTTP/1.0\""));
+        assertEquals(MalformedLineReason.BAD_TIMESTAMP,
+                decode("10.0.0.1 - - [31/Feb/2000:13:55:36 -0700] \"GET /api HTTP/1.0\" 200 1"));
+        assertEquals(MalformedLineReason.BAD_TIMESTAMP,
+                decode("10.0.0.1 - - [10/Foo/2000:13:55:36 -0700] \"GET /api HTTP/1.0\" 200 1"));
+        assertEquals(MalformedLineReason.BAD_TIMESTAMP,
+                decode("10.0.0.1 - - [10/Oct/2000:13:55:60 -0700] \"GET /api HTTP/1.0\" 200 1"));
+        assertEquals(MalformedLineReason.BAD_TIMESTAMP,
+                decode("10.0.0.1 - - [10/Oct/2000 13:55:36] \"GET /api HTTP/1.0\" 200 1"));
+        assertEquals(MalformedLineReason.BAD_REQUEST,
+                decode("10.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"-\" 408 -"));
+        assertEquals(MalformedLineReason.BAD_BYTES,
+                decode("10.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET /api HTTP/1.0\" 200 x"));
+    }
+
+    private MalformedLineReason decode(String line)
+    {
+        var bytes = bytes(line);
+        return decoder.decode(bytes, 0, bytes.length, new DecodedLine());
+    }
+
+    private static byte[] bytes(String line)
+    {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String slice(byte[] line, int from, int to)
+    {
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package corsi.vladimiro.hlm.parsing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineFiltersTest {
+
+    @Test
+    void sectionPrefix() {
+        var filter = LineFilters.sectionPrefix("/health");
+
+        assertEquals(DataPointField.SECTION, filter.getField());
+        assertTrue(matches(filter, "/healthz"));
+        assertTrue(matches(filter, "/health"));
+        assertFalse(matches(filter, "/api"));
+        assertFalse(matches(filter, "/heal"));
+        assertFalse(matches(filter, ""));
+    }
+
+    @Test
+    void statusClass() {
+        var filter = LineFilters.statusClass(3);
+
+        assertEquals(DataPointField.STATUS, filter.getField());
+        assertTrue(matches(filter, "304"));
+        assertTrue(matches(filter, "301"));
+        assertFalse(matches(filter, "200"));
+        assertFalse(matches(filter, "30"));
+        assertFalse(matches(filter, "3x4"));
+        assertThrows(IllegalArgumentException.class, () -> LineFilters.statusClass(6));
+    }
+
+    @Test
+    void remoteHostCidr() {
+        var filter = LineFilters.remoteHostCidr("10.0.0.0/24");
+
+        assertEquals(DataPointField.REMOTE_HOST, filter.getField());
+        assertTrue(matches(filter, "10.0.0.1"));
+        assertTrue(matches(filter, "10.0.0.255"));
+        assertFalse(matches(filter, "10.0.1.1"));
+        assertFalse(matches(filter, "10.0.0"));
+        assertFalse(matches(filter, "10.0.0.256"));
+        assertFalse(matches(filter, "10.0.0.1.2"));
+        assertFalse(matches(filter, "localhost"));
+        assertTrue(matches(LineFilters.remoteHostCidr("0.0.0.0/0"), "192.168.1.1"));
+        assertTrue(matches(LineFilters.remoteHostCidr("192.168.1.1/32"), "192.168.1.1"));
+        assertFalse(matches(LineFilters.remoteHostCidr("192.168.1.1/32"), "192.168.1.2"));
+        assertThrows(IllegalArgumentException.class, () -> LineFilters.remoteHostCidr("10.0.0.0"));
+        assertThrows(IllegalArgumentException.class, () -> LineFilters.remoteHostCidr("10.0.0.0/33"));
+    }
+
+    private static boolean matches(LineFilter filter, String field)
+    {
+        //the field is surrounded by other bytes as in a line
+        byte[] buffer = ("," + field + ",").getBytes(StandardCharsets.UTF_8);
+        return filter.matches(buffer, 1, buffer.length - 1);
+    }
+}
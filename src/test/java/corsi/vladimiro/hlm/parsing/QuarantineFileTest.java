@@ -0,0 +1,38 @@
+package corsi.vladimiro.hlm.parsing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QuarantineFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rate_limited_sample() throws IOException {
+        //given
+        Path file = tempDir.resolve("quarantine");
+        byte[] line = "xx,bad line,xx".getBytes(StandardCharsets.UTF_8);
+
+        //when a burst of malformed lines is reported
+        try (var quarantine = new QuarantineFile(file, 2))
+        {
+            quarantine.onMalformedLine(MalformedLineReason.BAD_TIMESTAMP, line, 3, 11);
+            quarantine.onMalformedLine(MalformedLineReason.BAD_BYTES, line, 3, 11);
+            quarantine.onMalformedLine(MalformedLineReason.BAD_REQUEST, line, 3, 11);
+
+            //then only the first lines of the second are written
+            assertEquals(2, quarantine.getWrittenLines());
+            assertEquals(1, quarantine.getDroppedLines());
+        }
+        assertEquals(List.of("BAD_TIMESTAMP\tbad line", "BAD_BYTES\tbad line"), Files.readAllLines(file));
+    }
+}
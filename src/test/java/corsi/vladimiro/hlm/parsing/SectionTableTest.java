@@ -0,0 +1,115 @@
+package corsi.vladimiro.hlm.parsing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SectionTableTest {
+
+    @Test
+    void idOf() {
+        var table = new SectionTable();
+        byte[] request = "GET /api/user HTTP/1.0".getBytes(StandardCharsets.UTF_8);
+
+        int api = table.idOf(request, 4, 8);
+        assertEquals(0, api);
+        assertEquals(api, table.idOf("/api"));
+        assertNotEquals(api, table.idOf("/apiv2"));
+        assertEquals("/api", table.nameOf(api));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void idOf_grows() {
+        var table = new SectionTable();
+        for (int i = 0; i < 10_000; i++)
+        {
+            assertEquals(i, table.idOf("/section" + i));
+        }
+        for (int i = 0; i < 10_000; i++)
+        {
+            assertEquals(i, table.idOf("/section" + i));
+            assertEquals("/section" + i, table.nameOf(i));
+        }
+    }
+
+    @Test
+    void limitSize_reassigns_ids() {
+        var table = new SectionTable();
+        table.limitSize(4);
+        for (var section : new String[]{"/a", "/b", "/c", "/d"})
+        {
+            table.idOf(section);
+        }
+        assertEquals(0, table.idOf("/a"));
+
+        //the clock gives /a a second chance and reassigns the id of /b
+        assertEquals(1, table.idOf("/e"));
+        assertEquals("/e", table.nameOf(1));
+        assertEquals(0, table.idOf("/a"));
+        assertEquals(2, table.idOf("/b"));
+        assertEquals(3, table.idOf("/d"));
+        assertEquals(4, table.size());
+        assertEquals(2, table.getReassignedCount());
+    }
+
+    @Test
+    void limitSize_keeps_frequent_sections() {
+        var table = new SectionTable();
+        table.limitSize(1000);
+        int frequent = table.idOf("/frequent");
+        int[] ids = new int[100_000];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = table.idOf("/section" + i);
+            assertEquals("/section" + i, table.nameOf(ids[i]));
+            if (i % 100 == 0)
+            {
+                assertEquals(frequent, table.idOf("/frequent"));
+            }
+        }
+        assertEquals(1000, table.size());
+        long reassigned = table.getReassignedCount();
+        assertEquals(ids.length - 999, reassigned);
+
+        //the latest sections keep their ids
+        for (int i = ids.length - 500; i < ids.length; i++)
+        {
+            assertEquals(ids[i], table.idOf("/section" + i));
+        }
+        assertEquals(reassigned, table.getReassignedCount());
+    }
+
+    @Test
+    void limitSize_keeps_pinned_ids() {
+        var table = new SectionTable();
+        table.limitSize(4);
+        int pinned = table.idOf("/pinned");
+        table.pin(pinned);
+        for (int i = 0; i < 100; i++)
+        {
+            table.idOf("/section" + i);
+        }
+        assertEquals("/pinned", table.nameOf(pinned));
+        assertEquals(4, table.size());
+
+        //once unpinned the id is reassigned as any other
+        table.unpin(pinned);
+        for (int i = 100; i < 200; i++)
+        {
+            table.idOf("/section" + i);
+        }
+        assertNotEquals("/pinned", table.nameOf(pinned));
+
+        //all the ids pinned: new ids are assigned beyond the maximum size
+        for (int id = 0; id < 4; id++)
+        {
+            table.pin(id);
+        }
+        assertEquals(4, table.idOf("/overflow"));
+        assertEquals(5, table.size());
+    }
+}
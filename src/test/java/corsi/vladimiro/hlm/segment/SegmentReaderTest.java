@@ -0,0 +1,167 @@
+package corsi.vladimiro.hlm.segment;
+
+import com.opencsv.exceptions.CsvValidationException;
+import corsi.vladimiro.hlm.parsing.CSVLogParser;
+import corsi.vladimiro.hlm.parsing.DataPoint;
+import corsi.vladimiro.hlm.parsing.DataPointField;
+import corsi.vladimiro.hlm.parsing.DataPointListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SegmentReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void replay_same_as_parse() throws IOException, CsvValidationException {
+
+        //given: more blocks, out of order timestamps and enough remote hosts to reset the dictionaries
+        var content = new StringBuilder(
+                "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\"\n");
+        for (int i = 0; i < 70000; i++)
+        {
+            content.append("\"10.").append(i / 256).append('.').append(i % 256).append(".1\",\"-\",\"apache\",")
+                    .append(1549574332 + i / 10 - (i % 7 == 0 ? 5 : 0))
+                    .append(",\"GET /section").append(i % 13).append("/x HTTP/1.0\",")
+                    .append(i % 5 == 0 ? 500 : 200).append(',').append(i * 1000L).append('\n');
+        }
+        Path segment = tempDir.resolve("segment");
+        var parsed = new DescribingListener(EnumSet.allOf(DataPointField.class));
+
+        //when
+        try (var writer = new SegmentWriter(segment))
+        {
+            CSVLogParser.builder(new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)))
+                    .withListeners(parsed, writer)
+                    .build()
+                    .parse();
+            assertEquals(70000, writer.getWrittenDataPoints());
+        }
+        var replayed = new DescribingListener(EnumSet.allOf(DataPointField.class));
+        SegmentReader.builder(segment).withListeners(replayed).build().replay();
+
+        //then
+        assertEquals(parsed.dataPoints, replayed.dataPoints);
+    }
+
+    @Test
+    void replay_only_required_fields() throws IOException, CsvValidationException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234"
+                , "\"10.0.0.2\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",404,10");
+        Path segment = tempDir.resolve("segment");
+        try (var writer = new SegmentWriter(segment))
+        {
+            CSVLogParser.builder(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))
+                    .withListeners(writer)
+                    .build()
+                    .parse();
+        }
+
+        //when
+        var replayed = new DescribingListener(EnumSet.of(DataPointField.TIMESTAMP, DataPointField.SECTION));
+        SegmentReader.builder(segment).withListeners(replayed).build().replay();
+
+        //then
+        assertEquals(List.of("1549574332 /api  0 ", "1549574333 /report  0 "), replayed.dataPoints);
+    }
+
+    @Test
+    void replay_normalized_statuses() throws IOException, CsvValidationException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",0200,1234"
+                , "\"10.0.0.2\",\"-\",\"apache\",1549574333,\"GET /report HTTP/1.0\",abc,10");
+        Path segment = tempDir.resolve("segment");
+        try (var writer = new SegmentWriter(segment))
+        {
+            CSVLogParser.builder(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))
+                    .withListeners(writer)
+                    .build()
+                    .parse();
+        }
+
+        //when
+        var replayed = new DescribingListener(EnumSet.allOf(DataPointField.class));
+        SegmentReader.builder(segment).withListeners(replayed).build().replay();
+
+        //then: as parsed, see CSVLogParserTest
+        assertEquals(List.of("1549574332 /api 200 1234 10.0.0.1", "1549574333 /report  10 10.0.0.2"),
+                replayed.dataPoints);
+    }
+
+    @Test
+    void replay_corrupt_segment() throws IOException, CsvValidationException {
+
+        //given
+        String content = String.join("\n"
+                , "\"remotehost\",\"rfc931\",\"authuser\",\"date\",\"request\",\"status\",\"bytes\""
+                , "\"10.0.0.1\",\"-\",\"apache\",1549574332,\"GET /api/user HTTP/1.0\",200,1234");
+        Path segment = tempDir.resolve("segment");
+        try (var writer = new SegmentWriter(segment))
+        {
+            CSVLogParser.builder(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)))
+                    .withListeners(writer)
+                    .build()
+                    .parse();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        Path truncated = tempDir.resolve("truncated");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        Path notSegment = tempDir.resolve("log");
+        Files.writeString(notSegment, content);
+
+        //when, then
+        var listener = new DescribingListener(EnumSet.allOf(DataPointField.class));
+        assertThrows(IOException.class,
+                () -> SegmentReader.builder(truncated).withListeners(listener).build().replay());
+        assertThrows(IOException.class,
+                () -> SegmentReader.builder(notSegment).withListeners(listener).build().replay());
+    }
+
+    private static class DescribingListener implements DataPointListener
+    {
+        private final Set<DataPointField> requiredFields;
+        private final List<String> dataPoints = new ArrayList<>();
+
+        private DescribingListener(Set<DataPointField> requiredFields)
+        {
+            this.requiredFields = requiredFields;
+        }
+
+        @Override
+        public void onDataPoint(@Nonnull DataPoint dataPoint)
+        {
+            dataPoints.add(dataPoint.getUnixTimestamp() + " " + dataPoint.getSection() + " " + dataPoint.getStatus()
+                    + " " + dataPoint.getBytes() + " " + dataPoint.getRemoteHost());
+        }
+
+        @Nonnull
+        @Override
+        public Set<DataPointField> getRequiredFields()
+        {
+            return requiredFields;
+        }
+    }
+}